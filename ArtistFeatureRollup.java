@@ -0,0 +1,409 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Per-artist averages of the nine audio features over the whole catalog.
+ *
+ * Input: Spotify_cleaned.csv. The artists column holds a Python list
+ * literal such as ['A', "B's"] (CSV-quoted when it has a comma); every
+ * artist on a track gets the track, so a collaboration counts towards each
+ * of its artists. A value that is not a list is one artist name.
+ *
+ * Output: artist,avg_valence,...,avg_tempo,song_count with a header from
+ * reducer 0, the artist CSV-escaped.
+ *
+ * The mapper parses the list in place on the line's bytes and looks each
+ * name up in a per-task {@link ArtistDictionary}, which assigns dense int
+ * ids; feature sums accumulate in arrays indexed by id. Names and sums go
+ * to the shuffle once per artist per map task, from cleanup(), instead of
+ * once per track and artist. {@link #DICTIONARY_MAX} bounds the task's
+ * memory: a full dictionary is flushed and started again.
+ */
+public class ArtistFeatureRollup {
+
+    /** Artists a map task holds before flushing its partials (default 1M). */
+    public static final String DICTIONARY_MAX = "artistfeatures.dictionary.max";
+
+    private static final String COUNTER_GROUP = "ARTIST_FEATURES";
+
+    static final String HEADER = "artist,avg_valence,avg_danceability,avg_energy,"
+            + "avg_acousticness,avg_instrumentalness,avg_liveness,"
+            + "avg_loudness,avg_speechiness,avg_tempo,song_count";
+
+    private static final int ARTISTS_COLUMN = 3;
+
+    /**
+     * Interned artist names with dense ids, in one byte pool.
+     *
+     * Open addressing over a power-of-two table of ids, resized at 50% load;
+     * a slot holds id + 1, or 0 when free.
+     */
+    static final class ArtistDictionary {
+        private byte[] pool = new byte[1 << 16];
+        private int poolSize;
+        private int[] offsets = new int[1024];
+        private int[] hashes = new int[1024];
+        private int[] table = new int[2048];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Id of b[s, e), added if new.
+         */
+        int idOf(byte[] b, int s, int e) {
+            int hash = WritableComparator.hashBytes(b, s, e - s);
+            int mask = table.length - 1;
+            int slot = mix(hash) & mask;
+            while (table[slot] != 0) {
+                int id = table[slot] - 1;
+                if (hashes[id] == hash && WritableComparator.compareBytes(
+                        pool, offsets[id], offsets[id + 1] - offsets[id], b, s, e - s) == 0) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return add(b, s, e, hash, slot);
+        }
+
+        private int add(byte[] b, int s, int e, int hash, int slot) {
+            int id = size++;
+            if (size + 1 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            }
+            if (poolSize + (e - s) > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + (e - s)));
+            }
+            System.arraycopy(b, s, pool, poolSize, e - s);
+            offsets[id] = poolSize;
+            poolSize += e - s;
+            offsets[id + 1] = poolSize;
+            hashes[id] = hash;
+            table[slot] = id + 1;
+            if (2 * size > table.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int id = 0; id < size; id++) {
+                int slot = mix(hashes[id]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = id + 1;
+            }
+        }
+
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            return h ^ (h >>> 13);
+        }
+
+        void name(int id, Text out) {
+            out.set(pool, offsets[id], offsets[id + 1] - offsets[id]);
+        }
+
+        void clear() {
+            Arrays.fill(table, 0);
+            size = 0;
+            poolSize = 0;
+        }
+    }
+
+    /**
+     * Iterates over the names in a Python list literal held in a CSV field,
+     * unescaping CSV "" and Python backslash escapes into a reusable buffer.
+     */
+    static final class ArtistList {
+        private byte[] b;
+        private int pos;
+        private int end;
+        private boolean csvQuoted;
+        private boolean list;
+
+        byte[] name = new byte[64];
+        int length;
+
+        void reset(byte[] bytes, int start, int end, boolean csvQuoted) {
+            this.b = bytes;
+            this.csvQuoted = csvQuoted;
+            pos = csvQuoted ? start + 1 : start;
+            this.end = csvQuoted ? end - 1 : end;
+            while (pos < this.end && (b[pos] & 0xff) <= ' ') {
+                pos++;
+            }
+            while (this.end > pos && (b[this.end - 1] & 0xff) <= ' ') {
+                this.end--;
+            }
+            list = this.end - pos >= 2 && b[pos] == '[' && b[this.end - 1] == ']';
+            if (list) {
+                pos++;
+                this.end--;
+            }
+        }
+
+        /**
+         * Loads the next non-empty name into {@link #name}; false at the end.
+         */
+        boolean next() {
+            if (!list) {
+                // A bare value is a single name, read once.
+                length = 0;
+                while (pos < end) {
+                    put(read());
+                }
+                return length > 0;
+            }
+            while (pos < end) {
+                while (pos < end && (b[pos] == ',' || (b[pos] & 0xff) <= ' ')) {
+                    pos++;
+                }
+                if (pos == end) {
+                    return false;
+                }
+                length = 0;
+                int quote = peek();
+                if (quote == '\'' || quote == '"') {
+                    read();
+                    while (pos < end) {
+                        int c = read();
+                        if (c == quote) {
+                            break;
+                        }
+                        if (c == '\\' && pos < end) {
+                            c = read();
+                        }
+                        put(c);
+                    }
+                } else {
+                    while (pos < end && b[pos] != ',') {
+                        put(read());
+                    }
+                    while (length > 0 && (name[length - 1] & 0xff) <= ' ') {
+                        length--;
+                    }
+                }
+                if (length > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int peek() {
+            return b[pos] & 0xff;
+        }
+
+        // One byte of the literal; in a CSV-quoted field "" stands for ".
+        private int read() {
+            int c = b[pos++] & 0xff;
+            if (c == '"' && csvQuoted && pos < end && b[pos] == '"') {
+                pos++;
+            }
+            return c;
+        }
+
+        private void put(int c) {
+            if (length == name.length) {
+                name = Arrays.copyOf(name, length * 2);
+            }
+            name[length++] = (byte) c;
+        }
+    }
+
+    public static class ArtistMapper extends Mapper<LongWritable, Text, Text, FeatureSumsWritable> {
+
+        private final CsvFieldScanner scanner = new CsvFieldScanner();
+        private final ArtistList artists = new ArtistList();
+        private final ArtistDictionary dictionary = new ArtistDictionary();
+        private final double[] track = new double[FeatureSumsWritable.NUM_FEATURES];
+        private double[] sums = new double[1024 * FeatureSumsWritable.NUM_FEATURES];
+        private long[] counts = new long[1024];
+        private int maxArtists;
+        private boolean headerSkipped;
+
+        private final Text outKey = new Text();
+        private final FeatureSumsWritable outValue = new FeatureSumsWritable();
+
+        private final CounterRegistry counters = new CounterRegistry();
+        private int tracksMapped;
+        private int tracksSkipped;
+        private int artistCredits;
+        private int partialsEmitted;
+        private int flushes;
+
+        @Override
+        protected void setup(Context context) {
+            tracksMapped = counters.register(COUNTER_GROUP, "TRACKS_MAPPED");
+            tracksSkipped = counters.register(COUNTER_GROUP, "TRACKS_SKIPPED");
+            artistCredits = counters.register(COUNTER_GROUP, "ARTIST_CREDITS");
+            partialsEmitted = counters.register(COUNTER_GROUP, "PARTIALS_EMITTED");
+            flushes = counters.register(COUNTER_GROUP, "DICTIONARY_FLUSHES");
+            counters.bind(context);
+            maxArtists = context.getConfiguration().getInt(DICTIONARY_MAX, 1 << 20);
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            counters.tick();
+            scanner.scan(value);
+            if (scanner.isBlankLine()) {
+                return;
+            }
+            if (!headerSkipped) {
+                headerSkipped = true;
+                if (scanner.lineStartsWithIgnoreCase("valence")) {
+                    return;
+                }
+            }
+            if (!AudioFeatureRollup.readFeatures(scanner, track)) {
+                counters.increment(tracksSkipped);
+                return;
+            }
+            counters.increment(tracksMapped);
+
+            artists.reset(scanner.bytes(), scanner.trimmedStart(ARTISTS_COLUMN),
+                    scanner.trimmedEnd(ARTISTS_COLUMN), scanner.isQuoted(ARTISTS_COLUMN));
+            while (artists.next()) {
+                if (dictionary.size() == maxArtists) {
+                    flush(context);
+                    counters.increment(flushes);
+                }
+                int id = dictionary.idOf(artists.name, 0, artists.length);
+                if (id == counts.length) {
+                    counts = Arrays.copyOf(counts, id * 2);
+                    sums = Arrays.copyOf(sums, id * 2 * FeatureSumsWritable.NUM_FEATURES);
+                }
+                int base = id * FeatureSumsWritable.NUM_FEATURES;
+                for (int i = 0; i < FeatureSumsWritable.NUM_FEATURES; i++) {
+                    sums[base + i] += track[i];
+                }
+                counts[id]++;
+                counters.increment(artistCredits);
+            }
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            for (int id = 0; id < dictionary.size(); id++) {
+                dictionary.name(id, outKey);
+                outValue.load(sums, id * FeatureSumsWritable.NUM_FEATURES, counts[id]);
+                context.write(outKey, outValue);
+                counters.increment(partialsEmitted);
+            }
+            Arrays.fill(sums, 0, dictionary.size() * FeatureSumsWritable.NUM_FEATURES, 0.0);
+            Arrays.fill(counts, 0, dictionary.size(), 0L);
+            dictionary.clear();
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+            counters.flush();
+        }
+    }
+
+    /**
+     * Merges the partials of artists a map task flushed more than once.
+     */
+    public static class ArtistCombiner extends Reducer<Text, FeatureSumsWritable, Text, FeatureSumsWritable> {
+
+        private final FeatureSumsWritable totals = new FeatureSumsWritable();
+
+        @Override
+        protected void reduce(Text key, Iterable<FeatureSumsWritable> values, Context context)
+                throws IOException, InterruptedException {
+            totals.clear();
+            for (FeatureSumsWritable v : values) {
+                totals.merge(v);
+            }
+            context.write(key, totals);
+        }
+    }
+
+    public static class ArtistReducer extends Reducer<Text, FeatureSumsWritable, Text, NullWritable> {
+
+        private final FeatureSumsWritable totals = new FeatureSumsWritable();
+        private final CsvRowWriter row = new CsvRowWriter();
+        private final Text out = new Text();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            if (context.getTaskAttemptID().getTaskID().getId() == 0) {
+                out.set(HEADER);
+                context.write(out, NullWritable.get());
+            }
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<FeatureSumsWritable> values, Context context)
+                throws IOException, InterruptedException {
+            totals.clear();
+            for (FeatureSumsWritable v : values) {
+                totals.merge(v);
+            }
+            long count = totals.getCount();
+
+            row.reset();
+            row.appendField(key.getBytes(), 0, key.getLength());
+            for (int i = 0; i < FeatureSumsWritable.NUM_FEATURES; i++) {
+                row.appendDouble(totals.getSum(i) / count);
+            }
+            row.appendLong(count);
+            row.writeTo(out);
+            context.write(out, NullWritable.get());
+        }
+    }
+
+    public static Job createJob(Configuration conf) throws IOException {
+        Job job = Job.getInstance(conf, "Artist Audio Features");
+
+        job.setJarByClass(ArtistFeatureRollup.class);
+        job.setMapperClass(ArtistMapper.class);
+        job.setCombinerClass(ArtistCombiner.class);
+        job.setReducerClass(ArtistReducer.class);
+
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(FeatureSumsWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length != 2) {
+            System.err.println("Usage: ArtistFeatureRollup [-D " + DICTIONARY_MAX + "=N] <input path> <output path>");
+            System.exit(1);
+        }
+
+        Job job = createJob(conf);
+
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
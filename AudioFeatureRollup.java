@@ -0,0 +1,757 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Shared engine for the audio feature rollups over Spotify_cleaned.csv.
+ *
+ * One scan averages the nine audio features per bucket for one or more
+ * {@link FeatureGrouping}s. With a single grouping the CSV goes to the
+ * regular part files; with several, each rollup goes to its own
+ * MultipleOutputs file named after the grouping (e.g. decade-r-00000).
+ *
+ * Map output keys pack the grouping and its dense slot into one int:
+ * {@code grouping.ordinal() << 16 | slot}, so keys sort by grouping first
+ * and then by bucket. With -D mapreduce.job.reduces=N the keys are split
+ * into N contiguous ranges by {@link KeyRangePartitioner}, so the part files
+ * concatenate in key order and only the first file of each rollup has a
+ * header.
+ *
+ * With {@link #DISTRIBUTION} the partials are
+ * {@link FeatureDistributionWritable}s and each row also carries the
+ * standard deviation of every feature and quantiles of a few, still merged
+ * on the map side, so the shuffle stays one partial per bucket per map task.
+ */
+public class AudioFeatureRollup {
+
+    /**
+     * Comma-separated grouping names, e.g. "year,decade,keymode".
+     */
+    public static final String GROUPINGS = "audiofeatures.groupings";
+
+    /**
+     * When true, FeaturesMapper merges tracks into one partial per slot and
+     * emits one partial per slot from cleanup() instead of one per track.
+     */
+    public static final String IN_MAPPER_AGGREGATION = "audiofeatures.inmapper.enabled";
+
+    /**
+     * When true, the input is {@link SpotifyColumnar} files written by the
+     * cleaner with cleaning.output.format=columnar, read through
+     * {@link ColumnarFeaturesMapper}.
+     */
+    public static final String COLUMNAR_INPUT = "audiofeatures.input.columnar";
+
+    /**
+     * When true, rows also report std_* of every feature and quantiles of
+     * {@link #DISTRIBUTION_FEATURES}, from mergeable moments and t-digests.
+     */
+    public static final String DISTRIBUTION = "audiofeatures.distribution.enabled";
+
+    /** Features that get a t-digest, default tempo,loudness,energy. */
+    public static final String DISTRIBUTION_FEATURES = "audiofeatures.distribution.features";
+
+    /** Quantiles reported per digested feature, default 0.1,0.5,0.9. */
+    public static final String DISTRIBUTION_QUANTILES = "audiofeatures.distribution.quantiles";
+
+    /** t-digest compression; more centroids, smaller error and larger partials. */
+    public static final String DISTRIBUTION_COMPRESSION = "audiofeatures.distribution.compression";
+
+    /** The columns the rollup reads; everything else stays on disk. */
+    static final String[] COLUMNAR_COLUMNS = {
+            "valence", "year", "acousticness", "danceability", "energy", "explicit",
+            "instrumentalness", "key", "liveness", "loudness", "mode", "popularity",
+            "speechiness", "tempo"
+    };
+
+    public static final int MIN_YEAR = 1960;
+    public static final int MAX_YEAR = 2020;
+
+    private static final int SLOT_BITS = 16;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+    static int encodeKey(FeatureGrouping grouping, int slot) {
+        return (grouping.ordinal() << SLOT_BITS) | slot;
+    }
+
+    static FeatureGrouping groupingOf(int key) {
+        return FeatureGrouping.values()[key >>> SLOT_BITS];
+    }
+
+    static int slotOf(int key) {
+        return key & SLOT_MASK;
+    }
+
+    static List<FeatureGrouping> getGroupings(Configuration conf) {
+        List<FeatureGrouping> groupings = new ArrayList<>();
+        for (String name : conf.getTrimmedStrings(GROUPINGS, FeatureGrouping.YEAR.outputName())) {
+            groupings.add(FeatureGrouping.fromName(name));
+        }
+        return groupings;
+    }
+
+    static int[] getDistributionFeatures(Configuration conf) {
+        String[] names = conf.getTrimmedStrings(DISTRIBUTION_FEATURES, "tempo", "loudness", "energy");
+        int[] features = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            features[i] = FeatureSumsWritable.featureIndex(names[i]);
+        }
+        return features;
+    }
+
+    static double[] getDistributionQuantiles(Configuration conf) {
+        String[] values = conf.getTrimmedStrings(DISTRIBUTION_QUANTILES, "0.1", "0.5", "0.9");
+        double[] quantiles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            quantiles[i] = Double.parseDouble(values[i]);
+            if (!(quantiles[i] >= 0 && quantiles[i] <= 1)) {
+                throw new IllegalArgumentException(DISTRIBUTION_QUANTILES + " must be in [0, 1]: " + values[i]);
+            }
+        }
+        return quantiles;
+    }
+
+    /**
+     * An empty partial of the kind the job shuffles: plain sums, or sums
+     * with moments and digests in distribution mode.
+     */
+    static FeatureSumsWritable newPartial(Configuration conf) {
+        if (!conf.getBoolean(DISTRIBUTION, false)) {
+            return new FeatureSumsWritable();
+        }
+        return new FeatureDistributionWritable(getDistributionFeatures(conf),
+                conf.getDouble(DISTRIBUTION_COMPRESSION, TDigest.DEFAULT_COMPRESSION));
+    }
+
+    /**
+     * Sends each reducer a contiguous range of the packed keys, so part files
+     * concatenate in sorted order.
+     *
+     * The key space is dense and known up front: the slots of the configured
+     * groupings, in key (ordinal) order. Each key's rank in that sequence is
+     * cut into numPartitions equal ranges; no sampling pass is needed.
+     */
+    public static class KeyRangePartitioner extends Partitioner<IntWritable, FeatureSumsWritable>
+            implements Configurable {
+
+        private Configuration conf;
+        // Rank of slot 0 of each grouping, by ordinal; -1 if not configured.
+        private final int[] offsets = new int[FeatureGrouping.values().length];
+        private int totalSlots;
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            Arrays.fill(offsets, -1);
+            for (FeatureGrouping g : getGroupings(conf)) {
+                offsets[g.ordinal()] = 0;
+            }
+            totalSlots = 0;
+            for (FeatureGrouping g : FeatureGrouping.values()) {
+                if (offsets[g.ordinal()] >= 0) {
+                    offsets[g.ordinal()] = totalSlots;
+                    totalSlots += g.numSlots();
+                }
+            }
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+
+        int getPartition(int key, int numPartitions) {
+            int rank = offsets[key >>> SLOT_BITS] + (key & SLOT_MASK);
+            return (int) ((long) rank * numPartitions / totalSlots);
+        }
+
+        @Override
+        public int getPartition(IntWritable key, FeatureSumsWritable value, int numPartitions) {
+            return getPartition(key.get(), numPartitions);
+        }
+
+        /** The partition whose file comes first for this grouping. */
+        int headerPartition(FeatureGrouping grouping, int numPartitions) {
+            return getPartition(encodeKey(grouping, 0), numPartitions);
+        }
+
+        int totalSlots() {
+            return totalSlots;
+        }
+    }
+
+    /**
+     * Parses one scanned Spotify_cleaned.csv row into {@code track} (the nine
+     * features, count 1) and {@code dims} (year, key, mode, explicit,
+     * popularity; -1 where not an int). Returns false for rows the rollup
+     * skips: short rows, unparsable features or years outside 1960-2020.
+     */
+    static boolean readTrack(CsvFieldScanner scanner, FeatureSumsWritable track, int[] dims) {
+        if (scanner.fieldCount() < 19) {
+            return false;
+        }
+
+        try {
+            double valence = scanner.parseDouble(0);
+            int year = scanner.parseInt(1);
+            double acousticness = scanner.parseDouble(2);
+            double danceability = scanner.parseDouble(4);
+            double energy = scanner.parseDouble(6);
+            double instrumentalness = scanner.parseDouble(9);
+            double liveness = scanner.parseDouble(11);
+            double loudness = scanner.parseDouble(12);
+            double speechiness = scanner.parseDouble(17);
+            double tempo = scanner.parseDouble(18);
+
+            if (year < MIN_YEAR || year > MAX_YEAR) {
+                return false;
+            }
+
+            dims[0] = year;
+            dims[1] = scanner.isInt(10) ? scanner.parseInt(10) : -1;
+            dims[2] = scanner.isInt(13) ? scanner.parseInt(13) : -1;
+            dims[3] = scanner.isInt(7) ? scanner.parseInt(7) : -1;
+            dims[4] = scanner.isInt(15) ? scanner.parseInt(15) : -1;
+
+            track.set(valence, danceability, energy, acousticness,
+                    instrumentalness, liveness, loudness, speechiness, tempo);
+            return true;
+
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses the nine features of one scanned Spotify_cleaned.csv row into
+     * {@code out}, in FeatureSumsWritable order and with no year filter.
+     * Returns false for short rows and unparsable features.
+     */
+    static boolean readFeatures(CsvFieldScanner scanner, double[] out) {
+        if (scanner.fieldCount() < 19) {
+            return false;
+        }
+        try {
+            out[FeatureSumsWritable.VALENCE] = scanner.parseDouble(0);
+            out[FeatureSumsWritable.DANCEABILITY] = scanner.parseDouble(4);
+            out[FeatureSumsWritable.ENERGY] = scanner.parseDouble(6);
+            out[FeatureSumsWritable.ACOUSTICNESS] = scanner.parseDouble(2);
+            out[FeatureSumsWritable.INSTRUMENTALNESS] = scanner.parseDouble(9);
+            out[FeatureSumsWritable.LIVENESS] = scanner.parseDouble(11);
+            out[FeatureSumsWritable.LOUDNESS] = scanner.parseDouble(12);
+            out[FeatureSumsWritable.SPEECHINESS] = scanner.parseDouble(17);
+            out[FeatureSumsWritable.TEMPO] = scanner.parseDouble(18);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * One output row: the bucket label, the nine feature averages and the
+     * track count.
+     */
+    static String formatRow(FeatureGrouping grouping, int slot, FeatureSumsWritable totals) {
+        long totalCount = totals.getCount();
+        StringBuilder sb = new StringBuilder();
+        sb.append(grouping.label(slot));
+        for (int i = 0; i < FeatureSumsWritable.NUM_FEATURES; i++) {
+            sb.append(',').append(totals.getSum(i) / totalCount);
+        }
+        sb.append(',').append(totalCount);
+        return sb.toString();
+    }
+
+    /**
+     * Header of a distribution rollup: the mean columns, std_* per feature,
+     * then p&lt;q&gt;_&lt;feature&gt; per digested feature, then song_count.
+     */
+    static String distributionHeader(FeatureGrouping grouping, int[] features, double[] quantiles) {
+        String header = grouping.header();
+        StringBuilder sb = new StringBuilder(header.substring(0, header.lastIndexOf(',')));
+        for (String name : FeatureSumsWritable.NAMES) {
+            sb.append(",std_").append(name);
+        }
+        for (int f : features) {
+            for (double q : quantiles) {
+                sb.append(",p").append(BigDecimal.valueOf(q * 100).stripTrailingZeros().toPlainString())
+                        .append('_').append(FeatureSumsWritable.NAMES[f]);
+            }
+        }
+        sb.append(",song_count");
+        return sb.toString();
+    }
+
+    /**
+     * One distribution row, in {@link #distributionHeader} order. Means are
+     * sum / count as in {@link #formatRow}, so they match the plain rollup.
+     */
+    static String formatDistributionRow(FeatureGrouping grouping, int slot,
+            FeatureDistributionWritable totals, int[] features, double[] quantiles) {
+        long totalCount = totals.getCount();
+        StringBuilder sb = new StringBuilder();
+        sb.append(grouping.label(slot));
+        for (int i = 0; i < FeatureSumsWritable.NUM_FEATURES; i++) {
+            sb.append(',').append(totals.getSum(i) / totalCount);
+        }
+        for (int i = 0; i < FeatureSumsWritable.NUM_FEATURES; i++) {
+            sb.append(',').append(totals.getStdDev(i));
+        }
+        for (int f : features) {
+            for (double q : quantiles) {
+                sb.append(',').append(totals.quantile(f, q));
+            }
+        }
+        sb.append(',').append(totalCount);
+        return sb.toString();
+    }
+
+    /**
+     * Shared bucketing for the text and columnar mappers. Subclasses load one
+     * track into {@code outValue} with FeatureSumsWritable.set(...) and call
+     * {@link #track}, which emits it per grouping or, in in-mapper mode,
+     * merges it into one partial per slot, emitted from cleanup(). Plain
+     * sums and distribution partials both grow through merge() alone.
+     */
+    abstract static class AbstractFeaturesMapper<KEYIN, VALUEIN>
+            extends Mapper<KEYIN, VALUEIN, IntWritable, FeatureSumsWritable> {
+
+        protected IntWritable outKey = new IntWritable();
+        protected FeatureSumsWritable outValue = new FeatureSumsWritable();
+
+        protected final CounterRegistry counters = new CounterRegistry();
+        private int tracksMapped;
+        private int partialsEmitted;
+
+        private FeatureGrouping[] groupings;
+        private boolean inMapper;
+        private FeatureSumsWritable[][] slotPartials;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+            tracksMapped = counters.register("FEATURES", "TRACKS_MAPPED");
+            partialsEmitted = counters.register("FEATURES", "PARTIALS_EMITTED");
+            counters.bind(context);
+
+            groupings = getGroupings(conf).toArray(new FeatureGrouping[0]);
+            outValue = newPartial(conf);
+            inMapper = conf.getBoolean(IN_MAPPER_AGGREGATION, false);
+            if (inMapper) {
+                slotPartials = new FeatureSumsWritable[groupings.length][];
+                for (int g = 0; g < groupings.length; g++) {
+                    slotPartials[g] = new FeatureSumsWritable[groupings[g].numSlots()];
+                }
+            }
+        }
+
+        /**
+         * Buckets the track held in outValue under every configured grouping.
+         */
+        protected void track(Context context, int year, int musicalKey, int mode,
+                int explicit, int popularity) throws IOException, InterruptedException {
+            counters.increment(tracksMapped);
+
+            for (int g = 0; g < groupings.length; g++) {
+                int slot = groupings[g].slot(year, musicalKey, mode, explicit, popularity);
+                if (slot < 0) {
+                    continue;
+                }
+                if (inMapper) {
+                    if (slotPartials[g][slot] == null) {
+                        slotPartials[g][slot] = newPartial(context.getConfiguration());
+                    }
+                    slotPartials[g][slot].merge(outValue);
+                } else {
+                    outKey.set(encodeKey(groupings[g], slot));
+                    context.write(outKey, outValue);
+                }
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (!inMapper) {
+                counters.flush();
+                return;
+            }
+            for (int g = 0; g < groupings.length; g++) {
+                for (int slot = 0; slot < groupings[g].numSlots(); slot++) {
+                    if (slotPartials[g][slot] == null) {
+                        continue;
+                    }
+                    outKey.set(encodeKey(groupings[g], slot));
+                    context.write(outKey, slotPartials[g][slot]);
+                    counters.increment(partialsEmitted);
+                }
+            }
+            counters.flush();
+        }
+    }
+
+    /**
+     * Mapper
+     * Input: each line of Spotify_cleaned.csv
+     * Output key: packed (grouping, slot) for every configured grouping
+     * Output value: FeatureSumsWritable holding one track (count 1), or
+     * one partial per slot in in-mapper mode
+     *
+     * Columns in Spotify_cleaned.csv:
+     * 0: valence
+     * 1: year
+     * 2: acousticness
+     * 3: artists
+     * 4: danceability
+     * 5: duration_ms
+     * 6: energy
+     * 7: explicit
+     * 8: id
+     * 9: instrumentalness
+     * 10: key
+     * 11: liveness
+     * 12: loudness
+     * 13: mode
+     * 14: name
+     * 15: popularity
+     * 16: release_date
+     * 17: speechiness
+     * 18: tempo
+     */
+    public static class FeaturesMapper extends AbstractFeaturesMapper<LongWritable, Text> {
+
+        private boolean headerSkipped = false;
+        private final CsvFieldScanner scanner = new CsvFieldScanner();
+        private final int[] dims = new int[5];
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            counters.tick();
+            scanner.scan(value);
+            if (scanner.isBlankLine()) {
+                return;
+            }
+
+            if (!headerSkipped) {
+                headerSkipped = true;
+                if (scanner.lineStartsWithIgnoreCase("valence")) {
+                    return;
+                }
+            }
+
+            if (readTrack(scanner, outValue, dims)) {
+                track(context, dims[0], dims[1], dims[2], dims[3], dims[4]);
+            }
+        }
+    }
+
+    /**
+     * Same rollup over {@link SpotifyColumnar} files. Only the columns in
+     * {@link #COLUMNAR_COLUMNS} are decoded, and blocks outside
+     * MIN_YEAR..MAX_YEAR are never read.
+     */
+    public static class ColumnarFeaturesMapper
+            extends AbstractFeaturesMapper<NullWritable, SpotifyColumnar.Row> {
+
+        private final int valence = SpotifyColumnar.columnIndex("valence");
+        private final int year = SpotifyColumnar.columnIndex("year");
+        private final int acousticness = SpotifyColumnar.columnIndex("acousticness");
+        private final int danceability = SpotifyColumnar.columnIndex("danceability");
+        private final int energy = SpotifyColumnar.columnIndex("energy");
+        private final int explicit = SpotifyColumnar.columnIndex("explicit");
+        private final int instrumentalness = SpotifyColumnar.columnIndex("instrumentalness");
+        private final int musicalKey = SpotifyColumnar.columnIndex("key");
+        private final int liveness = SpotifyColumnar.columnIndex("liveness");
+        private final int loudness = SpotifyColumnar.columnIndex("loudness");
+        private final int mode = SpotifyColumnar.columnIndex("mode");
+        private final int popularity = SpotifyColumnar.columnIndex("popularity");
+        private final int speechiness = SpotifyColumnar.columnIndex("speechiness");
+        private final int tempo = SpotifyColumnar.columnIndex("tempo");
+
+        @Override
+        protected void map(NullWritable key, SpotifyColumnar.Row row, Context context)
+                throws IOException, InterruptedException {
+
+            counters.tick();
+            int y = row.getInt(year);
+            if (y < MIN_YEAR || y > MAX_YEAR) {
+                return;
+            }
+
+            outValue.set(row.getDouble(valence), row.getDouble(danceability),
+                    row.getDouble(energy), row.getDouble(acousticness),
+                    row.getDouble(instrumentalness), row.getDouble(liveness),
+                    row.getDouble(loudness), row.getDouble(speechiness), row.getDouble(tempo));
+            track(context, y, row.getInt(musicalKey), row.getInt(mode),
+                    row.getInt(explicit), row.getInt(popularity));
+        }
+    }
+
+    /**
+     * Merges per-track partials on the map side so each map task ships
+     * at most one fixed-width partial per (grouping, slot).
+     */
+    public static class FeaturesCombiner
+            extends Reducer<IntWritable, FeatureSumsWritable, IntWritable, FeatureSumsWritable> {
+
+        private FeatureSumsWritable merged;
+
+        @Override
+        protected void setup(Context context) {
+            merged = newPartial(context.getConfiguration());
+        }
+
+        @Override
+        protected void reduce(IntWritable key, Iterable<FeatureSumsWritable> values, Context context)
+                throws IOException, InterruptedException {
+
+            merged.clear();
+            for (FeatureSumsWritable v : values) {
+                merged.merge(v);
+            }
+            context.write(key, merged);
+        }
+    }
+
+    public static class FeaturesReducer
+            extends Reducer<IntWritable, FeatureSumsWritable, Text, NullWritable> {
+
+        private Text out = new Text();
+        private FeatureSumsWritable totals;
+
+        private MultipleOutputs<Text, NullWritable> mos;
+        private FeatureGrouping current;
+
+        // Headers go only to the partition owning each grouping's first slot.
+        private final KeyRangePartitioner ranges = new KeyRangePartitioner();
+        private int partition;
+        private int numPartitions;
+        private List<FeatureGrouping> groupings;
+        private final boolean[] started = new boolean[FeatureGrouping.values().length];
+
+        // Distribution mode only.
+        private int[] features;
+        private double[] quantiles;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+            totals = newPartial(conf);
+            if (totals instanceof FeatureDistributionWritable) {
+                features = getDistributionFeatures(conf);
+                quantiles = getDistributionQuantiles(conf);
+            }
+            ranges.setConf(conf);
+            partition = context.getTaskAttemptID().getTaskID().getId();
+            numPartitions = context.getNumReduceTasks();
+            groupings = getGroupings(conf);
+            if (groupings.size() == 1) {
+                if (ownsHeader(groupings.get(0))) {
+                    out.set(header(groupings.get(0)));
+                    context.write(out, NullWritable.get());
+                }
+            } else {
+                mos = new MultipleOutputs<>(context);
+            }
+        }
+
+        private boolean ownsHeader(FeatureGrouping grouping) {
+            return ranges.headerPartition(grouping, numPartitions) == partition;
+        }
+
+        @Override
+        protected void reduce(IntWritable key, Iterable<FeatureSumsWritable> values, Context context)
+                throws IOException, InterruptedException {
+
+            totals.clear();
+            for (FeatureSumsWritable v : values) {
+                totals.merge(v);
+            }
+
+            long totalCount = totals.getCount();
+            if (totalCount == 0) {
+                return;
+            }
+
+            FeatureGrouping grouping = groupingOf(key.get());
+            int slot = slotOf(key.get());
+
+            if (mos != null && grouping != current) {
+                current = grouping;
+                started[grouping.ordinal()] = true;
+                if (ownsHeader(grouping)) {
+                    out.set(header(grouping));
+                    mos.write(grouping.outputName(), out, NullWritable.get());
+                }
+            }
+
+            if (features != null) {
+                out.set(formatDistributionRow(grouping, slot,
+                        (FeatureDistributionWritable) totals, features, quantiles));
+            } else {
+                out.set(formatRow(grouping, slot, totals));
+            }
+            if (mos != null) {
+                mos.write(grouping.outputName(), out, NullWritable.get());
+            } else {
+                context.write(out, NullWritable.get());
+            }
+        }
+
+        private String header(FeatureGrouping grouping) {
+            return features != null ? distributionHeader(grouping, features, quantiles) : grouping.header();
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (mos != null) {
+                // The first rows of a rollup may sit in a later partition;
+                // its header still has to open the owner's file.
+                for (FeatureGrouping g : groupings) {
+                    if (numPartitions > 1 && ownsHeader(g) && !started[g.ordinal()]) {
+                        out.set(header(g));
+                        mos.write(g.outputName(), out, NullWritable.get());
+                    }
+                }
+                mos.close();
+            }
+        }
+    }
+
+    /**
+     * Builds a rollup job for the given groupings. Groupings already set in
+     * the configuration (via -D audiofeatures.groupings) win over the
+     * defaults passed by the thin per-rollup drivers.
+     */
+    public static Job createJob(Configuration conf, String name,
+            FeatureGrouping... defaults) throws IOException {
+        if (conf.get(GROUPINGS) == null) {
+            StringBuilder sb = new StringBuilder();
+            for (FeatureGrouping g : defaults) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(g.outputName());
+            }
+            conf.set(GROUPINGS, sb.toString());
+        }
+        List<FeatureGrouping> groupings = getGroupings(conf);
+
+        Job job = Job.getInstance(conf, name);
+
+        job.setJarByClass(AudioFeatureRollup.class);
+        if (conf.getBoolean(COLUMNAR_INPUT, false)) {
+            job.setInputFormatClass(SpotifyColumnarInputFormat.class);
+            job.setMapperClass(ColumnarFeaturesMapper.class);
+            if (conf.get(SpotifyColumnar.COLUMNS) == null) {
+                SpotifyColumnar.setColumns(job, COLUMNAR_COLUMNS);
+            }
+            SpotifyColumnar.setYearRange(job, MIN_YEAR, MAX_YEAR);
+        } else {
+            job.setMapperClass(FeaturesMapper.class);
+        }
+        job.setCombinerClass(FeaturesCombiner.class);
+        job.setReducerClass(FeaturesReducer.class);
+
+        job.setMapOutputKeyClass(IntWritable.class);
+        job.setMapOutputValueClass(conf.getBoolean(DISTRIBUTION, false)
+                ? FeatureDistributionWritable.class : FeatureSumsWritable.class);
+
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        // Reducers come from mapreduce.job.reduces (default 1), at most one per key.
+        KeyRangePartitioner ranges = new KeyRangePartitioner();
+        ranges.setConf(job.getConfiguration());
+        job.setNumReduceTasks(Math.max(1, Math.min(job.getNumReduceTasks(), ranges.totalSlots())));
+        job.setPartitionerClass(KeyRangePartitioner.class);
+
+        if (groupings.size() > 1) {
+            LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+            for (FeatureGrouping g : groupings) {
+                MultipleOutputs.addNamedOutput(job, g.outputName(),
+                        TextOutputFormat.class, Text.class, NullWritable.class);
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Shared main for the thin rollup drivers: parses generic options, runs
+     * the job and prints the shuffle counters.
+     */
+    static int run(String usage, String jobName, String[] args,
+            FeatureGrouping... defaults) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length != 2) {
+            System.err.println("Usage: " + usage + " [-D " + IN_MAPPER_AGGREGATION
+                    + "=true] [-D " + COLUMNAR_INPUT + "=true] [-D " + DISTRIBUTION
+                    + "=true] [-D " + GROUPINGS + "=year,decade,...] [-D mapreduce.job.reduces=N] <input path> <output path>");
+            return -1;
+        }
+
+        Job job = createJob(conf, jobName, defaults);
+
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        boolean ok = job.waitForCompletion(true);
+        if (ok) {
+            printShuffleCounters(job);
+        }
+        return ok ? 0 : 1;
+    }
+
+    /**
+     * Prints the counters that show what the combiner / in-mapper mode saves,
+     * so runs with and without {@link #IN_MAPPER_AGGREGATION} can be compared.
+     */
+    static void printShuffleCounters(Job job) throws IOException {
+        TaskCounter[] shown = {
+                TaskCounter.MAP_OUTPUT_RECORDS,
+                TaskCounter.MAP_OUTPUT_BYTES,
+                TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES,
+                TaskCounter.COMBINE_INPUT_RECORDS,
+                TaskCounter.SPILLED_RECORDS,
+                TaskCounter.REDUCE_SHUFFLE_BYTES,
+                TaskCounter.GC_TIME_MILLIS,
+                TaskCounter.CPU_MILLISECONDS
+        };
+        System.err.println("in-mapper aggregation: "
+                + job.getConfiguration().getBoolean(IN_MAPPER_AGGREGATION, false));
+        System.err.println("distribution: "
+                + job.getConfiguration().getBoolean(DISTRIBUTION, false));
+        for (TaskCounter c : shown) {
+            System.err.println(c.name() + "=" + job.getCounters().findCounter(c).getValue());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run("AudioFeatureRollup", "Audio Feature Rollups (1960-2020)", args,
+                FeatureGrouping.YEAR, FeatureGrouping.DECADE, FeatureGrouping.KEY_MODE,
+                FeatureGrouping.EXPLICIT, FeatureGrouping.POPULARITY_BAND));
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Composite (category, id) key for the tweet profile job.
+ *
+ * Fixed width on the wire: one category byte followed by the id as a long
+ * (9 bytes). Keys sort by category, then numerically by id, and the
+ * registered {@link Comparator} compares the serialized bytes directly so
+ * the sort and merge never deserialize keys.
+ *
+ * Category codes follow the alphabetical order of their names, so output
+ * comes out grouped the same way as the streaming reducer's:
+ * 0: ARTIST
+ * 1: STAT
+ * 2: TRACK
+ * 3: USER
+ */
+public class CategoryIdWritable implements WritableComparable<CategoryIdWritable> {
+
+    public static final byte ARTIST = 0;
+    public static final byte STAT = 1;
+    public static final byte TRACK = 2;
+    public static final byte USER = 3;
+
+    public static final int NUM_CATEGORIES = 4;
+
+    private static final String[] NAMES = {"ARTIST", "STAT", "TRACK", "USER"};
+
+    /** Id of the STAT total-tweets record. */
+    public static final long TOTAL_TWEETS = 0L;
+
+    static final int LENGTH = 9;
+
+    private byte category;
+    private long id;
+
+    public CategoryIdWritable() {
+    }
+
+    public CategoryIdWritable(byte category, long id) {
+        set(category, id);
+    }
+
+    public void set(byte category, long id) {
+        this.category = category;
+        this.id = id;
+    }
+
+    public byte getCategory() {
+        return category;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public static String categoryName(int category) {
+        return NAMES[category];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(category);
+        out.writeLong(id);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        category = in.readByte();
+        id = in.readLong();
+    }
+
+    @Override
+    public int compareTo(CategoryIdWritable other) {
+        if (category != other.category) {
+            return category < other.category ? -1 : 1;
+        }
+        return Long.compare(id, other.id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CategoryIdWritable)) {
+            return false;
+        }
+        CategoryIdWritable other = (CategoryIdWritable) o;
+        return category == other.category && id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(id) + category;
+    }
+
+    @Override
+    public String toString() {
+        return categoryName(category) + "\t" + id;
+    }
+
+    /**
+     * Compares serialized keys: the category byte, then the big-endian id.
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(CategoryIdWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            if (b1[s1] != b2[s2]) {
+                return b1[s1] < b2[s2] ? -1 : 1;
+            }
+            return Long.compare(readLong(b1, s1 + 1), readLong(b2, s2 + 1));
+        }
+    }
+
+    static {
+        WritableComparator.define(CategoryIdWritable.class, new Comparator());
+    }
+}
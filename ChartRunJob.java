@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.time.DateTimeException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Per-song chart-run analytics over cleaned Hot100 rows: the part files of
+ * CleaningDriver hot100 (its rejects files count as MALFORMED_ROWS).
+ *
+ * Output, one CSV line per song with a header from reducer 0:
+ * Song,Artist,Debut Date,Debut Rank,Peak Position,Peak Date,Weeks to Peak,
+ * Climb per Week,Weeks on Chart,Longest Run,Re-entries,Last Chart
+ *
+ * A run is a stretch of consecutive weekly charts (7 days apart); every run
+ * after the first is a re-entry. Weeks to peak counts chart weeks from the
+ * debut to the first week at the peak, and climb per week is the places
+ * gained over that span per week (0 for a debut at the peak).
+ *
+ * Secondary sort: map keys are {@link SongWeekWritable} (song, date),
+ * partitioned and grouped by song and sorted by date on the serialized
+ * bytes, so each reduce call streams one song's weeks in date order and
+ * keeps only a few counters, however long the history.
+ */
+public class ChartRunJob {
+
+    private static final String COUNTER_GROUP = "CHART_RUNS";
+
+    static final String HEADER =
+            "Song,Artist,Debut Date,Debut Rank,Peak Position,Peak Date,Weeks to Peak,"
+            + "Climb per Week,Weeks on Chart,Longest Run,Re-entries,Last Chart";
+
+    public static class ChartRowMapper extends Mapper<LongWritable, Text, SongWeekWritable, IntWritable> {
+
+        private final SongWeekWritable outKey = new SongWeekWritable();
+        private final IntWritable outValue = new IntWritable();
+
+        private final CounterRegistry counters = new CounterRegistry();
+        private int chartRows;
+        private int malformed;
+
+        @Override
+        protected void setup(Context context) {
+            chartRows = counters.register(COUNTER_GROUP, "CHART_ROWS");
+            malformed = counters.register(COUNTER_GROUP, "MALFORMED_ROWS");
+            counters.bind(context);
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            counters.tick();
+            byte[] b = value.getBytes();
+            int length = value.getLength();
+            if (length > 4 && b[0] == 'D' && b[1] == 'a' && b[2] == 't' && b[3] == 'e') {
+                return;
+            }
+
+            // The date is fixed width; song and artist run from byte 11 to
+            // the comma before the rank.
+            int artistEnd = hot100Mapper.artistEnd(b, length);
+            if (artistEnd <= 11 || b[10] != ',' || !hot100Mapper.isValidDate(b, 0, 10)) {
+                counters.increment(malformed);
+                return;
+            }
+            int rankEnd = artistEnd + 1;
+            while (b[rankEnd] != ',') {
+                rankEnd++;
+            }
+
+            int day;
+            try {
+                day = ChartStateWritable.epochDay(b, 0);
+            } catch (DateTimeException e) {
+                counters.increment(malformed);
+                return;
+            }
+            outKey.set(b, 11, artistEnd - 11, day);
+            outValue.set(hot100Mapper.parseInt(b, artistEnd + 1, rankEnd));
+            context.write(outKey, outValue);
+            counters.increment(chartRows);
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            counters.flush();
+        }
+    }
+
+    /**
+     * Sends all weeks of a song to the same reducer.
+     */
+    public static class SongPartitioner extends Partitioner<SongWeekWritable, IntWritable> {
+
+        @Override
+        public int getPartition(SongWeekWritable key, IntWritable value, int numPartitions) {
+            return (key.songHash() & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+    /**
+     * One call per song; the key's date advances with each value.
+     */
+    public static class ChartRunReducer extends Reducer<SongWeekWritable, IntWritable, Text, NullWritable> {
+
+        private final Text out = new Text();
+        private final StringBuilder sb = new StringBuilder();
+
+        private final CounterRegistry counters = new CounterRegistry();
+        private int songs;
+        private int duplicateWeeks;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            songs = counters.register(COUNTER_GROUP, "SONGS");
+            duplicateWeeks = counters.register(COUNTER_GROUP, "DUPLICATE_WEEKS");
+            counters.bind(context);
+            if (context.getTaskAttemptID().getTaskID().getId() == 0) {
+                out.set(HEADER);
+                context.write(out, NullWritable.get());
+            }
+        }
+
+        @Override
+        protected void reduce(SongWeekWritable key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            counters.tick();
+            int debutDay = 0;
+            int debutRank = 0;
+            int peak = Integer.MAX_VALUE;
+            int peakDay = 0;
+            int weeks = 0;
+            int run = 0;
+            int longestRun = 0;
+            int runs = 0;
+            int lastDay = 0;
+
+            for (IntWritable value : values) {
+                int day = key.getDay();
+                int rank = value.get();
+                if (weeks == 0) {
+                    debutDay = day;
+                    debutRank = rank;
+                } else if (day == lastDay) {
+                    counters.increment(duplicateWeeks);
+                    continue;
+                }
+                if (weeks > 0 && day - lastDay == ChartStateWritable.CHART_INTERVAL_DAYS) {
+                    run++;
+                } else {
+                    run = 1;
+                    runs++;
+                }
+                longestRun = Math.max(longestRun, run);
+                if (rank < peak) {
+                    peak = rank;
+                    peakDay = day;
+                }
+                weeks++;
+                lastDay = day;
+            }
+
+            int weeksToPeak = (peakDay - debutDay) / ChartStateWritable.CHART_INTERVAL_DAYS;
+            double climb = weeksToPeak > 0 ? (double) (debutRank - peak) / weeksToPeak : 0.0;
+
+            sb.setLength(0);
+            sb.append(key.getSong()).append(',')
+              .append(ChartStateWritable.date(debutDay)).append(',')
+              .append(debutRank).append(',')
+              .append(peak).append(',')
+              .append(ChartStateWritable.date(peakDay)).append(',')
+              .append(weeksToPeak).append(',')
+              .append(Math.round(climb * 100) / 100.0).append(',')
+              .append(weeks).append(',')
+              .append(longestRun).append(',')
+              .append(runs - 1).append(',')
+              .append(ChartStateWritable.date(lastDay));
+            out.set(sb.toString());
+            context.write(out, NullWritable.get());
+            counters.increment(songs);
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            counters.flush();
+        }
+    }
+
+    public static Job createJob(Configuration conf) throws IOException {
+        Job job = Job.getInstance(conf, "Hot100 Chart Runs");
+
+        job.setJarByClass(ChartRunJob.class);
+        job.setMapperClass(ChartRowMapper.class);
+        job.setReducerClass(ChartRunReducer.class);
+
+        job.setMapOutputKeyClass(SongWeekWritable.class);
+        job.setMapOutputValueClass(IntWritable.class);
+        job.setPartitionerClass(SongPartitioner.class);
+        job.setSortComparatorClass(SongWeekWritable.Comparator.class);
+        job.setGroupingComparatorClass(SongWeekWritable.SongComparator.class);
+
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length != 2) {
+            System.err.println("Usage: ChartRunJob <cleaned hot100 input> <output path>");
+            System.exit(1);
+        }
+
+        Job job = createJob(conf);
+
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Chart history of one Hot100 song, as kept by {@link Hot100IncrementalJob}.
+ *
+ * Dates are epoch days. Variable width on the wire: first and last chart
+ * dates, peak, weeks on chart, streak and last rank as vints (about 10
+ * bytes), so the state of the whole chart history stays a few MB.
+ *
+ * The streak counts consecutive weekly charts (7 days apart) up to the last
+ * one the song was on. It is only current while that is also the latest
+ * chart processed; {@link #currentStreak} applies that check, so songs that
+ * drop off never have to be rewritten.
+ */
+public class ChartStateWritable implements Writable {
+
+    static final int CHART_INTERVAL_DAYS = 7;
+
+    private int firstDay;
+    private int lastDay;
+    private int peak;
+    private int weeks;
+    private int streak;
+    private int lastRank;
+
+    /**
+     * One week on the chart.
+     */
+    public void set(int day, int rank) {
+        firstDay = day;
+        lastDay = day;
+        peak = rank;
+        weeks = 1;
+        streak = 1;
+        lastRank = rank;
+    }
+
+    public void set(ChartStateWritable other) {
+        firstDay = other.firstDay;
+        lastDay = other.lastDay;
+        peak = other.peak;
+        weeks = other.weeks;
+        streak = other.streak;
+        lastRank = other.lastRank;
+    }
+
+    /**
+     * Adds a chart week after the last one. Weeks on or before the last
+     * chart date are already counted and return false.
+     */
+    public boolean advance(int day, int rank) {
+        if (day <= lastDay) {
+            return false;
+        }
+        streak = day - lastDay == CHART_INTERVAL_DAYS ? streak + 1 : 1;
+        weeks++;
+        peak = Math.min(peak, rank);
+        lastDay = day;
+        lastRank = rank;
+        return true;
+    }
+
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    public int getLastDay() {
+        return lastDay;
+    }
+
+    public int getPeak() {
+        return peak;
+    }
+
+    public int getWeeks() {
+        return weeks;
+    }
+
+    public int getLastRank() {
+        return lastRank;
+    }
+
+    /**
+     * Streak as of the chart dated latestDay: zero if the song was not on it.
+     */
+    public int currentStreak(int latestDay) {
+        return lastDay == latestDay ? streak : 0;
+    }
+
+    static int epochDay(byte[] b, int s) {
+        return (int) LocalDate.of(digits(b, s, 4), digits(b, s + 5, 2), digits(b, s + 8, 2)).toEpochDay();
+    }
+
+    private static int digits(byte[] b, int s, int n) {
+        int v = 0;
+        for (int i = s; i < s + n; i++) {
+            v = v * 10 + (b[i] - '0');
+        }
+        return v;
+    }
+
+    static String date(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay).toString();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, firstDay);
+        WritableUtils.writeVInt(out, lastDay - firstDay);
+        WritableUtils.writeVInt(out, peak);
+        WritableUtils.writeVInt(out, weeks);
+        WritableUtils.writeVInt(out, streak);
+        WritableUtils.writeVInt(out, lastRank);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        firstDay = WritableUtils.readVInt(in);
+        lastDay = firstDay + WritableUtils.readVInt(in);
+        peak = WritableUtils.readVInt(in);
+        weeks = WritableUtils.readVInt(in);
+        streak = WritableUtils.readVInt(in);
+        lastRank = WritableUtils.readVInt(in);
+    }
+
+    @Override
+    public String toString() {
+        return date(firstDay) + "," + date(lastDay) + "," + peak + "," + weeks + "," + streak + "," + lastRank;
+    }
+}
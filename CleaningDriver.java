@@ -0,0 +1,172 @@
+import java.util.Locale;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.Lz4Codec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.io.compress.ZStandardCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.CombineTextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Map-only driver for the cleaners.
+ *
+ * Usage: CleaningDriver [-D ...] &lt;spotify|hot100&gt; &lt;input&gt; &lt;output&gt;
+ *
+ * Input splitting and output compression are set with -D:
+ * {@link #SPLIT_MAX_SIZE} caps the bytes per map task, {@link #COMBINE_INPUT}
+ * packs many small files (weekly chart dumps) into each split, and
+ * {@link #OUTPUT_CODEC} picks the codec for the part files.
+ */
+public class CleaningDriver {
+
+    /**
+     * Maximum bytes per input split; also the packing target when
+     * {@link #COMBINE_INPUT} is on. Unset keeps the block-size default.
+     */
+    public static final String SPLIT_MAX_SIZE = "cleaning.split.maxsize";
+
+    /**
+     * Read the input with CombineTextInputFormat, so one map task handles
+     * many small files instead of one task per file.
+     */
+    public static final String COMBINE_INPUT = "cleaning.input.combine";
+
+    /**
+     * Output codec: none (default), snappy, lz4, zstd, gzip, bzip2, or a
+     * codec class name. bzip2 is the one downstream jobs can split.
+     */
+    public static final String OUTPUT_CODEC = "cleaning.output.codec";
+
+    /**
+     * text (default) or, for spotify, columnar: {@link SpotifyColumnar}
+     * files that AudioFeatureRollup reads with audiofeatures.input.columnar.
+     * The codec option applies to text output only.
+     */
+    public static final String OUTPUT_FORMAT = "cleaning.output.format";
+
+    /**
+     * Codec class for a short name, or null for uncompressed output.
+     */
+    static Class<? extends CompressionCodec> codecClass(Configuration conf, String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "":
+            case "none":
+                return null;
+            case "snappy":
+                return SnappyCodec.class;
+            case "lz4":
+                return Lz4Codec.class;
+            case "zstd":
+                return ZStandardCodec.class;
+            case "gzip":
+                return GzipCodec.class;
+            case "bzip2":
+                return BZip2Codec.class;
+            default:
+                Class<?> cls = conf.getClassByNameOrNull(name);
+                if (cls == null || !CompressionCodec.class.isAssignableFrom(cls)) {
+                    throw new IllegalArgumentException("Unknown codec: " + name);
+                }
+                return cls.asSubclass(CompressionCodec.class);
+        }
+    }
+
+    public static Job createJob(Configuration conf, String dataset) throws Exception {
+        Class<? extends Mapper<?, ?, ?, ?>> mapper;
+        String name;
+        switch (dataset.toLowerCase(Locale.ROOT)) {
+            case "spotify":
+                mapper = SpotifyCleanMapper.class;
+                name = "Spotify Cleaning";
+                break;
+            case "hot100":
+                mapper = hot100Mapper.class;
+                name = "Hot100 Cleaning";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown dataset: " + dataset
+                        + " (expected spotify or hot100)");
+        }
+
+        Job job = Job.getInstance(conf, name);
+
+        job.setJarByClass(CleaningDriver.class);
+        job.setMapperClass(mapper);
+
+        job.setNumReduceTasks(0);
+
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+
+        long maxSplit = conf.getLong(SPLIT_MAX_SIZE, -1L);
+        if (maxSplit > 0) {
+            FileInputFormat.setMaxInputSplitSize(job, maxSplit);
+        }
+        if (conf.getBoolean(COMBINE_INPUT, false)) {
+            job.setInputFormatClass(CombineTextInputFormat.class);
+            if (maxSplit <= 0) {
+                // Without a cap CombineFileInputFormat packs everything
+                // into a single split.
+                FileInputFormat.setMaxInputSplitSize(job, 128L * 1024 * 1024);
+            }
+        }
+
+        String format = conf.get(OUTPUT_FORMAT, "text").trim().toLowerCase(Locale.ROOT);
+        if (format.equals("columnar")) {
+            if (mapper != SpotifyCleanMapper.class) {
+                throw new IllegalArgumentException("Columnar output is only defined for spotify");
+            }
+            job.setOutputFormatClass(SpotifyColumnarOutputFormat.class);
+        } else if (!format.equals("text")) {
+            throw new IllegalArgumentException("Unknown output format: " + format);
+        }
+
+        Class<? extends CompressionCodec> codec = codecClass(conf, conf.get(OUTPUT_CODEC, "none").trim());
+        if (codec != null) {
+            FileOutputFormat.setCompressOutput(job, true);
+            FileOutputFormat.setOutputCompressorClass(job, codec);
+        }
+
+        if (mapper == hot100Mapper.class && conf.getBoolean(hot100Mapper.REJECTS_ENABLED, true)) {
+            hot100Mapper.configureRejects(job);
+        }
+        return job;
+    }
+
+    /**
+     * Runs the cleaning job; with a null dataset it is the first argument.
+     */
+    static int run(String usage, String dataset, String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        int paths = dataset == null ? 1 : 0;
+        if (args.length != paths + 2) {
+            System.err.println("Usage: " + usage + " [-D " + SPLIT_MAX_SIZE + "=<bytes>] [-D "
+                    + COMBINE_INPUT + "=true] [-D " + OUTPUT_CODEC
+                    + "=snappy|lz4|zstd|gzip|bzip2] [-D " + OUTPUT_FORMAT + "=text|columnar] "
+                    + (dataset == null ? "<spotify|hot100> " : "") + "<input path> <output path>");
+            return 1;
+        }
+
+        Job job = createJob(conf, dataset == null ? args[0] : dataset);
+
+        FileInputFormat.addInputPath(job, new Path(args[paths]));
+        FileOutputFormat.setOutputPath(job, new Path(args[paths + 1]));
+
+        return job.waitForCompletion(true) ? 0 : 1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run("CleaningDriver", null, args));
+    }
+}
@@ -0,0 +1,533 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Compiled, declarative cleaning rules for a fixed-width CSV row.
+ *
+ * Each column has one rule: a type, bounds, a default and the prefix of its
+ * CLEANING_FIX counters (PREFIX_MISSING, PREFIX_PARSE_ERR, PREFIX_CLIPPED).
+ * apply() runs every rule over a scanned row in column order and writes the
+ * cleaned fields straight into a {@link CsvRowWriter}.
+ *
+ * Bounds and defaults can be overridden per column from the job
+ * Configuration without recompiling, e.g.
+ * {@code -D spotify.clean.tempo.max=250 -D spotify.clean.tempo.default=118}.
+ */
+public final class ColumnRules {
+
+    public enum Type {
+        /** Clipped to [min, max]; missing or unparsable becomes the default. */
+        DOUBLE,
+        /** Like DOUBLE, for int values. */
+        INT,
+        /** Like DOUBLE, for long values. */
+        LONG,
+        /** 0/1 flag; also accepts true/false, yes/no, y/n. Defaults to 0. */
+        BINARY,
+        /** Musical key: negatives clip to 0, values above 11 wrap mod 12. */
+        KEY,
+        /** INT rule over the first four characters, e.g. a release date's year. */
+        YEAR_PREFIX,
+        /** Free text, trimmed; blank values are imputed with the default. */
+        TEXT,
+        /** Free text, trimmed; a blank value drops the whole row. */
+        REQUIRED_TEXT
+    }
+
+    private static final String FIX_GROUP = "CLEANING_FIX";
+
+    static final class Rule {
+        final int column;
+        final String name;
+        final Type type;
+        final String counterPrefix;
+
+        double min;
+        double max;
+        double defaultValue;
+        long longMin;
+        long longMax;
+        long longDefault;
+        String textDefault;
+
+        byte[] defaultBytes;
+        byte[] minBytes;
+        byte[] maxBytes;
+
+        int missing = -1;
+        int parseErr = -1;
+        int clipped = -1;
+        int wrapped = -1;
+
+        Rule(int column, String name, Type type, String counterPrefix) {
+            this.column = column;
+            this.name = name;
+            this.type = type;
+            this.counterPrefix = counterPrefix;
+        }
+
+        void compile() {
+            switch (type) {
+                case DOUBLE:
+                    defaultBytes = ascii(Double.toString(defaultValue));
+                    minBytes = ascii(Double.toString(min));
+                    maxBytes = ascii(Double.toString(max));
+                    break;
+                case INT:
+                case LONG:
+                case YEAR_PREFIX:
+                    defaultBytes = ascii(Long.toString(longDefault));
+                    minBytes = ascii(Long.toString(longMin));
+                    maxBytes = ascii(Long.toString(longMax));
+                    break;
+                case TEXT:
+                    defaultBytes = textDefault.getBytes(StandardCharsets.UTF_8);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static final byte[] ZERO = ascii("0");
+    private static final byte[] ONE = ascii("1");
+
+    private final Rule[] rules;
+    private CounterRegistry counters;
+
+    public ColumnRules(int numColumns) {
+        rules = new Rule[numColumns];
+    }
+
+    public int numColumns() {
+        return rules.length;
+    }
+
+    public String name(int column) {
+        return rules[column].name;
+    }
+
+    public Type type(int column) {
+        return rules[column].type;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public ColumnRules doubleRule(int column, String name,
+            double min, double max, double defaultValue, String counterPrefix) {
+        Rule r = new Rule(column, name, Type.DOUBLE, counterPrefix);
+        r.min = min;
+        r.max = max;
+        r.defaultValue = defaultValue;
+        rules[column] = r;
+        return this;
+    }
+
+    public ColumnRules intRule(int column, String name,
+            int min, int max, int defaultValue, String counterPrefix) {
+        return integral(column, name, Type.INT, min, max, defaultValue, counterPrefix);
+    }
+
+    public ColumnRules longRule(int column, String name,
+            long min, long max, long defaultValue, String counterPrefix) {
+        return integral(column, name, Type.LONG, min, max, defaultValue, counterPrefix);
+    }
+
+    public ColumnRules yearPrefixRule(int column, String name,
+            int min, int max, int defaultValue, String counterPrefix) {
+        return integral(column, name, Type.YEAR_PREFIX, min, max, defaultValue, counterPrefix);
+    }
+
+    private ColumnRules integral(int column, String name, Type type,
+            long min, long max, long defaultValue, String counterPrefix) {
+        Rule r = new Rule(column, name, type, counterPrefix);
+        r.longMin = min;
+        r.longMax = max;
+        r.longDefault = defaultValue;
+        rules[column] = r;
+        return this;
+    }
+
+    public ColumnRules binaryRule(int column, String name, String counterPrefix) {
+        rules[column] = new Rule(column, name, Type.BINARY, counterPrefix);
+        return this;
+    }
+
+    public ColumnRules keyRule(int column, String name, String counterPrefix) {
+        rules[column] = new Rule(column, name, Type.KEY, counterPrefix);
+        return this;
+    }
+
+    public ColumnRules textRule(int column, String name, String defaultValue, String counterPrefix) {
+        Rule r = new Rule(column, name, Type.TEXT, counterPrefix);
+        r.textDefault = defaultValue;
+        rules[column] = r;
+        return this;
+    }
+
+    public ColumnRules requiredTextRule(int column, String name) {
+        rules[column] = new Rule(column, name, Type.REQUIRED_TEXT, null);
+        return this;
+    }
+
+    /**
+     * Applies {@code <prefix><column>.min / .max / .default} overrides from
+     * the Configuration and precomputes the formatted defaults and bounds.
+     */
+    public ColumnRules configure(Configuration conf, String prefix) {
+        for (Rule r : rules) {
+            if (r == null) {
+                throw new IllegalStateException("No cleaning rule for a column");
+            }
+            String base = prefix + r.name + ".";
+            switch (r.type) {
+                case DOUBLE:
+                    r.min = conf.getDouble(base + "min", r.min);
+                    r.max = conf.getDouble(base + "max", r.max);
+                    r.defaultValue = conf.getDouble(base + "default", r.defaultValue);
+                    break;
+                case INT:
+                case LONG:
+                case YEAR_PREFIX:
+                    r.longMin = conf.getLong(base + "min", r.longMin);
+                    r.longMax = conf.getLong(base + "max", r.longMax);
+                    r.longDefault = conf.getLong(base + "default", r.longDefault);
+                    break;
+                case TEXT:
+                    r.textDefault = conf.get(base + "default", r.textDefault);
+                    break;
+                default:
+                    break;
+            }
+            r.compile();
+        }
+        return this;
+    }
+
+    /**
+     * Registers every CLEANING_FIX counter once, so apply() only bumps
+     * registry slots and never looks a counter up by name.
+     */
+    public void registerCounters(CounterRegistry registry) {
+        counters = registry;
+        for (Rule r : rules) {
+            switch (r.type) {
+                case KEY:
+                    r.missing = registry.register(FIX_GROUP, r.counterPrefix + "_MISSING");
+                    r.parseErr = registry.register(FIX_GROUP, r.counterPrefix + "_PARSE_ERR");
+                    r.clipped = registry.register(FIX_GROUP, r.counterPrefix + "_NEGATIVE_CLIPPED");
+                    r.wrapped = registry.register(FIX_GROUP, r.counterPrefix + "_MOD_12");
+                    break;
+                case BINARY:
+                    r.missing = registry.register(FIX_GROUP, r.counterPrefix + "_MISSING");
+                    r.parseErr = registry.register(FIX_GROUP, r.counterPrefix + "_PARSE_ERR");
+                    break;
+                case TEXT:
+                    r.missing = registry.register(FIX_GROUP, r.counterPrefix + "_IMPUTED_UNKNOWN");
+                    break;
+                case REQUIRED_TEXT:
+                    break;
+                default:
+                    r.missing = registry.register(FIX_GROUP, r.counterPrefix + "_MISSING");
+                    r.parseErr = registry.register(FIX_GROUP, r.counterPrefix + "_PARSE_ERR");
+                    r.clipped = registry.register(FIX_GROUP, r.counterPrefix + "_CLIPPED");
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Cleans one scanned row into {@code out} (which the caller has reset).
+     *
+     * @return false if a REQUIRED_TEXT column was blank and the row must be
+     *         dropped; counters of the columns before it have been updated
+     */
+    public boolean apply(CsvFieldScanner in, CsvRowWriter out) {
+        for (Rule r : rules) {
+            int i = r.column;
+            switch (r.type) {
+                case DOUBLE:
+                    cleanDouble(r, in, i, out);
+                    break;
+                case INT:
+                case LONG:
+                    cleanIntegral(r, in, i, out);
+                    break;
+                case YEAR_PREFIX:
+                    cleanYearPrefix(r, in, i, out);
+                    break;
+                case BINARY:
+                    cleanBinary(r, in, i, out);
+                    break;
+                case KEY:
+                    cleanKey(r, in, i, out);
+                    break;
+                case TEXT:
+                    if (!cleanText(in, i, out)) {
+                        counters.increment(r.missing);
+                        out.appendRaw(r.defaultBytes);
+                    }
+                    break;
+                case REQUIRED_TEXT:
+                    if (!cleanText(in, i, out)) {
+                        return false;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unhandled rule type " + r.type);
+            }
+        }
+        return true;
+    }
+
+    private static boolean isMissing(CsvFieldScanner in, int i) {
+        if (in.isQuoted(i)) {
+            return in.getString(i).trim().isEmpty();
+        }
+        return in.isBlank(i);
+    }
+
+    private void cleanDouble(Rule r, CsvFieldScanner in, int i, CsvRowWriter out) {
+        if (isMissing(in, i)) {
+            counters.increment(r.missing);
+            out.appendRaw(r.defaultBytes);
+            return;
+        }
+        double v;
+        try {
+            v = in.isQuoted(i) ? Double.parseDouble(in.getString(i).trim()) : in.parseDouble(i);
+        } catch (NumberFormatException e) {
+            counters.increment(r.parseErr);
+            out.appendRaw(r.defaultBytes);
+            return;
+        }
+        if (v < r.min) {
+            counters.increment(r.clipped);
+            out.appendRaw(r.minBytes);
+        } else if (v > r.max) {
+            counters.increment(r.clipped);
+            out.appendRaw(r.maxBytes);
+        } else {
+            out.appendDouble(v);
+        }
+    }
+
+    private void cleanIntegral(Rule r, CsvFieldScanner in, int i, CsvRowWriter out) {
+        if (isMissing(in, i)) {
+            counters.increment(r.missing);
+            out.appendRaw(r.defaultBytes);
+            return;
+        }
+        long v;
+        try {
+            if (in.isQuoted(i)) {
+                String s = in.getString(i).trim();
+                v = r.type == Type.INT ? Integer.parseInt(s) : Long.parseLong(s);
+            } else {
+                v = r.type == Type.INT ? in.parseInt(i) : in.parseLong(i);
+            }
+        } catch (NumberFormatException e) {
+            counters.increment(r.parseErr);
+            out.appendRaw(r.defaultBytes);
+            return;
+        }
+        clipLong(r, v, out);
+    }
+
+    private void clipLong(Rule r, long v, CsvRowWriter out) {
+        if (v < r.longMin) {
+            counters.increment(r.clipped);
+            out.appendRaw(r.minBytes);
+        } else if (v > r.longMax) {
+            counters.increment(r.clipped);
+            out.appendRaw(r.maxBytes);
+        } else {
+            out.appendLong(v);
+        }
+    }
+
+    private void cleanYearPrefix(Rule r, CsvFieldScanner in, int i, CsvRowWriter out) {
+        byte[] b = in.bytes();
+        int s = in.trimmedStart(i);
+        int e = in.trimmedEnd(i);
+        boolean ascii = true;
+        for (int k = s; k < e && k < s + 4; k++) {
+            if (b[k] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        if (!ascii || in.isQuoted(i)) {
+            String t = in.getString(i).trim();
+            String prefix = t.length() < 4 ? "" : t.substring(0, 4).trim();
+            if (prefix.isEmpty()) {
+                counters.increment(r.missing);
+                out.appendRaw(r.defaultBytes);
+                return;
+            }
+            try {
+                clipLong(r, Integer.parseInt(prefix), out);
+            } catch (NumberFormatException ex) {
+                counters.increment(r.parseErr);
+                out.appendRaw(r.defaultBytes);
+            }
+            return;
+        }
+        if (e - s < 4) {
+            counters.increment(r.missing);
+            out.appendRaw(r.defaultBytes);
+            return;
+        }
+        int pe = s + 4;
+        while (pe > s && (b[pe - 1] & 0xff) <= ' ') {
+            pe--;
+        }
+        long v;
+        try {
+            v = CsvFieldScanner.parseLong(b, s, pe);
+        } catch (NumberFormatException ex) {
+            counters.increment(r.parseErr);
+            out.appendRaw(r.defaultBytes);
+            return;
+        }
+        clipLong(r, v, out);
+    }
+
+    private void cleanBinary(Rule r, CsvFieldScanner in, int i, CsvRowWriter out) {
+        if (isMissing(in, i)) {
+            counters.increment(r.missing);
+            out.appendRaw(ZERO);
+            return;
+        }
+        int flag;
+        if (in.isQuoted(i)) {
+            flag = binaryValue(in.getString(i).trim().toLowerCase(Locale.ROOT));
+        } else {
+            flag = binaryValue(in.bytes(), in.trimmedStart(i), in.trimmedEnd(i));
+        }
+        if (flag < 0) {
+            counters.increment(r.parseErr);
+            flag = 0;
+        }
+        out.appendRaw(flag == 1 ? ONE : ZERO);
+    }
+
+    private static int binaryValue(String t) {
+        if (t.equals("1") || t.equals("true") || t.equals("yes") || t.equals("y")) {
+            return 1;
+        }
+        if (t.equals("0") || t.equals("false") || t.equals("no") || t.equals("n")) {
+            return 0;
+        }
+        return -1;
+    }
+
+    private static int binaryValue(byte[] b, int s, int e) {
+        if (e - s == 1) {
+            switch (b[s]) {
+                case '1':
+                case 'y':
+                case 'Y':
+                    return 1;
+                case '0':
+                case 'n':
+                case 'N':
+                    return 0;
+                default:
+                    return -1;
+            }
+        }
+        if (equalsIgnoreCase(b, s, e, "true") || equalsIgnoreCase(b, s, e, "yes")) {
+            return 1;
+        }
+        if (equalsIgnoreCase(b, s, e, "false") || equalsIgnoreCase(b, s, e, "no")) {
+            return 0;
+        }
+        return -1;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] b, int s, int e, String lower) {
+        if (e - s != lower.length()) {
+            return false;
+        }
+        for (int k = 0; k < lower.length(); k++) {
+            int c = b[s + k];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != lower.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void cleanKey(Rule r, CsvFieldScanner in, int i, CsvRowWriter out) {
+        if (isMissing(in, i)) {
+            counters.increment(r.missing);
+            out.appendRaw(ZERO);
+            return;
+        }
+        int v;
+        try {
+            v = in.isQuoted(i) ? Integer.parseInt(in.getString(i).trim()) : in.parseInt(i);
+        } catch (NumberFormatException e) {
+            counters.increment(r.parseErr);
+            out.appendRaw(ZERO);
+            return;
+        }
+        if (v < 0) {
+            counters.increment(r.clipped);
+            v = 0;
+        }
+        if (v > 11) {
+            counters.increment(r.wrapped);
+            v = v % 12;
+        }
+        out.appendLong(v);
+    }
+
+    /**
+     * Writes the trimmed text of field i, re-quoting it only if needed.
+     *
+     * @return false (and writes nothing) if the field is blank
+     */
+    private static boolean cleanText(CsvFieldScanner in, int i, CsvRowWriter out) {
+        byte[] b = in.bytes();
+        int s = in.trimmedStart(i);
+        int e = in.trimmedEnd(i);
+        if (s >= e) {
+            return false;
+        }
+        if (in.isQuoted(i)) {
+            int cs = s + 1;
+            int ce = e - 1;
+            boolean innerQuote = false;
+            for (int k = cs; k < ce; k++) {
+                if (b[k] == '"') {
+                    innerQuote = true;
+                    break;
+                }
+            }
+            if (innerQuote || (cs < ce && ((b[cs] & 0xff) <= ' ' || (b[ce - 1] & 0xff) <= ' '))) {
+                String t = in.getString(i).trim();
+                if (t.isEmpty()) {
+                    return false;
+                }
+                out.appendField(t);
+                return true;
+            }
+            if (cs >= ce) {
+                return false;
+            }
+            out.appendField(b, cs, ce);
+            return true;
+        }
+        out.appendField(b, s, e);
+        return true;
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Per-task table of Hadoop counters with batched updates.
+ *
+ * Callers register each (group, name) once, typically in setup(), and get
+ * back an int slot. Increments only touch a local long[]; the deltas are
+ * pushed to the resolved Counter objects every {@link #FLUSH_RECORDS}
+ * records (see {@link #tick()}) and on {@link #flush()}, which mappers call
+ * from cleanup().
+ *
+ * A registry that is never bound to a context simply accumulates, so the
+ * same cleaning code can run outside Hadoop and read the totals back.
+ */
+public final class CounterRegistry {
+
+    /**
+     * Records between pushes of the local counts to the task's counters.
+     */
+    public static final String FLUSH_RECORDS = "counters.flush.records";
+
+    public static final int DEFAULT_FLUSH_RECORDS = 10_000;
+
+    private final Map<String, Integer> slotsByName = new HashMap<>();
+    private final List<String> groups = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+
+    private long[] pending = new long[16];
+    private long[] flushed = new long[16];
+    private Counter[] counters = new Counter[16];
+
+    private TaskAttemptContext context;
+    private int flushInterval = DEFAULT_FLUSH_RECORDS;
+    private int sinceFlush;
+
+    /**
+     * Returns the slot for (group, name), registering it on first use.
+     */
+    public int register(String group, String name) {
+        String id = group + '\u0000' + name;
+        Integer slot = slotsByName.get(id);
+        if (slot != null) {
+            return slot;
+        }
+        int s = groups.size();
+        groups.add(group);
+        names.add(name);
+        slotsByName.put(id, s);
+        if (s == pending.length) {
+            pending = Arrays.copyOf(pending, s * 2);
+            flushed = Arrays.copyOf(flushed, s * 2);
+            counters = Arrays.copyOf(counters, s * 2);
+        }
+        if (context != null) {
+            counters[s] = context.getCounter(group, name);
+        }
+        return s;
+    }
+
+    /**
+     * Resolves every registered counter against the task context and reads
+     * the flush interval from its configuration.
+     */
+    public void bind(TaskAttemptContext context) {
+        this.context = context;
+        this.flushInterval = context.getConfiguration().getInt(FLUSH_RECORDS, DEFAULT_FLUSH_RECORDS);
+        for (int s = 0; s < groups.size(); s++) {
+            counters[s] = context.getCounter(groups.get(s), names.get(s));
+        }
+    }
+
+    public void increment(int slot) {
+        pending[slot]++;
+    }
+
+    public void add(int slot, long amount) {
+        pending[slot] += amount;
+    }
+
+    /**
+     * Marks one input record as processed; flushes once every
+     * {@link #FLUSH_RECORDS} records so counters still move during long tasks.
+     */
+    public void tick() {
+        if (++sinceFlush >= flushInterval) {
+            flush();
+        }
+    }
+
+    /**
+     * Pushes all local counts to the bound counters.
+     */
+    public void flush() {
+        sinceFlush = 0;
+        for (int s = 0; s < groups.size(); s++) {
+            long delta = pending[s];
+            if (delta == 0) {
+                continue;
+            }
+            if (counters[s] != null) {
+                counters[s].increment(delta);
+            }
+            flushed[s] += delta;
+            pending[s] = 0;
+        }
+    }
+
+    /**
+     * Total counted in this registry for a slot, flushed or not.
+     */
+    public long get(int slot) {
+        return flushed[slot] + pending[slot];
+    }
+
+    public int size() {
+        return groups.size();
+    }
+
+    public String group(int slot) {
+        return groups.get(slot);
+    }
+
+    public String name(int slot) {
+        return names.get(slot);
+    }
+}
@@ -0,0 +1,438 @@
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Single-pass CSV field scanner that works directly on a line's bytes.
+ *
+ * scan() records the raw [start, end) span of every field in reusable int
+ * arrays; nothing is copied. Numeric fields are parsed straight from the
+ * bytes, and Strings are only built when a caller asks for one.
+ *
+ * In quote-aware mode a comma between double quotes does not end a field,
+ * and getString() strips the surrounding quotes and unescapes "" to ".
+ * With quote awareness off every comma is a separator, like
+ * {@code line.split(",", -1)}.
+ */
+public final class CsvFieldScanner {
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+            1e21, 1e22
+    };
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final boolean quoteAware;
+
+    private byte[] buf;
+    private int lineStart;
+    private int lineEnd;
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int count;
+
+    public CsvFieldScanner() {
+        this(true);
+    }
+
+    public CsvFieldScanner(boolean quoteAware) {
+        this.quoteAware = quoteAware;
+    }
+
+    public int scan(Text line) {
+        return scan(line.getBytes(), 0, line.getLength());
+    }
+
+    /**
+     * Splits bytes [off, off + len) into fields and returns the field count.
+     * An empty line has one empty field, as with String.split.
+     */
+    public int scan(byte[] bytes, int off, int len) {
+        buf = bytes;
+        lineStart = off;
+        lineEnd = off + len;
+        count = 0;
+
+        int fieldStart = off;
+        boolean inQuotes = false;
+        for (int i = off; i < lineEnd; i++) {
+            byte b = bytes[i];
+            if (b == '"' && quoteAware) {
+                inQuotes = !inQuotes;
+            } else if (b == ',' && !inQuotes) {
+                addField(fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+        addField(fieldStart, lineEnd);
+        return count;
+    }
+
+    private void addField(int start, int end) {
+        if (count == starts.length) {
+            int[] s = new int[count * 2];
+            int[] e = new int[count * 2];
+            System.arraycopy(starts, 0, s, 0, count);
+            System.arraycopy(ends, 0, e, 0, count);
+            starts = s;
+            ends = e;
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    public int fieldCount() {
+        return count;
+    }
+
+    public byte[] bytes() {
+        return buf;
+    }
+
+    /**
+     * Raw start offset of field i in {@link #bytes()}, quotes included.
+     */
+    public int start(int i) {
+        return starts[i];
+    }
+
+    /**
+     * Raw end offset (exclusive) of field i in {@link #bytes()}.
+     */
+    public int end(int i) {
+        return ends[i];
+    }
+
+    /**
+     * Start of field i with leading whitespace skipped.
+     */
+    public int trimmedStart(int i) {
+        int s = starts[i];
+        int e = ends[i];
+        while (s < e && (buf[s] & 0xff) <= ' ') {
+            s++;
+        }
+        return s;
+    }
+
+    /**
+     * End of field i with trailing whitespace dropped.
+     */
+    public int trimmedEnd(int i) {
+        int s = starts[i];
+        int e = ends[i];
+        while (e > s && (buf[e - 1] & 0xff) <= ' ') {
+            e--;
+        }
+        return e;
+    }
+
+    /**
+     * True if field i is empty or whitespace only (String.trim() rules).
+     */
+    public boolean isBlank(int i) {
+        return trimmedStart(i) >= trimmedEnd(i);
+    }
+
+    /**
+     * True if field i (trimmed) is wrapped in double quotes.
+     */
+    public boolean isQuoted(int i) {
+        int s = trimmedStart(i);
+        int e = trimmedEnd(i);
+        return e - s >= 2 && buf[s] == '"' && buf[e - 1] == '"';
+    }
+
+    /**
+     * True if the raw line starts with the given ASCII prefix.
+     */
+    public boolean lineStartsWith(String prefix) {
+        if (lineEnd - lineStart < prefix.length()) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            if (buf[lineStart + k] != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if the whole (trimmed) line starts with the given ASCII prefix,
+     * ignoring case.
+     */
+    public boolean lineStartsWithIgnoreCase(String prefix) {
+        int s = lineStart;
+        while (s < lineEnd && (buf[s] & 0xff) <= ' ') {
+            s++;
+        }
+        if (lineEnd - s < prefix.length()) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            int c = buf[s + k];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            int p = Character.toLowerCase(prefix.charAt(k));
+            if (c != p) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if the line is empty or whitespace only.
+     */
+    public boolean isBlankLine() {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if ((buf[i] & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Field i as a String. Surrounding whitespace is kept; in quote-aware mode
+     * a field wrapped in quotes is returned without them and with "" unescaped.
+     */
+    public String getString(int i) {
+        int s = starts[i];
+        int e = ends[i];
+        if (quoteAware && isQuoted(i)) {
+            return unquote(trimmedStart(i) + 1, trimmedEnd(i) - 1);
+        }
+        return new String(buf, s, e - s, StandardCharsets.UTF_8);
+    }
+
+    private String unquote(int s, int e) {
+        boolean escaped = false;
+        for (int k = s; k < e; k++) {
+            if (buf[k] == '"') {
+                escaped = true;
+                break;
+            }
+        }
+        if (!escaped) {
+            return new String(buf, s, e - s, StandardCharsets.UTF_8);
+        }
+        byte[] tmp = new byte[e - s];
+        int n = 0;
+        for (int k = s; k < e; k++) {
+            tmp[n++] = buf[k];
+            if (buf[k] == '"' && k + 1 < e && buf[k + 1] == '"') {
+                k++;
+            }
+        }
+        return new String(tmp, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses field i as an int, ignoring surrounding whitespace.
+     *
+     * @throws NumberFormatException if the field is not a decimal int
+     */
+    public int parseInt(int i) {
+        long v = parseLong(i);
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            throw new NumberFormatException("int out of range in field " + i);
+        }
+        return (int) v;
+    }
+
+    /**
+     * Parses field i as a long, ignoring surrounding whitespace.
+     *
+     * @throws NumberFormatException if the field is not a decimal long
+     */
+    public long parseLong(int i) {
+        int s = trimmedStart(i);
+        int e = trimmedEnd(i);
+        try {
+            return parseLong(buf, s, e);
+        } catch (NumberFormatException ex) {
+            if (!hasNonAscii(s, e)) {
+                throw ex;
+            }
+            // Long.parseLong also accepts non-ASCII Unicode digits.
+            return Long.parseLong(new String(buf, s, e - s, StandardCharsets.UTF_8));
+        }
+    }
+
+    private boolean hasNonAscii(int s, int e) {
+        for (int k = s; k < e; k++) {
+            if (buf[k] < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses bytes [s, e) as a decimal long with an optional sign, like
+     * Long.parseLong on the same characters.
+     *
+     * @throws NumberFormatException if the bytes are not a decimal long
+     */
+    public static long parseLong(byte[] buf, int s, int e) {
+        if (s >= e) {
+            throw new NumberFormatException("empty number");
+        }
+        boolean negative = false;
+        if (buf[s] == '-' || buf[s] == '+') {
+            negative = buf[s] == '-';
+            s++;
+            if (s == e) {
+                throw new NumberFormatException("sign without digits");
+            }
+        }
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (int k = s; k < e; k++) {
+            int d = buf[k] - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException("bad digit in number");
+            }
+            if (result < (limit + d) / 10) {
+                throw new NumberFormatException("number out of range");
+            }
+            result = result * 10 - d;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * True if field i parses as an int (no exception thrown on failure).
+     */
+    public boolean isInt(int i) {
+        int s = trimmedStart(i);
+        int e = trimmedEnd(i);
+        if (s < e && (buf[s] == '-' || buf[s] == '+')) {
+            s++;
+        }
+        if (s >= e) {
+            return false;
+        }
+        boolean nonAscii = false;
+        for (int k = s; k < e; k++) {
+            byte b = buf[k];
+            if (b < 0) {
+                nonAscii = true;
+            } else if (b < '0' || b > '9') {
+                return false;
+            }
+        }
+        if (nonAscii || e - s >= 10) {
+            try {
+                parseInt(i);
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses field i as a double with the same result as
+     * Double.parseDouble(field.trim()).
+     *
+     * Plain decimals with at most 18 significant digits and a small exponent
+     * are converted exactly from the bytes (one correctly rounded multiply or
+     * divide of exact operands). Anything else falls back to Double.parseDouble.
+     *
+     * @throws NumberFormatException if the field is not a number
+     */
+    public double parseDouble(int i) {
+        int s = trimmedStart(i);
+        int e = trimmedEnd(i);
+        if (s >= e) {
+            throw new NumberFormatException("empty field " + i);
+        }
+
+        int k = s;
+        boolean negative = false;
+        if (buf[k] == '-' || buf[k] == '+') {
+            negative = buf[k] == '-';
+            k++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean sawDigit = false;
+        boolean sawDot = false;
+        for (; k < e; k++) {
+            byte b = buf[k];
+            if (b >= '0' && b <= '9') {
+                sawDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    if (sawDot) {
+                        scale--;
+                    }
+                    continue;
+                }
+                if (digits == 18) {
+                    return slowParseDouble(s, e);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (sawDot) {
+                    scale--;
+                }
+            } else if (b == '.' && !sawDot) {
+                sawDot = true;
+            } else {
+                break;
+            }
+        }
+        if (!sawDigit) {
+            return slowParseDouble(s, e);
+        }
+
+        if (k < e) {
+            if (buf[k] != 'e' && buf[k] != 'E') {
+                return slowParseDouble(s, e);
+            }
+            k++;
+            boolean expNegative = false;
+            if (k < e && (buf[k] == '-' || buf[k] == '+')) {
+                expNegative = buf[k] == '-';
+                k++;
+            }
+            if (k == e || e - k > 4) {
+                return slowParseDouble(s, e);
+            }
+            int exp = 0;
+            for (; k < e; k++) {
+                int d = buf[k] - '0';
+                if (d < 0 || d > 9) {
+                    return slowParseDouble(s, e);
+                }
+                exp = exp * 10 + d;
+            }
+            scale += expNegative ? -exp : exp;
+        }
+
+        double v;
+        if (mantissa == 0) {
+            v = 0.0;
+        } else if (mantissa > MAX_EXACT_MANTISSA || scale < -22 || scale > 22) {
+            return slowParseDouble(s, e);
+        } else if (scale < 0) {
+            v = mantissa / POW10[-scale];
+        } else {
+            v = mantissa * POW10[scale];
+        }
+        return negative ? -v : v;
+    }
+
+    private double slowParseDouble(int s, int e) {
+        return Double.parseDouble(new String(buf, s, e - s, StandardCharsets.ISO_8859_1));
+    }
+}
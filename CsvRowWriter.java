@@ -0,0 +1,186 @@
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Builds one CSV row in a reusable byte buffer.
+ *
+ * Fields are separated by commas automatically. String fields are quoted
+ * RFC-4180 style (wrapped in quotes, inner quotes doubled) only when they
+ * contain a comma, quote or line break, so rows without such fields come
+ * out exactly as {@code String.join(",", fields)} would.
+ */
+public final class CsvRowWriter {
+
+    private byte[] buf = new byte[512];
+    private int len;
+    private boolean firstField = true;
+
+    public void reset() {
+        len = 0;
+        firstField = true;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public byte[] bytes() {
+        return buf;
+    }
+
+    /**
+     * Copies the row into {@code out} without allocating once the Text's
+     * backing array is large enough.
+     */
+    public void writeTo(Text out) {
+        out.set(buf, 0, len);
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            byte[] b = new byte[Math.max(buf.length * 2, len + extra)];
+            System.arraycopy(buf, 0, b, 0, len);
+            buf = b;
+        }
+    }
+
+    private void separator() {
+        if (firstField) {
+            firstField = false;
+        } else {
+            ensure(1);
+            buf[len++] = ',';
+        }
+    }
+
+    /**
+     * Appends a field, quoting it if it needs quoting.
+     */
+    public void appendField(String s) {
+        separator();
+        boolean ascii = true;
+        boolean quote = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                ascii = false;
+            } else if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                quote = true;
+            }
+        }
+        if (!ascii) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            appendEncoded(utf8, 0, utf8.length, quote);
+            return;
+        }
+        ensure(s.length() * 2 + 2);
+        if (quote) {
+            buf[len++] = '"';
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' && quote) {
+                buf[len++] = '"';
+            }
+            buf[len++] = (byte) c;
+        }
+        if (quote) {
+            buf[len++] = '"';
+        }
+    }
+
+    /**
+     * Appends UTF-8 bytes [start, end) as one field, quoting if needed.
+     */
+    public void appendField(byte[] src, int start, int end) {
+        separator();
+        boolean quote = false;
+        for (int i = start; i < end; i++) {
+            byte b = src[i];
+            if (b == ',' || b == '"' || b == '\n' || b == '\r') {
+                quote = true;
+                break;
+            }
+        }
+        appendEncoded(src, start, end, quote);
+    }
+
+    /**
+     * Appends a pre-formatted field (e.g. a cached default) as is.
+     */
+    public void appendRaw(byte[] field) {
+        separator();
+        ensure(field.length);
+        System.arraycopy(field, 0, buf, len, field.length);
+        len += field.length;
+    }
+
+    /**
+     * Appends bytes [start, end) as one field without any quoting.
+     */
+    public void appendRaw(byte[] src, int start, int end) {
+        separator();
+        ensure(end - start);
+        System.arraycopy(src, start, buf, len, end - start);
+        len += end - start;
+    }
+
+    /**
+     * Appends the decimal digits of v, as Long.toString would.
+     */
+    public void appendLong(long v) {
+        separator();
+        ensure(20);
+        if (v == 0) {
+            buf[len++] = '0';
+            return;
+        }
+        if (v < 0) {
+            buf[len++] = '-';
+        } else {
+            v = -v;
+        }
+        int start = len;
+        while (v != 0) {
+            buf[len++] = (byte) ('0' - (v % 10));
+            v /= 10;
+        }
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    /**
+     * Appends v formatted by Double.toString, so cleaned values keep the
+     * exact text the String-based cleaner produced.
+     */
+    public void appendDouble(double v) {
+        separator();
+        String s = Double.toString(v);
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[len++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void appendEncoded(byte[] src, int start, int end, boolean quote) {
+        if (!quote) {
+            ensure(end - start);
+            System.arraycopy(src, start, buf, len, end - start);
+            len += end - start;
+            return;
+        }
+        ensure((end - start) * 2 + 2);
+        buf[len++] = '"';
+        for (int i = start; i < end; i++) {
+            if (src[i] == '"') {
+                buf[len++] = '"';
+            }
+            buf[len++] = src[i];
+        }
+        buf[len++] = '"';
+    }
+}
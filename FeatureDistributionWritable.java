@@ -0,0 +1,192 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link FeatureSumsWritable} plus what a distribution rollup needs: per
+ * feature a running mean and M2 (sum of squared deviations from the mean),
+ * and a {@link TDigest} for the features whose quantiles are wanted.
+ *
+ * A track starts as mean = value, M2 = 0, and partials merge with Chan et
+ * al.'s pairwise update:
+ *
+ *   delta = mean_b - mean_a
+ *   mean  = mean_a + delta * n_b / n
+ *   M2    = M2_a + M2_b + delta^2 * n_a * n_b / n
+ *
+ * Unlike sum of squares minus squared sum, this does not cancel when the
+ * spread is small next to the mean (loudness, tempo). The same partial works
+ * as per-track map output, in-mapper or combiner state and reducer total.
+ *
+ * On the wire: the 80 bytes of FeatureSumsWritable, nine means and nine M2s,
+ * then the digested feature indexes and their digests. Records describe
+ * their own digests, so readers need no configuration; an empty partial
+ * adopts the layout of the first one merged into it.
+ */
+public class FeatureDistributionWritable extends FeatureSumsWritable {
+
+    private static final int[] NO_FEATURES = new int[0];
+
+    private final double[] means = new double[NUM_FEATURES];
+    private final double[] m2 = new double[NUM_FEATURES];
+
+    private int[] digestFeatures = NO_FEATURES;
+    private TDigest[] digests = new TDigest[0];
+
+    public FeatureDistributionWritable() {
+    }
+
+    /**
+     * @param digestFeatures feature indexes that get a t-digest
+     * @param compression t-digest delta
+     */
+    public FeatureDistributionWritable(int[] digestFeatures, double compression) {
+        configure(digestFeatures, compression);
+    }
+
+    private void configure(int[] features, double compression) {
+        digestFeatures = features.clone();
+        digests = new TDigest[features.length];
+        for (int d = 0; d < features.length; d++) {
+            if (features[d] < 0 || features[d] >= NUM_FEATURES) {
+                throw new IllegalArgumentException("No such feature: " + features[d]);
+            }
+            digests[d] = new TDigest(compression);
+        }
+    }
+
+    private boolean sameLayout(FeatureDistributionWritable other) {
+        if (!Arrays.equals(digestFeatures, other.digestFeatures)) {
+            return false;
+        }
+        for (int d = 0; d < digests.length; d++) {
+            if (digests[d].getCompression() != other.digests[d].getCompression()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        Arrays.fill(means, 0.0);
+        Arrays.fill(m2, 0.0);
+        for (TDigest digest : digests) {
+            digest.clear();
+        }
+    }
+
+    @Override
+    public void set(double valence, double danceability, double energy,
+            double acousticness, double instrumentalness, double liveness,
+            double loudness, double speechiness, double tempo) {
+        super.set(valence, danceability, energy, acousticness,
+                instrumentalness, liveness, loudness, speechiness, tempo);
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            means[i] = getSum(i);
+            m2[i] = 0.0;
+        }
+        for (int d = 0; d < digests.length; d++) {
+            digests[d].clear();
+            digests[d].add(means[digestFeatures[d]]);
+        }
+    }
+
+    @Override
+    public void merge(FeatureSumsWritable other) {
+        FeatureDistributionWritable o = (FeatureDistributionWritable) other;
+        long nb = o.getCount();
+        if (nb == 0) {
+            return;
+        }
+        long na = getCount();
+        if (!sameLayout(o)) {
+            if (na != 0) {
+                throw new IllegalArgumentException("Digest layouts differ: "
+                        + Arrays.toString(digestFeatures) + " vs " + Arrays.toString(o.digestFeatures));
+            }
+            configure(o.digestFeatures, o.digests.length == 0 ? TDigest.DEFAULT_COMPRESSION
+                    : o.digests[0].getCompression());
+        }
+
+        double n = na + nb;
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            double delta = o.means[i] - means[i];
+            means[i] += delta * nb / n;
+            m2[i] += o.m2[i] + delta * delta * (na / n) * nb;
+        }
+        for (int d = 0; d < digests.length; d++) {
+            digests[d].merge(o.digests[d]);
+        }
+        super.merge(other);
+    }
+
+    public double getMean(int feature) {
+        return means[feature];
+    }
+
+    /**
+     * Sample variance (n - 1 denominator, as pandas' std); NaN below two tracks.
+     */
+    public double getVariance(int feature) {
+        long n = getCount();
+        return n < 2 ? Double.NaN : m2[feature] / (n - 1);
+    }
+
+    public double getStdDev(int feature) {
+        return Math.sqrt(getVariance(feature));
+    }
+
+    public int[] getDigestFeatures() {
+        return digestFeatures.clone();
+    }
+
+    /**
+     * Estimated quantile of a digested feature; NaN if it has no digest.
+     */
+    public double quantile(int feature, double q) {
+        for (int d = 0; d < digestFeatures.length; d++) {
+            if (digestFeatures[d] == feature) {
+                return digests[d].quantile(q);
+            }
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            out.writeDouble(means[i]);
+            out.writeDouble(m2[i]);
+        }
+        out.writeByte(digestFeatures.length);
+        for (int d = 0; d < digestFeatures.length; d++) {
+            out.writeByte(digestFeatures[d]);
+            digests[d].write(out);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        super.readFields(in);
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            means[i] = in.readDouble();
+            m2[i] = in.readDouble();
+        }
+        int n = in.readByte();
+        if (n != digestFeatures.length) {
+            digestFeatures = new int[n];
+            digests = new TDigest[n];
+        }
+        for (int d = 0; d < n; d++) {
+            digestFeatures[d] = in.readByte();
+            if (digests[d] == null) {
+                digests[d] = new TDigest();
+            }
+            digests[d].readFields(in);
+        }
+    }
+}
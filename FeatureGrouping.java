@@ -0,0 +1,129 @@
+import java.util.Locale;
+
+/**
+ * Grouping keys supported by {@link AudioFeatureRollup}.
+ *
+ * Every grouping maps a track onto a small dense slot range so the rollup
+ * can use primitive int keys and fixed-size in-mapper accumulators. A slot
+ * of -1 means the track has no bucket for that grouping (for example an
+ * unparsable key or mode) and is left out of that rollup only.
+ */
+public enum FeatureGrouping {
+
+    YEAR("year", "year", 61) {
+        @Override
+        public int slot(int year, int key, int mode, int explicit, int popularity) {
+            return year - AudioFeatureRollup.MIN_YEAR;
+        }
+
+        @Override
+        public String label(int slot) {
+            return Integer.toString(AudioFeatureRollup.MIN_YEAR + slot);
+        }
+    },
+
+    DECADE("decade", "decade", 7) {
+        @Override
+        public int slot(int year, int key, int mode, int explicit, int popularity) {
+            return (year - AudioFeatureRollup.MIN_YEAR) / 10;
+        }
+
+        @Override
+        public String label(int slot) {
+            return Integer.toString(AudioFeatureRollup.MIN_YEAR + slot * 10);
+        }
+    },
+
+    KEY_MODE("keymode", "key,mode", 24) {
+        @Override
+        public int slot(int year, int key, int mode, int explicit, int popularity) {
+            if (key < 0 || key > 11 || mode < 0 || mode > 1) {
+                return -1;
+            }
+            return key * 2 + mode;
+        }
+
+        @Override
+        public String label(int slot) {
+            return (slot / 2) + "," + (slot % 2);
+        }
+    },
+
+    EXPLICIT("explicit", "explicit", 2) {
+        @Override
+        public int slot(int year, int key, int mode, int explicit, int popularity) {
+            if (explicit < 0 || explicit > 1) {
+                return -1;
+            }
+            return explicit;
+        }
+
+        @Override
+        public String label(int slot) {
+            return Integer.toString(slot);
+        }
+    },
+
+    POPULARITY_BAND("popularityband", "popularity_band", 10) {
+        @Override
+        public int slot(int year, int key, int mode, int explicit, int popularity) {
+            if (popularity < 0 || popularity > 100) {
+                return -1;
+            }
+            return Math.min(popularity / 10, 9);
+        }
+
+        @Override
+        public String label(int slot) {
+            return slot == 9 ? "90-100" : (slot * 10) + "-" + (slot * 10 + 9);
+        }
+    };
+
+    private final String outputName;
+    private final String keyHeader;
+    private final int numSlots;
+
+    FeatureGrouping(String outputName, String keyHeader, int numSlots) {
+        this.outputName = outputName;
+        this.keyHeader = keyHeader;
+        this.numSlots = numSlots;
+    }
+
+    /**
+     * Dense slot in [0, numSlots()) for a track, or -1 if it has no bucket.
+     * The year is already known to be within the rollup's year range.
+     */
+    public abstract int slot(int year, int key, int mode, int explicit, int popularity);
+
+    /**
+     * Text written in the leading key column(s) of the CSV for a slot.
+     */
+    public abstract String label(int slot);
+
+    /**
+     * Name used for this rollup's MultipleOutputs files (alphanumeric only).
+     */
+    public String outputName() {
+        return outputName;
+    }
+
+    public int numSlots() {
+        return numSlots;
+    }
+
+    public String header() {
+        return keyHeader + ",avg_valence,avg_danceability,avg_energy,"
+                + "avg_acousticness,avg_instrumentalness,avg_liveness,"
+                + "avg_loudness,avg_speechiness,avg_tempo,song_count";
+    }
+
+    public static FeatureGrouping fromName(String name) {
+        String n = name.trim().toLowerCase(Locale.ROOT).replace("_", "").replace("-", "");
+        for (FeatureGrouping g : values()) {
+            if (g.outputName.equals(n)) {
+                return g;
+            }
+        }
+        throw new IllegalArgumentException("Unknown feature grouping: " + name);
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Loops over primitive feature columns: accumulation, min/max and sums.
+ *
+ * Each kernel has a SIMD implementation on the incubating Vector API
+ * ({@link FeatureVectorKernels}) and a scalar one ({@link Scalar}). The
+ * SIMD kernels run when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector} and {@link #SCALAR} is not set;
+ * otherwise, as in Hadoop tasks, the scalar ones run and the Vector API
+ * classes are never loaded. The choice is a constant, so the JIT keeps only
+ * one path.
+ *
+ * {@link #add} and {@link #minMax} give the same results either way: add
+ * sums each element in the same order, and both min/max kernels skip NaN
+ * and treat -0.0 as below 0.0, as Math.min does. {@link #sum} and
+ * {@link #sumOfSquares} add across lanes in a different order, so their
+ * last bits can differ from the scalar kernels'; they are not used where
+ * output has to match the MapReduce jobs.
+ */
+public final class FeatureKernels {
+
+    /** System property: true forces the scalar kernels. */
+    public static final String SCALAR = "spotify.kernels.scalar";
+
+    public static final boolean VECTORIZED = !Boolean.getBoolean(SCALAR)
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private FeatureKernels() {
+    }
+
+    /**
+     * acc[accOffset + i] += src[srcOffset + i] for i in [0, length).
+     */
+    public static void add(double[] acc, int accOffset, double[] src, int srcOffset, int length) {
+        if (VECTORIZED) {
+            FeatureVectorKernels.add(acc, accOffset, src, srcOffset, length);
+        } else {
+            Scalar.add(acc, accOffset, src, srcOffset, length);
+        }
+    }
+
+    public static double sum(double[] a, int from, int to) {
+        return VECTORIZED ? FeatureVectorKernels.sum(a, from, to) : Scalar.sum(a, from, to);
+    }
+
+    /**
+     * Sum of (a[i] - center)^2 over [from, to); with the mean as center,
+     * the M2 of FeatureDistributionWritable.
+     */
+    public static double sumOfSquares(double[] a, int from, int to, double center) {
+        return VECTORIZED
+                ? FeatureVectorKernels.sumOfSquares(a, from, to, center)
+                : Scalar.sumOfSquares(a, from, to, center);
+    }
+
+    /**
+     * Minimum and maximum of the non-NaN values of a[from, to) into
+     * out[0] and out[1]; both NaN if there are none.
+     */
+    public static void minMax(double[] a, int from, int to, double[] out) {
+        if (VECTORIZED) {
+            FeatureVectorKernels.minMax(a, from, to, out);
+        } else {
+            Scalar.minMax(a, from, to, out);
+        }
+    }
+
+    /**
+     * The fallback kernels, one element at a time.
+     */
+    public static final class Scalar {
+
+        private Scalar() {
+        }
+
+        public static void add(double[] acc, int accOffset, double[] src, int srcOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                acc[accOffset + i] += src[srcOffset + i];
+            }
+        }
+
+        public static double sum(double[] a, int from, int to) {
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += a[i];
+            }
+            return sum;
+        }
+
+        public static double sumOfSquares(double[] a, int from, int to, double center) {
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                double d = a[i] - center;
+                sum += d * d;
+            }
+            return sum;
+        }
+
+        public static void minMax(double[] a, int from, int to, double[] out) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            boolean any = false;
+            for (int i = from; i < to; i++) {
+                double v = a[i];
+                if (v == v) {
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                    any = true;
+                }
+            }
+            out[0] = any ? min : Double.NaN;
+            out[1] = any ? max : Double.NaN;
+        }
+    }
+}
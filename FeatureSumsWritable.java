@@ -0,0 +1,137 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Partial aggregate of the nine audio features used by the feature rollups.
+ *
+ * Fixed width on the wire: nine double sums followed by a long count
+ * (80 bytes), so combiners and reducers can merge partials without
+ * formatting or parsing any text.
+ *
+ * Feature order:
+ * 0: valence
+ * 1: danceability
+ * 2: energy
+ * 3: acousticness
+ * 4: instrumentalness
+ * 5: liveness
+ * 6: loudness
+ * 7: speechiness
+ * 8: tempo
+ */
+public class FeatureSumsWritable implements Writable {
+
+    public static final int NUM_FEATURES = 9;
+
+    public static final int VALENCE = 0;
+    public static final int DANCEABILITY = 1;
+    public static final int ENERGY = 2;
+    public static final int ACOUSTICNESS = 3;
+    public static final int INSTRUMENTALNESS = 4;
+    public static final int LIVENESS = 5;
+    public static final int LOUDNESS = 6;
+    public static final int SPEECHINESS = 7;
+    public static final int TEMPO = 8;
+
+    /** Column names in feature order, as in Spotify_cleaned.csv. */
+    public static final String[] NAMES = {
+            "valence", "danceability", "energy", "acousticness", "instrumentalness",
+            "liveness", "loudness", "speechiness", "tempo"
+    };
+
+    public static int featureIndex(String name) {
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            if (NAMES[i].equalsIgnoreCase(name.trim())) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown audio feature: " + name);
+    }
+
+    private final double[] sums = new double[NUM_FEATURES];
+    private long count;
+
+    /**
+     * Resets this partial from a flat sums array laid out as
+     * {@code src[offset + feature]}, e.g. one entry of a dense per-artist
+     * or per-slot accumulator. Only for plain partials: a subclass that
+     * carries more than sums would be left half loaded, so it is final and
+     * refuses them.
+     */
+    final void load(double[] src, int offset, long count) {
+        if (getClass() != FeatureSumsWritable.class) {
+            throw new UnsupportedOperationException("load() on " + getClass().getName());
+        }
+        System.arraycopy(src, offset, sums, 0, NUM_FEATURES);
+        this.count = count;
+    }
+
+    public void clear() {
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            sums[i] = 0.0;
+        }
+        count = 0;
+    }
+
+    /**
+     * Resets this partial to a single track.
+     */
+    public void set(double valence, double danceability, double energy,
+            double acousticness, double instrumentalness, double liveness,
+            double loudness, double speechiness, double tempo) {
+        sums[VALENCE] = valence;
+        sums[DANCEABILITY] = danceability;
+        sums[ENERGY] = energy;
+        sums[ACOUSTICNESS] = acousticness;
+        sums[INSTRUMENTALNESS] = instrumentalness;
+        sums[LIVENESS] = liveness;
+        sums[LOUDNESS] = loudness;
+        sums[SPEECHINESS] = speechiness;
+        sums[TEMPO] = tempo;
+        count = 1;
+    }
+
+    public void merge(FeatureSumsWritable other) {
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            sums[i] += other.sums[i];
+        }
+        count += other.count;
+    }
+
+    public double getSum(int feature) {
+        return sums[feature];
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            out.writeDouble(sums[i]);
+        }
+        out.writeLong(count);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            sums[i] = in.readDouble();
+        }
+        count = in.readLong();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            sb.append(sums[i]).append('\t');
+        }
+        sb.append(count);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,107 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the {@link FeatureKernels}, at the platform's preferred
+ * vector width (4 doubles with AVX2, 8 with AVX-512). Needs
+ * {@code --add-modules jdk.incubator.vector}; call through FeatureKernels,
+ * which only loads this class when the module is present.
+ *
+ * The reductions keep four independent accumulators so consecutive vector
+ * adds do not wait on each other; elements past the last full vector are
+ * handled one at a time.
+ */
+public final class FeatureVectorKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private FeatureVectorKernels() {
+    }
+
+    public static void add(double[] acc, int accOffset, double[] src, int srcOffset, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, acc, accOffset + i)
+                    .add(DoubleVector.fromArray(SPECIES, src, srcOffset + i))
+                    .intoArray(acc, accOffset + i);
+        }
+        for (; i < length; i++) {
+            acc[accOffset + i] += src[srcOffset + i];
+        }
+    }
+
+    public static double sum(double[] a, int from, int to) {
+        DoubleVector s0 = DoubleVector.zero(SPECIES);
+        DoubleVector s1 = s0;
+        DoubleVector s2 = s0;
+        DoubleVector s3 = s0;
+        int i = from;
+        for (int bound = to - 4 * LANES; i <= bound; i += 4 * LANES) {
+            s0 = s0.add(DoubleVector.fromArray(SPECIES, a, i));
+            s1 = s1.add(DoubleVector.fromArray(SPECIES, a, i + LANES));
+            s2 = s2.add(DoubleVector.fromArray(SPECIES, a, i + 2 * LANES));
+            s3 = s3.add(DoubleVector.fromArray(SPECIES, a, i + 3 * LANES));
+        }
+        double sum = s0.add(s1).add(s2.add(s3)).reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            sum += a[i];
+        }
+        return sum;
+    }
+
+    public static double sumOfSquares(double[] a, int from, int to, double center) {
+        DoubleVector c = DoubleVector.broadcast(SPECIES, center);
+        DoubleVector s0 = DoubleVector.zero(SPECIES);
+        DoubleVector s1 = s0;
+        DoubleVector s2 = s0;
+        DoubleVector s3 = s0;
+        int i = from;
+        for (int bound = to - 4 * LANES; i <= bound; i += 4 * LANES) {
+            DoubleVector d0 = DoubleVector.fromArray(SPECIES, a, i).sub(c);
+            DoubleVector d1 = DoubleVector.fromArray(SPECIES, a, i + LANES).sub(c);
+            DoubleVector d2 = DoubleVector.fromArray(SPECIES, a, i + 2 * LANES).sub(c);
+            DoubleVector d3 = DoubleVector.fromArray(SPECIES, a, i + 3 * LANES).sub(c);
+            s0 = d0.fma(d0, s0);
+            s1 = d1.fma(d1, s1);
+            s2 = d2.fma(d2, s2);
+            s3 = d3.fma(d3, s3);
+        }
+        double sum = s0.add(s1).add(s2.add(s3)).reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            double d = a[i] - center;
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    public static void minMax(double[] a, int from, int to, double[] out) {
+        DoubleVector min = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        DoubleVector max = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        // Lanes that saw a value; NaNs are swapped for the identities.
+        VectorMask<Double> seen = SPECIES.maskAll(false);
+        int i = from;
+        for (int bound = to - LANES; i <= bound; i += LANES) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, a, i);
+            VectorMask<Double> nan = v.test(VectorOperators.IS_NAN);
+            min = min.min(v.blend(Double.POSITIVE_INFINITY, nan));
+            max = max.max(v.blend(Double.NEGATIVE_INFINITY, nan));
+            seen = seen.or(nan.not());
+        }
+        double lo = min.reduceLanes(VectorOperators.MIN);
+        double hi = max.reduceLanes(VectorOperators.MAX);
+        boolean any = seen.anyTrue();
+        for (; i < to; i++) {
+            double v = a[i];
+            if (v == v) {
+                lo = Math.min(lo, v);
+                hi = Math.max(hi, v);
+                any = true;
+            }
+        }
+        out[0] = any ? lo : Double.NaN;
+        out[1] = any ? hi : Double.NaN;
+    }
+}
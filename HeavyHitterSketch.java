@@ -0,0 +1,357 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Mergeable heavy-hitter summary of a stream of long ids: a Count-Min sketch
+ * for point estimates plus a Space-Saving summary for the candidate list.
+ *
+ * Count-Min (depth d, width w) overestimates any id's count by at most
+ * e/w * N with probability 1 - e^-d, where N is the stream length. Space-Saving
+ * with capacity m keeps m (id, count, error) entries; every id with true
+ * count above N/m is present, and count - error &lt;= true count &lt;= count.
+ *
+ * Both halves merge: Count-Min cell by cell (the hash seeds are fixed, so
+ * sketches of equal shape built by different tasks line up), Space-Saving by
+ * adding counts and charging an id missing from one side that side's minimum
+ * count, as both count and error. The bounds then hold over the combined
+ * stream.
+ */
+public class HeavyHitterSketch implements Writable {
+
+    private static final long[] SEEDS = {
+        0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0xd6e8feb86659fd93L,
+        0xff51afd7ed558ccdL, 0xc4ceb9fe1a85ec53L, 0x27d4eb2f165667c5L, 0x85ebca77c2b2ae63L
+    };
+
+    public static final int MAX_DEPTH = SEEDS.length;
+
+    private int depth;
+    private int width;
+    private long[] cells;
+    private long total;
+
+    // Space-Saving entries as a binary min-heap on count; index maps id -> slot.
+    private int capacity;
+    private int size;
+    private long[] ids;
+    private long[] counts;
+    private long[] errors;
+    private LongIntHashMap index;
+
+    public HeavyHitterSketch() {
+    }
+
+    /**
+     * @param depth Count-Min rows, 1..{@link #MAX_DEPTH}
+     * @param width Count-Min columns, rounded up to a power of two
+     * @param capacity Space-Saving entries
+     */
+    public HeavyHitterSketch(int depth, int width, int capacity) {
+        reset(depth, width, capacity);
+    }
+
+    private void reset(int depth, int width, int capacity) {
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Count-Min depth must be 1.." + MAX_DEPTH + ": " + depth);
+        }
+        if (width < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Width and capacity must be positive");
+        }
+        width = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+        if (this.depth != depth || this.width != width) {
+            cells = new long[depth * width];
+        } else {
+            Arrays.fill(cells, 0L);
+        }
+        if (this.capacity != capacity) {
+            ids = new long[capacity];
+            counts = new long[capacity];
+            errors = new long[capacity];
+            index = new LongIntHashMap(capacity);
+        } else {
+            index.clear();
+        }
+        this.depth = depth;
+        this.width = width;
+        this.capacity = capacity;
+        total = 0;
+        size = 0;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Stream length N: the number of ids added, summed over merges. */
+    public long getTotal() {
+        return total;
+    }
+
+    /** Number of Space-Saving entries in use. */
+    public int size() {
+        return size;
+    }
+
+    private static int cell(long id, long seed, int mask) {
+        long h = id ^ seed;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return (int) h & mask;
+    }
+
+    public void add(long id) {
+        total++;
+        int mask = width - 1;
+        for (int r = 0; r < depth; r++) {
+            cells[r * width + cell(id, SEEDS[r], mask)]++;
+        }
+
+        int slot = index.get(id);
+        if (slot != LongIntHashMap.MISSING) {
+            counts[slot]++;
+            siftDown(slot, true);
+        } else if (size < capacity) {
+            ids[size] = id;
+            counts[size] = 1;
+            errors[size] = 0;
+            index.put(id, size);
+            siftUp(size++, true);
+        } else {
+            // Replace the minimum; the newcomer inherits its count as error.
+            index.remove(ids[0]);
+            errors[0] = counts[0];
+            counts[0]++;
+            ids[0] = id;
+            index.put(id, 0);
+            siftDown(0, true);
+        }
+    }
+
+    /**
+     * Count-Min point estimate: never below the true count.
+     */
+    public long countMinEstimate(long id) {
+        int mask = width - 1;
+        long min = Long.MAX_VALUE;
+        for (int r = 0; r < depth; r++) {
+            min = Math.min(min, cells[r * width + cell(id, SEEDS[r], mask)]);
+        }
+        return min;
+    }
+
+    /**
+     * Additive Count-Min error bound e/w * N, which holds for any one id with
+     * probability 1 - e^-depth.
+     */
+    public long countMinErrorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    /**
+     * Count an id absent from the Space-Saving summary may still have: the
+     * smallest tracked count once the summary is full, otherwise 0.
+     */
+    public long untrackedBound() {
+        return size < capacity ? 0 : counts[0];
+    }
+
+    /**
+     * Tightest upper bound on the id's count from both summaries.
+     */
+    public long upperBound(long id) {
+        int slot = index.get(id);
+        long ss = slot != LongIntHashMap.MISSING ? counts[slot] : untrackedBound();
+        return Math.min(ss, countMinEstimate(id));
+    }
+
+    /**
+     * Guaranteed lower bound on the id's count: Space-Saving count minus error,
+     * 0 if untracked.
+     */
+    public long lowerBound(long id) {
+        int slot = index.get(id);
+        return slot != LongIntHashMap.MISSING ? counts[slot] - errors[slot] : 0;
+    }
+
+    public long id(int i) {
+        return ids[i];
+    }
+
+    public long count(int i) {
+        return counts[i];
+    }
+
+    public long error(int i) {
+        return errors[i];
+    }
+
+    /**
+     * Folds another sketch of the same shape into this one.
+     */
+    public void merge(HeavyHitterSketch other) {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("Count-Min shapes differ: " + depth + "x" + width
+                    + " vs " + other.depth + "x" + other.width);
+        }
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] += other.cells[i];
+        }
+        total += other.total;
+
+        // Ids missing from one side may have up to that side's floor there.
+        long floorThis = untrackedBound();
+        long floorOther = other.untrackedBound();
+        int n = size + other.size;
+        long[] mIds = new long[n];
+        long[] mCounts = new long[n];
+        long[] mErrors = new long[n];
+        LongIntHashMap seen = new LongIntHashMap(n);
+        int m = 0;
+        for (int i = 0; i < size; i++) {
+            mIds[m] = ids[i];
+            mCounts[m] = counts[i] + floorOther;
+            mErrors[m] = errors[i] + floorOther;
+            seen.put(ids[i], m++);
+        }
+        for (int i = 0; i < other.size; i++) {
+            int at = seen.get(other.ids[i]);
+            if (at != LongIntHashMap.MISSING) {
+                mCounts[at] += other.counts[i] - floorOther;
+                mErrors[at] += other.errors[i] - floorOther;
+            } else {
+                mIds[m] = other.ids[i];
+                mCounts[m] = other.counts[i] + floorThis;
+                mErrors[m] = other.errors[i] + floorThis;
+                m++;
+            }
+        }
+
+        // Keep the capacity largest, rebuilding the heap as a bounded min-heap.
+        // Entries move without touching the index, which is rebuilt once at
+        // the end; otherwise stale and evicted ids would pile up in it.
+        size = 0;
+        for (int i = 0; i < m; i++) {
+            if (size < capacity) {
+                ids[size] = mIds[i];
+                counts[size] = mCounts[i];
+                errors[size] = mErrors[i];
+                siftUp(size++, false);
+            } else if (mCounts[i] > counts[0]) {
+                ids[0] = mIds[i];
+                counts[0] = mCounts[i];
+                errors[0] = mErrors[i];
+                siftDown(0, false);
+            }
+        }
+        index.clear();
+        for (int i = 0; i < size; i++) {
+            index.put(ids[i], i);
+        }
+    }
+
+    /**
+     * Heap footprint of the counters and entry tables in bytes.
+     */
+    public long sizeInBytes() {
+        return (long) cells.length * 8 + (long) capacity * 24 + index.sizeInBytes();
+    }
+
+    /**
+     * Restores the heap above slot i; with reindex, the index follows the
+     * moved entries.
+     */
+    private void siftUp(int i, boolean reindex) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (counts[i] >= counts[parent]) {
+                break;
+            }
+            swap(i, parent, reindex);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, boolean reindex) {
+        while (true) {
+            int least = i;
+            int l = 2 * i + 1;
+            int r = l + 1;
+            if (l < size && counts[l] < counts[least]) {
+                least = l;
+            }
+            if (r < size && counts[r] < counts[least]) {
+                least = r;
+            }
+            if (least == i) {
+                return;
+            }
+            swap(i, least, reindex);
+            i = least;
+        }
+    }
+
+    private void swap(int a, int b, boolean reindex) {
+        long t = ids[a];
+        ids[a] = ids[b];
+        ids[b] = t;
+        t = counts[a];
+        counts[a] = counts[b];
+        counts[b] = t;
+        t = errors[a];
+        errors[a] = errors[b];
+        errors[b] = t;
+        if (reindex) {
+            index.put(ids[a], a);
+            index.put(ids[b], b);
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(depth);
+        out.writeInt(width);
+        out.writeInt(capacity);
+        out.writeLong(total);
+        for (long c : cells) {
+            out.writeLong(c);
+        }
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(ids[i]);
+            out.writeLong(counts[i]);
+            out.writeLong(errors[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int d = in.readByte();
+        int w = in.readInt();
+        int m = in.readInt();
+        reset(d, w, m);
+        total = in.readLong();
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = in.readLong();
+        }
+        size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            ids[i] = in.readLong();
+            counts[i] = in.readLong();
+            errors[i] = in.readLong();
+            index.put(ids[i], i);
+        }
+    }
+}
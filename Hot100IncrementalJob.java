@@ -0,0 +1,579 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Incremental Hot100 processing: folds newly arrived weekly chart files into
+ * per-song chart state instead of re-cleaning the whole history.
+ *
+ * Usage:
+ *   Hot100IncrementalJob update &lt;state dir&gt; &lt;chart files, dir or glob&gt;
+ *   Hot100IncrementalJob dump &lt;state dir&gt;
+ *   Hot100IncrementalJob compact &lt;state dir&gt;
+ *
+ * The state directory holds generations gen-00001, gen-00002, ..., each a
+ * MapFile from "song,artist" (the cleaned CSV fields) to a
+ * {@link ChartStateWritable}, plus a _MANIFEST listing the chart files it
+ * took in and the latest chart date. A generation is only live once its
+ * manifest exists, so a failed run leaves nothing half-applied. Reading the
+ * state never deletes anything; update and compact remove directories older
+ * than the newest base generation before they start.
+ *
+ * update skips input files already listed in a live manifest and runs one
+ * job over the rest: the mapper cleans rows with {@link hot100Mapper#clean},
+ * and a single reducer looks each charting song up in the live generations
+ * (newest first, by MapFile index) and writes only the songs whose state
+ * changed. A week's generation therefore holds at most the chart's 100
+ * songs, and its cost does not grow with the history. Songs that drop off
+ * the chart are not rewritten; their streak reads as zero against the newer
+ * latest chart date.
+ *
+ * Lookups open one reader per generation, so once there are more than
+ * {@link #MAX_GENERATIONS} update merges them all into one base generation
+ * (a sequential merge of the sorted files) and deletes the older ones.
+ * Chart weeks dated on or before a song's last recorded week are ignored,
+ * so re-submitting a file is harmless; backfilling older weeks needs a fresh
+ * state directory.
+ */
+public class Hot100IncrementalJob {
+
+    /** Live generations kept before update compacts them (default 8). */
+    public static final String MAX_GENERATIONS = "hot100.state.max.generations";
+
+    /** Set by update for the reducer: live generation dirs, newest first. */
+    static final String GENERATIONS = "hot100.state.generations";
+
+    private static final String COUNTER_GROUP = "HOT100_STATE";
+    private static final String MANIFEST = "_MANIFEST";
+    private static final String GENERATION_PREFIX = "gen-";
+
+    public static class ChartWeekMapper extends Mapper<LongWritable, Text, Text, ChartStateWritable> {
+
+        private final hot100Mapper cleaner = new hot100Mapper();
+        private final Text cleaned = new Text();
+        private final Text outKey = new Text();
+        private final ChartStateWritable outValue = new ChartStateWritable();
+
+        private final CounterRegistry counters = new CounterRegistry();
+        private int chartRows;
+        private int rejected;
+
+        @Override
+        protected void setup(Context context) {
+            chartRows = counters.register(COUNTER_GROUP, "CHART_ROWS");
+            rejected = counters.register(COUNTER_GROUP, "ROWS_REJECTED");
+            counters.bind(context);
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            counters.tick();
+            int result = cleaner.clean(value, cleaned);
+            if (result == hot100Mapper.HEADER) {
+                return;
+            }
+            if (result != hot100Mapper.CLEANED) {
+                counters.increment(rejected);
+                return;
+            }
+
+            // The date is fixed width; song and artist run from byte 11 to
+            // the comma before the rank.
+            byte[] b = cleaned.getBytes();
+            int artistEnd = hot100Mapper.artistEnd(b, cleaned.getLength());
+            int rankEnd = artistEnd + 1;
+            while (b[rankEnd] != ',') {
+                rankEnd++;
+            }
+
+            int day;
+            try {
+                day = ChartStateWritable.epochDay(b, 0);
+            } catch (DateTimeException e) {
+                counters.increment(rejected);
+                return;
+            }
+            outKey.set(b, 11, artistEnd - 11);
+            outValue.set(day, hot100Mapper.parseInt(b, artistEnd + 1, rankEnd));
+            context.write(outKey, outValue);
+            counters.increment(chartRows);
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            counters.flush();
+        }
+    }
+
+    /**
+     * Merges a song's new chart weeks into its stored state. Map values are
+     * single weeks (see {@link ChartStateWritable#set(int, int)}).
+     */
+    public static class StateMergeReducer extends Reducer<Text, ChartStateWritable, Text, ChartStateWritable> {
+
+        private final List<MapFile.Reader[]> previous = new ArrayList<>();
+        private final HashPartitioner<Text, ChartStateWritable> partitioner = new HashPartitioner<>();
+        private final ChartStateWritable state = new ChartStateWritable();
+
+        private int[] days = new int[16];
+        private int[] ranks = new int[16];
+        private int latestDay;
+
+        private final CounterRegistry counters = new CounterRegistry();
+        private int songsNew;
+        private int songsUpdated;
+        private int songsUnchanged;
+        private int weeksStale;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            songsNew = counters.register(COUNTER_GROUP, "SONGS_NEW");
+            songsUpdated = counters.register(COUNTER_GROUP, "SONGS_UPDATED");
+            songsUnchanged = counters.register(COUNTER_GROUP, "SONGS_UNCHANGED");
+            weeksStale = counters.register(COUNTER_GROUP, "WEEKS_ALREADY_COUNTED");
+            counters.bind(context);
+
+            Configuration conf = context.getConfiguration();
+            for (String dir : conf.getTrimmedStrings(GENERATIONS)) {
+                previous.add(MapFileOutputFormat.getReaders(new Path(dir), conf));
+            }
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<ChartStateWritable> values, Context context)
+                throws IOException, InterruptedException {
+            counters.tick();
+            int n = 0;
+            for (ChartStateWritable week : values) {
+                if (n == days.length) {
+                    days = Arrays.copyOf(days, 2 * n);
+                    ranks = Arrays.copyOf(ranks, 2 * n);
+                }
+                days[n] = week.getLastDay();
+                ranks[n] = week.getLastRank();
+                n++;
+            }
+            sortByDay(n);
+            latestDay = Math.max(latestDay, days[n - 1]);
+
+            boolean known = lookup(key);
+            int i = 0;
+            if (!known) {
+                state.set(days[0], ranks[0]);
+                i = 1;
+            }
+            boolean changed = !known;
+            for (; i < n; i++) {
+                if (state.advance(days[i], ranks[i])) {
+                    changed = true;
+                } else {
+                    counters.increment(weeksStale);
+                }
+            }
+
+            if (!changed) {
+                counters.increment(songsUnchanged);
+                return;
+            }
+            counters.increment(known ? songsUpdated : songsNew);
+            context.write(key, state);
+        }
+
+        /**
+         * Loads the newest stored state of the song into {@code state}.
+         */
+        private boolean lookup(Text key) throws IOException {
+            for (MapFile.Reader[] readers : previous) {
+                if (MapFileOutputFormat.getEntry(readers, partitioner, key, state) != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // A song has at most one row per chart file in the batch.
+        private void sortByDay(int n) {
+            for (int i = 1; i < n; i++) {
+                int d = days[i];
+                int r = ranks[i];
+                int j = i - 1;
+                while (j >= 0 && days[j] > d) {
+                    days[j + 1] = days[j];
+                    ranks[j + 1] = ranks[j];
+                    j--;
+                }
+                days[j + 1] = d;
+                ranks[j + 1] = r;
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException {
+            counters.flush();
+            // One reducer, so this is the latest chart date of the batch.
+            context.getCounter(COUNTER_GROUP, "LATEST_CHART_DAY").setValue(latestDay);
+            for (MapFile.Reader[] readers : previous) {
+                for (MapFile.Reader reader : readers) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    public static Job createJob(Configuration conf) throws IOException {
+        Job job = Job.getInstance(conf, "Hot100 Incremental State");
+
+        job.setJarByClass(Hot100IncrementalJob.class);
+        job.setMapperClass(ChartWeekMapper.class);
+        job.setReducerClass(StateMergeReducer.class);
+
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(ChartStateWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(ChartStateWritable.class);
+        job.setOutputFormatClass(MapFileOutputFormat.class);
+
+        // A batch is a few weeks of 100 rows; one sorted file per generation
+        // also keeps lookups to one reader each.
+        job.setNumReduceTasks(1);
+        return job;
+    }
+
+    /**
+     * A live generation and its manifest.
+     */
+    static final class Generation {
+        final Path dir;
+        final int number;
+        int latestDay;
+        boolean base;
+        final List<String> inputs = new ArrayList<>();
+
+        Generation(Path dir, int number) {
+            this.dir = dir;
+            this.number = number;
+        }
+    }
+
+    /**
+     * Every gen-* directory, finished or not, newest first.
+     */
+    private static FileStatus[] generationDirs(FileSystem fs, Path stateDir) throws IOException {
+        if (!fs.exists(stateDir)) {
+            return new FileStatus[0];
+        }
+        FileStatus[] dirs = fs.listStatus(stateDir, p -> p.getName().startsWith(GENERATION_PREFIX));
+        Arrays.sort(dirs, (a, b) -> b.getPath().getName().compareTo(a.getPath().getName()));
+        return dirs;
+    }
+
+    private static int generationNumber(Path dir) {
+        return Integer.parseInt(dir.getName().substring(GENERATION_PREFIX.length()));
+    }
+
+    /**
+     * Live generations, newest first, ending at the newest base generation.
+     * Read-only: directories without a manifest may belong to a job still
+     * running and are skipped, as are generations behind the newest base.
+     */
+    static List<Generation> generations(Configuration conf, Path stateDir) throws IOException {
+        FileSystem fs = stateDir.getFileSystem(conf);
+        List<Generation> live = new ArrayList<>();
+        for (FileStatus dir : generationDirs(fs, stateDir)) {
+            Path manifest = new Path(dir.getPath(), MANIFEST);
+            if (!fs.exists(manifest)) {
+                continue;
+            }
+            Generation g = new Generation(dir.getPath(), generationNumber(dir.getPath()));
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(fs.open(manifest), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    String value = line.substring(tab + 1);
+                    switch (line.substring(0, tab)) {
+                        case "latest":
+                            g.latestDay = Integer.parseInt(value);
+                            break;
+                        case "base":
+                            g.base = Boolean.parseBoolean(value);
+                            break;
+                        case "input":
+                            g.inputs.add(value);
+                            break;
+                        default:
+                            throw new IOException("Bad manifest line in " + manifest + ": " + line);
+                    }
+                }
+            }
+            live.add(g);
+            if (g.base) {
+                break;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Deletes the directories older than the newest base generation: the
+     * generations a compaction replaced and runs that failed before it.
+     * Anything newer may still be written and is left alone.
+     */
+    private static void collectGarbage(Configuration conf, Path stateDir, List<Generation> live)
+            throws IOException {
+        if (live.isEmpty() || !live.get(live.size() - 1).base) {
+            return;
+        }
+        int base = live.get(live.size() - 1).number;
+        FileSystem fs = stateDir.getFileSystem(conf);
+        for (FileStatus dir : generationDirs(fs, stateDir)) {
+            if (generationNumber(dir.getPath()) < base) {
+                fs.delete(dir.getPath(), true);
+            }
+        }
+    }
+
+    /**
+     * Number for a new generation: above every existing directory, so it
+     * never collides with a failed run or one still in progress.
+     */
+    private static int nextGeneration(Configuration conf, Path stateDir) throws IOException {
+        FileStatus[] dirs = generationDirs(stateDir.getFileSystem(conf), stateDir);
+        return dirs.length == 0 ? 1 : generationNumber(dirs[0].getPath()) + 1;
+    }
+
+    /**
+     * Writes the manifest last, which makes the generation live.
+     */
+    private static void writeManifest(FileSystem fs, Path dir, int latestDay, boolean base,
+            Iterable<String> inputs) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                fs.create(new Path(dir, MANIFEST), true), StandardCharsets.UTF_8))) {
+            out.print("latest\t" + latestDay + "\n");
+            out.print("base\t" + base + "\n");
+            for (String input : inputs) {
+                out.print("input\t" + input + "\n");
+            }
+        }
+    }
+
+    private static Path generationDir(Path stateDir, int number) {
+        return new Path(stateDir, String.format("%s%05d", GENERATION_PREFIX, number));
+    }
+
+    /**
+     * Chart files matched by the input path (a file, directory or glob),
+     * hidden files excluded, as qualified paths.
+     */
+    private static List<Path> chartFiles(Configuration conf, Path input) throws IOException {
+        FileSystem fs = input.getFileSystem(conf);
+        List<Path> files = new ArrayList<>();
+        FileStatus[] matches = fs.globStatus(input);
+        if (matches == null) {
+            return files;
+        }
+        for (FileStatus match : matches) {
+            FileStatus[] candidates = match.isDirectory() ? fs.listStatus(match.getPath()) : new FileStatus[] {match};
+            for (FileStatus f : candidates) {
+                String name = f.getPath().getName();
+                if (f.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                    files.add(fs.makeQualified(f.getPath()));
+                }
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    static int update(Configuration conf, Path stateDir, Path input) throws Exception {
+        List<Generation> live = generations(conf, stateDir);
+        collectGarbage(conf, stateDir, live);
+        Set<String> processed = new LinkedHashSet<>();
+        for (Generation g : live) {
+            processed.addAll(g.inputs);
+        }
+        List<String> fresh = new ArrayList<>();
+        for (Path file : chartFiles(conf, input)) {
+            if (!processed.contains(file.toString())) {
+                fresh.add(file.toString());
+            }
+        }
+        if (fresh.isEmpty()) {
+            System.out.println("No new chart files in " + input);
+            return 0;
+        }
+
+        List<String> dirs = new ArrayList<>();
+        for (Generation g : live) {
+            dirs.add(g.dir.toString());
+        }
+        conf.setStrings(GENERATIONS, dirs.toArray(new String[0]));
+        Job job = createJob(conf);
+        for (String file : fresh) {
+            FileInputFormat.addInputPath(job, new Path(file));
+        }
+        Path out = generationDir(stateDir, nextGeneration(conf, stateDir));
+        FileOutputFormat.setOutputPath(job, out);
+        if (!job.waitForCompletion(true)) {
+            return 1;
+        }
+
+        int latest = (int) job.getCounters().findCounter(COUNTER_GROUP, "LATEST_CHART_DAY").getValue();
+        if (!live.isEmpty()) {
+            latest = Math.max(latest, live.get(0).latestDay);
+        }
+        writeManifest(out.getFileSystem(conf), out, latest, live.isEmpty(), fresh);
+        System.out.println(fresh.size() + " new chart files into " + out.getName()
+                + "; latest chart " + ChartStateWritable.date(latest));
+
+        if (live.size() + 1 > conf.getInt(MAX_GENERATIONS, 8)) {
+            compact(conf, stateDir);
+        }
+        return 0;
+    }
+
+    private interface StateVisitor {
+        void visit(Text key, ChartStateWritable state) throws IOException;
+    }
+
+    /**
+     * Visits every song once, in key order, with its newest state.
+     */
+    private static void merge(Configuration conf, List<Generation> live, StateVisitor visitor) throws IOException {
+        List<MapFile.Reader> readers = new ArrayList<>();
+        // Newest first, so on equal keys the lowest index wins.
+        for (Generation g : live) {
+            readers.addAll(Arrays.asList(MapFileOutputFormat.getReaders(g.dir, conf)));
+        }
+        int n = readers.size();
+        Text[] keys = new Text[n];
+        ChartStateWritable[] states = new ChartStateWritable[n];
+        boolean[] more = new boolean[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                keys[i] = new Text();
+                states[i] = new ChartStateWritable();
+                more[i] = readers.get(i).next(keys[i], states[i]);
+            }
+            while (true) {
+                int min = -1;
+                for (int i = 0; i < n; i++) {
+                    if (more[i] && (min < 0 || keys[i].compareTo(keys[min]) < 0)) {
+                        min = i;
+                    }
+                }
+                if (min < 0) {
+                    break;
+                }
+                visitor.visit(keys[min], states[min]);
+                for (int i = n - 1; i >= min; i--) {
+                    if (more[i] && (i == min || keys[i].equals(keys[min]))) {
+                        more[i] = readers.get(i).next(keys[i], states[i]);
+                    }
+                }
+            }
+        } finally {
+            for (MapFile.Reader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Merges all live generations into one base generation.
+     */
+    static void compact(Configuration conf, Path stateDir) throws IOException {
+        List<Generation> live = generations(conf, stateDir);
+        collectGarbage(conf, stateDir, live);
+        if (live.size() < 2) {
+            return;
+        }
+        Path out = generationDir(stateDir, nextGeneration(conf, stateDir));
+        FileSystem fs = out.getFileSystem(conf);
+        long[] songs = new long[1];
+        try (MapFile.Writer writer = new MapFile.Writer(conf, new Path(out, "part-r-00000"),
+                MapFile.Writer.keyClass(Text.class), MapFile.Writer.valueClass(ChartStateWritable.class))) {
+            merge(conf, live, (key, state) -> {
+                writer.append(key, state);
+                songs[0]++;
+            });
+        }
+        Set<String> inputs = new LinkedHashSet<>();
+        for (int i = live.size() - 1; i >= 0; i--) {
+            inputs.addAll(live.get(i).inputs);
+        }
+        writeManifest(fs, out, live.get(0).latestDay, true, inputs);
+        for (Generation g : live) {
+            fs.delete(g.dir, true);
+        }
+        System.out.println("Compacted " + live.size() + " generations into " + out.getName()
+                + " (" + songs[0] + " songs)");
+    }
+
+    /**
+     * Prints the current state of every song as CSV.
+     */
+    static void dump(Configuration conf, Path stateDir, PrintStream out) throws IOException {
+        List<Generation> live = generations(conf, stateDir);
+        int latest = live.isEmpty() ? 0 : live.get(0).latestDay;
+        out.println("Song,Artist,First Chart,Last Chart,Peak Position,Weeks on Chart,Current Streak");
+        StringBuilder sb = new StringBuilder();
+        merge(conf, live, (key, state) -> {
+            sb.setLength(0);
+            sb.append(key).append(',')
+              .append(ChartStateWritable.date(state.getFirstDay())).append(',')
+              .append(ChartStateWritable.date(state.getLastDay())).append(',')
+              .append(state.getPeak()).append(',')
+              .append(state.getWeeks()).append(',')
+              .append(state.currentStreak(latest));
+            out.println(sb);
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        String command = args.length > 0 ? args[0] : "";
+        if (command.equals("update") && args.length == 3) {
+            System.exit(update(conf, new Path(args[1]), new Path(args[2])));
+        } else if (command.equals("dump") && args.length == 2) {
+            dump(conf, new Path(args[1]), System.out);
+            System.exit(0);
+        } else if (command.equals("compact") && args.length == 2) {
+            compact(conf, new Path(args[1]));
+            System.exit(0);
+        }
+        System.err.println("Usage: Hot100IncrementalJob [-D " + MAX_GENERATIONS + "=8]"
+                + " update <state dir> <chart files, dir or glob>");
+        System.err.println("       Hot100IncrementalJob dump <state dir>");
+        System.err.println("       Hot100IncrementalJob compact <state dir>");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing multimap from byte-string keys to byte-string values,
+ * used to hold a broadcast dimension table of a map-side join.
+ *
+ * Keys and values are copied into one growing byte arena and entries are
+ * described by parallel int arrays, so a table of a million rows costs a
+ * handful of arrays rather than millions of Strings and boxed entries.
+ * Lookups take the probe key as bytes and allocate nothing.
+ *
+ * A key may map to several values; they are chained in insertion order, so a
+ * left join emits matches in the dimension file's order, as pandas does.
+ */
+public final class JoinTable {
+
+    private byte[] arena = new byte[64 * 1024];
+    private int arenaLength;
+
+    // Per entry: key at [keyStart, keyStart + keyLength), value right after it.
+    private int[] keyStart;
+    private int[] keyLength;
+    private int[] valueLength;
+    private int[] hashes;
+    private int[] next;
+    private int[] tail;
+    private int entries;
+
+    // Slots hold the entry index + 1 of each distinct key's first value; 0 is empty.
+    private int[] slots;
+    private int mask;
+    private int distinctKeys;
+
+    public JoinTable(int expectedEntries) {
+        int n = Math.max(16, expectedEntries);
+        keyStart = new int[n];
+        keyLength = new int[n];
+        valueLength = new int[n];
+        hashes = new int[n];
+        next = new int[n];
+        tail = new int[n];
+        int cap = Integer.highestOneBit(Math.max(8, n * 2 - 1)) << 1;
+        slots = new int[cap];
+        mask = cap - 1;
+    }
+
+    static int hash(byte[] b, int off, int len) {
+        int h = 0x811c9dc5;
+        for (int i = off; i < off + len; i++) {
+            h = (h ^ b[i]) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    public int size() {
+        return entries;
+    }
+
+    public int distinctKeys() {
+        return distinctKeys;
+    }
+
+    /**
+     * Adds (key, value). With dedupe, a value equal to one the key already
+     * has is dropped and false is returned.
+     */
+    public boolean add(byte[] key, int keyOff, int keyLen,
+                       byte[] value, int valueOff, int valueLen, boolean dedupe) {
+        int h = hash(key, keyOff, keyLen);
+        int i = h & mask;
+        int head = -1;
+        while (slots[i] != 0) {
+            int e = slots[i] - 1;
+            if (hashes[e] == h && keyEquals(e, key, keyOff, keyLen)) {
+                head = e;
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        if (head >= 0 && dedupe) {
+            for (int e = head; e >= 0; e = next[e]) {
+                if (Arrays.equals(arena, valueStart(e), valueStart(e) + valueLength[e],
+                        value, valueOff, valueOff + valueLen)) {
+                    return false;
+                }
+            }
+        }
+
+        int e = newEntry(h, key, keyOff, keyLen, value, valueOff, valueLen);
+        if (head >= 0) {
+            next[tail[head]] = e;
+            tail[head] = e;
+        } else {
+            slots[i] = e + 1;
+            tail[e] = e;
+            if (++distinctKeys * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+        }
+        return true;
+    }
+
+    private int newEntry(int h, byte[] key, int keyOff, int keyLen,
+                         byte[] value, int valueOff, int valueLen) {
+        if (entries == keyStart.length) {
+            int n = entries * 2;
+            keyStart = Arrays.copyOf(keyStart, n);
+            keyLength = Arrays.copyOf(keyLength, n);
+            valueLength = Arrays.copyOf(valueLength, n);
+            hashes = Arrays.copyOf(hashes, n);
+            next = Arrays.copyOf(next, n);
+            tail = Arrays.copyOf(tail, n);
+        }
+        int need = arenaLength + keyLen + valueLen;
+        if (need < 0) {
+            throw new IllegalStateException("Join table exceeds 2 GB");
+        }
+        if (need > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(need, (int) Math.min(Integer.MAX_VALUE - 8, arena.length * 2L)));
+        }
+        int e = entries++;
+        keyStart[e] = arenaLength;
+        keyLength[e] = keyLen;
+        valueLength[e] = valueLen;
+        hashes[e] = h;
+        next[e] = -1;
+        System.arraycopy(key, keyOff, arena, arenaLength, keyLen);
+        System.arraycopy(value, valueOff, arena, arenaLength + keyLen, valueLen);
+        arenaLength = need;
+        return e;
+    }
+
+    private boolean keyEquals(int e, byte[] key, int off, int len) {
+        return keyLength[e] == len
+                && Arrays.equals(arena, keyStart[e], keyStart[e] + len, key, off, off + len);
+    }
+
+    private void rehash(int cap) {
+        int[] old = slots;
+        slots = new int[cap];
+        mask = cap - 1;
+        for (int s : old) {
+            if (s != 0) {
+                int i = hashes[s - 1] & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = s;
+            }
+        }
+    }
+
+    /**
+     * First entry for the key, or -1. Further values follow via {@link #next}.
+     */
+    public int find(byte[] key, int off, int len) {
+        int h = hash(key, off, len);
+        int i = h & mask;
+        while (slots[i] != 0) {
+            int e = slots[i] - 1;
+            if (hashes[e] == h && keyEquals(e, key, off, len)) {
+                return e;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** Next value of the same key, or -1. */
+    public int next(int entry) {
+        return next[entry];
+    }
+
+    public byte[] arena() {
+        return arena;
+    }
+
+    public int valueStart(int entry) {
+        return keyStart[entry] + keyLength[entry];
+    }
+
+    public int valueLength(int entry) {
+        return valueLength[entry];
+    }
+
+    /**
+     * Heap footprint of the arena, entry arrays and slots in bytes.
+     */
+    public long sizeInBytes() {
+        return arena.length + (long) keyStart.length * 6 * 4 + (long) slots.length * 4;
+    }
+}
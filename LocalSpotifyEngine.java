@@ -0,0 +1,552 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Runs the Spotify cleaning and feature rollups inside one JVM, for inputs
+ * small enough that starting a MapReduce job costs more than the work.
+ *
+ * <pre>
+ *   LocalSpotifyEngine [-D ...] clean    &lt;raw.csv&gt; &lt;out dir&gt;
+ *   LocalSpotifyEngine [-D ...] rollup   &lt;cleaned.csv&gt; &lt;out dir&gt;
+ *   LocalSpotifyEngine [-D ...] pipeline &lt;raw.csv&gt; &lt;out dir&gt;
+ * </pre>
+ *
+ * The input is memory-mapped and cut at line boundaries into segments of
+ * about {@link #SEGMENT_BYTES}, each cleaned/parsed by a fork-join task with
+ * its own scanner, rule table and unbound {@link CounterRegistry}. The same
+ * -D options as the jobs apply (spotify.clean.*, audiofeatures.groupings and
+ * audiofeatures.distribution.*).
+ *
+ * Output files are named and formatted like the jobs' (part-m-00000,
+ * part-r-00000 or &lt;grouping&gt;-r-00000) and have the same content as a
+ * single-split run: cleaned rows keep input order, and every bucket sums its
+ * tracks in input order, as FeaturesMapper does with in-mapper aggregation.
+ * For that reason tasks hand back their parsed tracks rather than partial
+ * sums, and the merge folds them in segment order; adding per-task partial
+ * sums would change the floating-point rounding of the averages. With
+ * distributions enabled, each slot merges the tracks' moments and digests
+ * in the same order, matching an in-mapper single-split run. pipeline
+ * writes cleaned/ and rollup/ under the output directory in one pass.
+ *
+ * Started with {@code --add-modules jdk.incubator.vector}, the fold adds
+ * each track's features with SIMD {@link FeatureKernels}; the sums are the
+ * same either way.
+ */
+public class LocalSpotifyEngine {
+
+    /** Worker threads; defaults to the number of cores. */
+    public static final String THREADS = "local.threads";
+
+    /** Target input bytes per fork-join task. */
+    public static final String SEGMENT_BYTES = "local.segment.bytes";
+    public static final long DEFAULT_SEGMENT_BYTES = 8L * 1024 * 1024;
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private final Configuration conf;
+    private final ForkJoinPool pool;
+    private final CounterRegistry counters = new CounterRegistry();
+
+    public LocalSpotifyEngine(Configuration conf) {
+        this.conf = conf;
+        int threads = conf.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+    }
+
+    /**
+     * Totals of every task's counters, with the jobs' group and counter names.
+     */
+    public CounterRegistry getCounters() {
+        return counters;
+    }
+
+    /**
+     * Cleans a raw CSV into outDir/part-m-00000.
+     */
+    public void clean(Path input, Path outDir) throws IOException {
+        run(input, outDir, null, true, false);
+    }
+
+    /**
+     * Rolls a cleaned CSV up into outDir, one file per grouping.
+     */
+    public void rollup(Path input, Path outDir) throws IOException {
+        run(input, null, outDir, false, true);
+    }
+
+    /**
+     * Cleans into outDir/cleaned and rolls the cleaned rows up into
+     * outDir/rollup without writing and re-reading the CSV in between.
+     */
+    public void pipeline(Path input, Path outDir) throws IOException {
+        run(input, outDir.resolve("cleaned"), outDir.resolve("rollup"), true, true);
+    }
+
+    private void run(Path input, Path cleanDir, Path rollupDir, boolean clean, boolean rollup)
+            throws IOException {
+        FeatureGrouping[] groupings = AudioFeatureRollup.getGroupings(conf).toArray(new FeatureGrouping[0]);
+
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            List<Segment> segments = split(channel, clean, rollup, groupings);
+            // Finished segments wait in memory until merged in order, so only
+            // a few per worker run ahead of the merge.
+            int window = 4 * pool.getParallelism();
+            for (int i = 0; i < Math.min(window, segments.size()); i++) {
+                pool.execute(segments.get(i));
+            }
+
+            Rollup totals = rollup ? new Rollup(conf, groupings) : null;
+            OutputStream cleaned = null;
+            if (clean) {
+                Files.createDirectories(cleanDir);
+                cleaned = new BufferedOutputStream(
+                        Files.newOutputStream(cleanDir.resolve("part-m-00000")), 1 << 16);
+                if (conf.getBoolean(SpotifyCleanMapper.OUTPUT_HEADER, true)) {
+                    cleaned.write(SpotifyCleanMapper.HEADER_LINE);
+                    cleaned.write('\n');
+                }
+            }
+            try {
+                // Merge in input order as the segments finish.
+                for (int i = 0; i < segments.size(); i++) {
+                    if (i + window < segments.size()) {
+                        pool.execute(segments.get(i + window));
+                    }
+                    Segment s = segments.get(i);
+                    s.join();
+                    mergeCounters(s.counters);
+                    if (cleaned != null) {
+                        cleaned.write(s.cleaned.bytes(), 0, s.cleaned.length());
+                    }
+                    if (totals != null) {
+                        totals.fold(s.tracks);
+                    }
+                    s.release();
+                }
+            } finally {
+                if (cleaned != null) {
+                    cleaned.close();
+                }
+            }
+
+            if (totals != null) {
+                totals.write(rollupDir);
+            }
+        }
+    }
+
+    private void mergeCounters(CounterRegistry task) {
+        for (int slot = 0; slot < task.size(); slot++) {
+            counters.add(counters.register(task.group(slot), task.name(slot)), task.get(slot));
+        }
+    }
+
+    /**
+     * Cuts the file into segments that start right after a line end, so
+     * every line belongs to exactly one segment.
+     */
+    private List<Segment> split(FileChannel channel, boolean clean, boolean rollup,
+            FeatureGrouping[] groupings) throws IOException {
+        long size = channel.size();
+        long target = Math.max(1L << 16, conf.getLong(SEGMENT_BYTES, DEFAULT_SEGMENT_BYTES));
+        // A mapping is limited to 2 GB; keep well below it.
+        target = Math.min(target, 1L << 30);
+
+        long start = startsWith(channel, UTF8_BOM) ? UTF8_BOM.length : 0;
+        List<Segment> segments = new ArrayList<>();
+        while (start < size) {
+            long end = start + target >= size ? size : nextLineStart(channel, start + target);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            segments.add(new Segment(map, segments.isEmpty(), clean, rollup, groupings));
+            start = end;
+        }
+        return segments;
+    }
+
+    private static boolean startsWith(FileChannel channel, byte[] prefix) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(prefix.length);
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) > 0) {
+            // keep reading until the prefix is filled or the file ends
+        }
+        return !buf.hasRemaining() && Arrays.equals(buf.array(), prefix);
+    }
+
+    private static long nextLineStart(FileChannel channel, long from) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long pos = from - 1;
+        while (true) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = buf.get(i);
+                if (b == '\n') {
+                    return pos + i + 1;
+                }
+                if (b == '\r') {
+                    // A "\r\n" pair is one line end; never cut between them.
+                    long after = pos + i + 1;
+                    ByteBuffer one = ByteBuffer.allocate(1);
+                    if (channel.read(one, after) == 1 && one.get(0) == '\n') {
+                        after++;
+                    }
+                    return after;
+                }
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Growable byte sink for one segment's cleaned lines.
+     */
+    static final class ByteSink {
+        private byte[] buf = new byte[1 << 16];
+        private int len;
+
+        void write(byte[] src, int off, int n) {
+            if (len + n + 1 > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n + 1));
+            }
+            System.arraycopy(src, off, buf, len, n);
+            len += n;
+            buf[len++] = '\n';
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        int length() {
+            return len;
+        }
+    }
+
+    /**
+     * Parsed tracks of one segment, in input order: the grouping slots and
+     * the nine features of every track that has a bucket somewhere.
+     */
+    static final class Tracks {
+        final int numGroupings;
+        int[] slots;
+        double[] features;
+        int size;
+
+        Tracks(int numGroupings) {
+            this.numGroupings = numGroupings;
+            slots = new int[256 * numGroupings];
+            features = new double[256 * FeatureSumsWritable.NUM_FEATURES];
+        }
+
+        void add(int[] trackSlots, FeatureSumsWritable track) {
+            if ((size + 1) * numGroupings > slots.length) {
+                slots = Arrays.copyOf(slots, slots.length * 2);
+                features = Arrays.copyOf(features, features.length * 2);
+            }
+            System.arraycopy(trackSlots, 0, slots, size * numGroupings, numGroupings);
+            int base = size * FeatureSumsWritable.NUM_FEATURES;
+            for (int i = 0; i < FeatureSumsWritable.NUM_FEATURES; i++) {
+                features[base + i] = track.getSum(i);
+            }
+            size++;
+        }
+    }
+
+    /**
+     * Dense per-slot sums for every grouping, folded segment by segment. In
+     * distribution mode each slot is a FeatureDistributionWritable instead,
+     * merged one track at a time as FeaturesMapper does in in-mapper mode.
+     */
+    static final class Rollup {
+        private final Configuration conf;
+        private final FeatureGrouping[] groupings;
+        private final double[][] sums;
+        private final long[][] counts;
+        private final FeatureDistributionWritable[][] partials;
+        private final FeatureDistributionWritable track;
+
+        Rollup(Configuration conf, FeatureGrouping[] groupings) {
+            this.conf = conf;
+            this.groupings = groupings;
+            sums = new double[groupings.length][];
+            counts = new long[groupings.length][];
+            for (int g = 0; g < groupings.length; g++) {
+                sums[g] = new double[groupings[g].numSlots() * FeatureSumsWritable.NUM_FEATURES];
+                counts[g] = new long[groupings[g].numSlots()];
+            }
+            if (conf.getBoolean(AudioFeatureRollup.DISTRIBUTION, false)) {
+                partials = new FeatureDistributionWritable[groupings.length][];
+                for (int g = 0; g < groupings.length; g++) {
+                    partials[g] = new FeatureDistributionWritable[groupings[g].numSlots()];
+                }
+                track = (FeatureDistributionWritable) AudioFeatureRollup.newPartial(conf);
+            } else {
+                partials = null;
+                track = null;
+            }
+        }
+
+        void fold(Tracks tracks) {
+            int n = FeatureSumsWritable.NUM_FEATURES;
+            if (partials != null) {
+                foldDistributions(tracks);
+                return;
+            }
+            for (int t = 0; t < tracks.size; t++) {
+                for (int g = 0; g < groupings.length; g++) {
+                    int slot = tracks.slots[t * groupings.length + g];
+                    if (slot < 0) {
+                        continue;
+                    }
+                    FeatureKernels.add(sums[g], slot * n, tracks.features, t * n, n);
+                    counts[g][slot]++;
+                }
+            }
+        }
+
+        private void foldDistributions(Tracks tracks) {
+            double[] f = tracks.features;
+            for (int t = 0; t < tracks.size; t++) {
+                int b = t * FeatureSumsWritable.NUM_FEATURES;
+                track.set(f[b], f[b + 1], f[b + 2], f[b + 3], f[b + 4], f[b + 5], f[b + 6], f[b + 7], f[b + 8]);
+                for (int g = 0; g < groupings.length; g++) {
+                    int slot = tracks.slots[t * groupings.length + g];
+                    if (slot < 0) {
+                        continue;
+                    }
+                    if (partials[g][slot] == null) {
+                        partials[g][slot] = (FeatureDistributionWritable) AudioFeatureRollup.newPartial(conf);
+                    }
+                    partials[g][slot].merge(track);
+                    counts[g][slot]++;
+                }
+            }
+        }
+
+        /**
+         * Writes what FeaturesReducer writes: part-r-00000 with a header for
+         * one grouping, otherwise one &lt;grouping&gt;-r-00000 file each.
+         */
+        void write(Path outDir) throws IOException {
+            Files.createDirectories(outDir);
+            FeatureSumsWritable totals = AudioFeatureRollup.newPartial(conf);
+            int[] features = partials != null ? AudioFeatureRollup.getDistributionFeatures(conf) : null;
+            double[] quantiles = partials != null ? AudioFeatureRollup.getDistributionQuantiles(conf) : null;
+            for (int g = 0; g < groupings.length; g++) {
+                String header = partials != null
+                        ? AudioFeatureRollup.distributionHeader(groupings[g], features, quantiles)
+                        : groupings[g].header();
+                String file = groupings.length == 1 ? "part-r-00000" : groupings[g].outputName() + "-r-00000";
+                StringBuilder out = new StringBuilder();
+                boolean any = false;
+                if (groupings.length == 1) {
+                    // A single rollup gets its header from the reducer's setup().
+                    out.append(header).append('\n');
+                    any = true;
+                }
+                for (int slot = 0; slot < groupings[g].numSlots(); slot++) {
+                    if (counts[g][slot] == 0) {
+                        continue;
+                    }
+                    if (!any) {
+                        out.append(header).append('\n');
+                        any = true;
+                    }
+                    totals.clear();
+                    if (partials != null) {
+                        totals.merge(partials[g][slot]);
+                        out.append(AudioFeatureRollup.formatDistributionRow(groupings[g], slot,
+                                (FeatureDistributionWritable) totals, features, quantiles));
+                    } else {
+                        totals.load(sums[g], slot * FeatureSumsWritable.NUM_FEATURES, counts[g][slot]);
+                        out.append(AudioFeatureRollup.formatRow(groupings[g], slot, totals));
+                    }
+                    out.append('\n');
+                }
+                // Like LazyOutputFormat, groupings without rows get no file.
+                if (any) {
+                    Files.write(outDir.resolve(file), out.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    /**
+     * One fork-join task: the lines of one mapped segment.
+     */
+    final class Segment extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private MappedByteBuffer map;
+        private final boolean first;
+        private final boolean clean;
+        private final boolean rollup;
+        private final FeatureGrouping[] groupings;
+
+        final CounterRegistry counters = new CounterRegistry();
+        ByteSink cleaned;
+        Tracks tracks;
+
+        Segment(MappedByteBuffer map, boolean first, boolean clean, boolean rollup,
+                FeatureGrouping[] groupings) {
+            this.map = map;
+            this.first = first;
+            this.clean = clean;
+            this.rollup = rollup;
+            this.groupings = groupings;
+        }
+
+        @Override
+        protected void compute() {
+            SpotifyCleanMapper.Cleaner cleaner = clean ? new SpotifyCleanMapper.Cleaner(conf, counters) : null;
+            if (cleaner != null) {
+                cleaned = new ByteSink();
+            }
+            int tracksMapped = -1;
+            CsvFieldScanner scanner = null;
+            FeatureSumsWritable track = null;
+            int[] dims = null;
+            int[] trackSlots = null;
+            // The rollup mapper only treats the first non-blank line as a header.
+            boolean headerSkipped = !first || clean;
+            if (rollup) {
+                tracksMapped = counters.register("FEATURES", "TRACKS_MAPPED");
+                tracks = new Tracks(groupings.length);
+                scanner = new CsvFieldScanner();
+                track = new FeatureSumsWritable();
+                dims = new int[5];
+                trackSlots = new int[groupings.length];
+            }
+
+            byte[] line = new byte[1 << 12];
+            int size = map.limit();
+            int pos = 0;
+            while (pos < size) {
+                // Lines end at "\n", "\r\n" or a lone "\r", as in LineReader.
+                int end = pos;
+                byte c = 0;
+                while (end < size && (c = map.get(end)) != '\n' && c != '\r') {
+                    end++;
+                }
+                int next = end + 1;
+                if (c == '\r' && next < size && map.get(next) == '\n') {
+                    next++;
+                }
+                int len = end - pos;
+                if (len > line.length) {
+                    line = new byte[Math.max(len, line.length * 2)];
+                }
+                map.get(pos, line, 0, len);
+                pos = next;
+
+                byte[] rowBytes = line;
+                int rowLen = len;
+                if (cleaner != null) {
+                    if (cleaner.clean(line, 0, len) != SpotifyCleanMapper.CLEANED) {
+                        continue;
+                    }
+                    CsvRowWriter row = cleaner.row();
+                    cleaned.write(row.bytes(), 0, row.length());
+                    rowBytes = row.bytes();
+                    rowLen = row.length();
+                }
+                if (!rollup) {
+                    continue;
+                }
+
+                scanner.scan(rowBytes, 0, rowLen);
+                if (scanner.isBlankLine()) {
+                    continue;
+                }
+                if (!headerSkipped) {
+                    headerSkipped = true;
+                    if (scanner.lineStartsWithIgnoreCase("valence")) {
+                        continue;
+                    }
+                }
+                if (!AudioFeatureRollup.readTrack(scanner, track, dims)) {
+                    continue;
+                }
+                counters.increment(tracksMapped);
+                for (int g = 0; g < groupings.length; g++) {
+                    trackSlots[g] = groupings[g].slot(dims[0], dims[1], dims[2], dims[3], dims[4]);
+                }
+                tracks.add(trackSlots, track);
+            }
+        }
+
+        void release() {
+            map = null;
+            cleaned = null;
+            tracks = null;
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: LocalSpotifyEngine [-D " + THREADS + "=N] [-D " + SEGMENT_BYTES
+                + "=bytes] [-D " + AudioFeatureRollup.GROUPINGS + "=year,decade,...]"
+                + " <clean|rollup|pipeline> <input file> <output dir>");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length != 3) {
+            usage();
+            System.exit(1);
+        }
+        Path input = Paths.get(args[1]);
+        Path output = Paths.get(args[2]);
+        if (Files.exists(output)) {
+            System.err.println("Output directory " + output + " already exists");
+            System.exit(1);
+        }
+
+        LocalSpotifyEngine engine = new LocalSpotifyEngine(conf);
+        long t0 = System.nanoTime();
+        switch (args[0]) {
+            case "clean":
+                engine.clean(input, output);
+                break;
+            case "rollup":
+                engine.rollup(input, output);
+                break;
+            case "pipeline":
+                engine.pipeline(input, output);
+                break;
+            default:
+                usage();
+                System.exit(1);
+        }
+        long millis = (System.nanoTime() - t0) / 1_000_000;
+
+        CounterRegistry counters = engine.getCounters();
+        for (int slot = 0; slot < counters.size(); slot++) {
+            if (counters.get(slot) != 0) {
+                System.err.println(counters.group(slot) + "/" + counters.name(slot) + "=" + counters.get(slot));
+            }
+        }
+        System.err.println("Done in " + millis + " ms");
+        engine.pool.shutdown();
+    }
+}
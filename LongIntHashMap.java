@@ -0,0 +1,152 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from long keys to int values, without boxing.
+ *
+ * Linear probing over power-of-two tables, resized at 50% load. Removal
+ * uses backward-shift deletion, so there are no tombstones and lookups
+ * never degrade after heavy churn (Space-Saving evicts constantly).
+ */
+public final class LongIntHashMap {
+
+    /** Returned by {@link #get} for absent keys. */
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public LongIntHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new long[cap];
+        values = new int[cap];
+        used = new boolean[cap];
+        mask = cap - 1;
+    }
+
+    static int slot(long key, int mask) {
+        // splitmix64 finaliser; ids are often sequential.
+        long h = key;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return (int) h & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(long key) {
+        int i = slot(key, mask);
+        while (used[i]) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != MISSING;
+    }
+
+    public void put(long key, int value) {
+        int i = slot(key, mask);
+        while (used[i]) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    /**
+     * Adds delta to the key's value, starting from 0 if absent.
+     */
+    public void addTo(long key, int delta) {
+        int i = slot(key, mask);
+        while (used[i]) {
+            if (keys[i] == key) {
+                values[i] += delta;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        put(key, delta);
+    }
+
+    public void remove(long key) {
+        int i = slot(key, mask);
+        while (used[i]) {
+            if (keys[i] == key) {
+                deleteAt(i);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void deleteAt(int hole) {
+        size--;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (!used[i]) {
+                break;
+            }
+            // Shift back entries whose home slot is not in (hole, i].
+            int home = slot(keys[i], mask);
+            boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        used[hole] = false;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * Approximate heap footprint of the tables in bytes.
+     */
+    public long sizeInBytes() {
+        return (long) keys.length * (8 + 4 + 1);
+    }
+
+    private void resize(int cap) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[cap];
+        values = new int[cap];
+        used = new boolean[cap];
+        mask = cap - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldUsed[j]) {
+                int i = slot(oldKeys[j], mask);
+                while (used[i]) {
+                    i = (i + 1) & mask;
+                }
+                used[i] = true;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
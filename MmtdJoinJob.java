@@ -0,0 +1,949 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * Java replacement for merge_mmtd.py: left-joins the tweets with the
+ * Spotify, Hot100 and top-artists tables on normalized artist and track
+ * names, without holding the tweets in memory.
+ *
+ * Each dimension is a CSV file (or a directory of part files) with a header.
+ * Only its key columns and the value columns kept by
+ * mmtdjoin.&lt;dimension&gt;.columns are used: a comma-separated list, or *
+ * for all of them. Spotify and Hot100 default to none, so they ship as
+ * their join keys alone; the top-artists table defaults to *. A dimension no
+ * larger than {@link #BROADCAST_MAX_BYTES} goes to every map task through the
+ * distributed cache and is loaded into a {@link JoinTable}; the tweets then
+ * stream through a map-only join. A larger dimension is joined reduce-side
+ * instead, in a job of its own, with its rows sorted ahead of the tweets of
+ * each key. Consecutive broadcast dimensions share one job.
+ *
+ * Output follows pandas: the tweet columns with their key columns normalized,
+ * then the value columns of each dimension in merge order. Clashing names get
+ * _x/_y suffixes, unmatched tweets get empty fields, and a key with several
+ * dimension rows repeats the tweet once per row, as pandas' left merge
+ * does. {@link #DEDUPE} makes identical projected dimension rows count once
+ * instead, so a key-only Hot100 does not multiply tweets by the number of
+ * chart weeks; the output then has fewer rows than merge_mmtd.py's.
+ */
+public class MmtdJoinJob {
+
+    /** Dimensions up to this many input bytes are broadcast (default 128 MB). */
+    public static final String BROADCAST_MAX_BYTES = "mmtdjoin.broadcast.max.bytes";
+    public static final long DEFAULT_BROADCAST_MAX_BYTES = 128L << 20;
+
+    /** Drop dimension rows identical to an earlier one for the same key (default false). */
+    public static final String DEDUPE = "mmtdjoin.dedupe";
+
+    /** Dimensions in merge order. */
+    static final String[] DIMENSIONS = {"spotify", "hot100", "artists"};
+    private static final String[] DEFAULT_KEYS = {"artist_name,track_name", "artist_name,track_name", "artist_name"};
+    /** Value columns per dimension: key-only for the two track tables. */
+    private static final String[] DEFAULT_COLUMNS = {"", "", "*"};
+
+    // Per-stage settings, written by the driver.
+    static final String STAGE_DIMENSIONS = "mmtdjoin.stage.dimensions";
+    static final String LEFT_HEADER = "mmtdjoin.left.header";
+    static final String LEFT_NORMALIZE = "mmtdjoin.left.normalize";
+    static final String OUTPUT_HEADER = "mmtdjoin.output.header";
+
+    private static final String COUNTER_GROUP = "MMTD_JOIN";
+
+    /** Results of the row parsers. */
+    static final int ROW = 0;
+    static final int SKIP = 1;
+    static final int MALFORMED = 2;
+
+    private static final byte[] DIMENSION_SUFFIX = {0, '0'};
+    private static final byte[] LEFT_SUFFIX = {0, '1'};
+
+    private static final byte[] TAB = {'\t'};
+
+    static TextNormalizer newNormalizer(Configuration conf, CounterRegistry counters) {
+        return new TextNormalizer(conf.getInt(TextNormalizer.CACHE_ENTRIES, TextNormalizer.DEFAULT_CACHE_ENTRIES),
+                counters, COUNTER_GROUP);
+    }
+
+    /**
+     * Normalizes field i of the scanner, unquoting it first if quoted.
+     * The result is in normalizer.result().
+     */
+    static int normalizeField(TextNormalizer normalizer, CsvFieldScanner scanner, int i) {
+        if (scanner.isQuoted(i)) {
+            byte[] b = scanner.getString(i).getBytes(StandardCharsets.UTF_8);
+            return normalizer.normalize(b, 0, b.length);
+        }
+        return normalizer.normalize(scanner.bytes(), scanner.start(i), scanner.end(i));
+    }
+
+    static String conf(String dimension, String setting) {
+        return "mmtdjoin." + dimension + "." + setting;
+    }
+
+    /** True if the line is exactly the header, ignoring a UTF-8 BOM. */
+    static boolean isHeader(Text line, byte[] header) {
+        byte[] b = line.getBytes();
+        int off = line.getLength() >= 3 && b[0] == (byte) 0xEF && b[1] == (byte) 0xBB && b[2] == (byte) 0xBF ? 3 : 0;
+        return Arrays.equals(b, off, line.getLength(), header, 0, header.length);
+    }
+
+    static String[] parseHeader(String header) {
+        CsvFieldScanner scanner = new CsvFieldScanner();
+        byte[] b = header.getBytes(StandardCharsets.UTF_8);
+        int n = scanner.scan(b, 0, b.length);
+        String[] columns = new String[n];
+        for (int i = 0; i < n; i++) {
+            columns[i] = scanner.getString(i);
+        }
+        return columns;
+    }
+
+    static String formatHeader(List<String> columns) {
+        CsvRowWriter writer = new CsvRowWriter();
+        for (String c : columns) {
+            writer.appendField(c);
+        }
+        return new String(writer.bytes(), 0, writer.length(), StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(String[] columns, String name) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * One dimension table: its columns, which of them form the key and which
+     * are carried into the output, and a parser turning its lines into a
+     * normalized key and a ",v1,v2..." fragment of raw value fields.
+     */
+    static final class Dimension {
+        final String name;
+        final String[] header;
+        final byte[] headerBytes;
+        final int[] keyColumns;
+        final int[] valueColumns;
+
+        private final CsvFieldScanner scanner = new CsvFieldScanner();
+        private final TextNormalizer normalizer;
+        private final Text key = new Text();
+        private byte[] fragment = new byte[256];
+        private int fragmentLength;
+
+        /**
+         * @param normalizer for {@link #parse}; null when only the columns are needed
+         */
+        Dimension(Configuration conf, String name, TextNormalizer normalizer) {
+            this.name = name;
+            this.normalizer = normalizer;
+            String line = conf.get(conf(name, "header"));
+            headerBytes = line.getBytes(StandardCharsets.UTF_8);
+            header = parseHeader(line);
+
+            int dimension = Arrays.asList(DIMENSIONS).indexOf(name);
+            String[] keys = conf.getTrimmedStrings(conf(name, "keys"), DEFAULT_KEYS[dimension].split(","));
+            keyColumns = new int[keys.length];
+            for (int k = 0; k < keys.length; k++) {
+                keyColumns[k] = indexOf(header, keys[k]);
+                if (keyColumns[k] < 0) {
+                    throw new IllegalArgumentException(name + " has no key column " + keys[k]);
+                }
+            }
+
+            String columns = conf.getTrimmed(conf(name, "columns"), DEFAULT_COLUMNS[dimension]);
+            boolean all = columns.equals("*");
+            List<String> kept = Arrays.asList(columns.isEmpty() ? new String[0] : columns.split("\\s*,\\s*"));
+            List<Integer> values = new ArrayList<>();
+            for (int c = 0; c < header.length; c++) {
+                boolean isKey = false;
+                for (int k : keyColumns) {
+                    isKey |= k == c;
+                }
+                if (!isKey && (all || kept.contains(header[c]))) {
+                    values.add(c);
+                }
+            }
+            valueColumns = values.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        String[] keyNames() {
+            String[] names = new String[keyColumns.length];
+            for (int k = 0; k < names.length; k++) {
+                names[k] = header[keyColumns[k]];
+            }
+            return names;
+        }
+
+        /** ",,," with one empty field per value column, for unmatched rows. */
+        byte[] emptyFragment() {
+            byte[] b = new byte[valueColumns.length];
+            Arrays.fill(b, (byte) ',');
+            return b;
+        }
+
+        int parse(Text line) {
+            if (isHeader(line, headerBytes)) {
+                return SKIP;
+            }
+            int n = scanner.scan(line);
+            if (scanner.isBlankLine()) {
+                return SKIP;
+            }
+            if (n != header.length) {
+                return MALFORMED;
+            }
+
+            key.clear();
+            for (int k = 0; k < keyColumns.length; k++) {
+                if (k > 0) {
+                    key.append(TAB, 0, 1);
+                }
+                int len = normalizeField(normalizer, scanner, keyColumns[k]);
+                key.append(normalizer.result(), 0, len);
+            }
+
+            byte[] b = scanner.bytes();
+            fragmentLength = 0;
+            for (int c : valueColumns) {
+                int s = scanner.start(c);
+                int e = scanner.end(c);
+                if (fragmentLength + 1 + e - s > fragment.length) {
+                    fragment = Arrays.copyOf(fragment, Math.max(fragment.length * 2, fragmentLength + 1 + e - s));
+                }
+                fragment[fragmentLength++] = ',';
+                System.arraycopy(b, s, fragment, fragmentLength, e - s);
+                fragmentLength += e - s;
+            }
+            return ROW;
+        }
+
+        Text key() {
+            return key;
+        }
+
+        byte[] fragment() {
+            return fragment;
+        }
+
+        int fragmentLength() {
+            return fragmentLength;
+        }
+    }
+
+    static Dimension[] stageDimensions(Configuration conf, TextNormalizer normalizer) {
+        String[] names = conf.getTrimmedStrings(STAGE_DIMENSIONS);
+        Dimension[] dims = new Dimension[names.length];
+        for (int d = 0; d < dims.length; d++) {
+            dims[d] = new Dimension(conf, names[d], normalizer);
+        }
+        return dims;
+    }
+
+    /**
+     * Parser for the left (tweet) side of a stage: skips headers and blank
+     * lines, normalizes the key columns in the first stage, and builds each
+     * dimension's lookup key.
+     */
+    static final class LeftRows {
+        private final CsvFieldScanner scanner = new CsvFieldScanner();
+        private final CsvRowWriter writer = new CsvRowWriter();
+        private final TextNormalizer normalizer;
+        private final byte[] header;
+        private final int columns;
+        private final boolean[] normalize;
+        private final boolean normalizing;
+        private final byte[][] normalized;
+        private final int[] normalizedLength;
+        private final int[][] keyColumns;
+
+        private byte[] row;
+        private int rowLength;
+
+        LeftRows(Configuration conf, Dimension[] dims, TextNormalizer normalizer) {
+            this.normalizer = normalizer;
+            String line = conf.get(LEFT_HEADER);
+            header = line.getBytes(StandardCharsets.UTF_8);
+            String[] names = parseHeader(line);
+            columns = names.length;
+
+            normalize = new boolean[columns];
+            boolean any = false;
+            for (String c : conf.getTrimmedStrings(LEFT_NORMALIZE)) {
+                int i = indexOf(names, c);
+                if (i >= 0) {
+                    normalize[i] = true;
+                    any = true;
+                }
+            }
+            normalizing = any;
+            normalized = new byte[columns][];
+            normalizedLength = new int[columns];
+
+            keyColumns = new int[dims.length][];
+            for (int d = 0; d < dims.length; d++) {
+                String[] keys = dims[d].keyNames();
+                keyColumns[d] = new int[keys.length];
+                for (int k = 0; k < keys.length; k++) {
+                    keyColumns[d][k] = indexOf(names, keys[k]);
+                    if (keyColumns[d][k] < 0) {
+                        throw new IllegalArgumentException("Left input has no key column " + keys[k]);
+                    }
+                }
+            }
+        }
+
+        int parse(Text line) {
+            if (isHeader(line, header)) {
+                return SKIP;
+            }
+            int n = scanner.scan(line);
+            if (scanner.isBlankLine()) {
+                return SKIP;
+            }
+            if (n != columns) {
+                return MALFORMED;
+            }
+            if (!normalizing) {
+                row = line.getBytes();
+                rowLength = line.getLength();
+                return ROW;
+            }
+
+            // First stage: pandas overwrote the key columns with their normalized form.
+            writer.reset();
+            byte[] b = scanner.bytes();
+            for (int i = 0; i < columns; i++) {
+                if (normalize[i]) {
+                    // Normalized values are [a-z0-9 ] only and never need quoting.
+                    int len = normalizeField(normalizer, scanner, i);
+                    if (normalized[i] == null || normalized[i].length < len) {
+                        normalized[i] = new byte[Math.max(len, 64)];
+                    }
+                    System.arraycopy(normalizer.result(), 0, normalized[i], 0, len);
+                    normalizedLength[i] = len;
+                    writer.appendRaw(normalized[i], 0, len);
+                } else {
+                    writer.appendRaw(b, scanner.start(i), scanner.end(i));
+                }
+            }
+            row = writer.bytes();
+            rowLength = writer.length();
+            return ROW;
+        }
+
+        /**
+         * Lookup key for the dimension. Past the first stage the key columns
+         * hold already normalized values, which are never quoted.
+         */
+        void key(int dimension, Text out) {
+            out.clear();
+            int[] cols = keyColumns[dimension];
+            for (int k = 0; k < cols.length; k++) {
+                int c = cols[k];
+                if (k > 0) {
+                    out.append(TAB, 0, 1);
+                }
+                if (normalize[c]) {
+                    out.append(normalized[c], 0, normalizedLength[c]);
+                } else {
+                    out.append(scanner.bytes(), scanner.start(c), scanner.end(c) - scanner.start(c));
+                }
+            }
+        }
+
+        byte[] row() {
+            return row;
+        }
+
+        int rowLength() {
+            return rowLength;
+        }
+    }
+
+    /**
+     * Map-only join against the broadcast dimensions of the stage.
+     */
+    public static class BroadcastJoinMapper extends Mapper<LongWritable, Text, NullWritable, Text> {
+
+        private final Text outValue = new Text();
+        private final Text key = new Text();
+        private final CounterRegistry counters = new CounterRegistry();
+
+        private Dimension[] dims;
+        private JoinTable[] tables;
+        private byte[][] empty;
+        private int[] matches;
+        private LeftRows left;
+        private byte[] buf = new byte[1024];
+
+        private int rowsIn;
+        private int rowsOut;
+        private int malformed;
+        private int[] matched;
+        private int[] unmatched;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+            // One cache for both sides: the tables warm it with the names tweets repeat.
+            TextNormalizer normalizer = newNormalizer(conf, counters);
+            dims = stageDimensions(conf, normalizer);
+            left = new LeftRows(conf, dims, normalizer);
+            boolean dedupe = conf.getBoolean(DEDUPE, false);
+            boolean firstTask = context.getTaskAttemptID().getTaskID().getId() == 0;
+
+            rowsIn = counters.register(COUNTER_GROUP, "LEFT_ROWS");
+            rowsOut = counters.register(COUNTER_GROUP, "OUTPUT_ROWS");
+            malformed = counters.register(COUNTER_GROUP, "LEFT_MALFORMED");
+            matched = new int[dims.length];
+            unmatched = new int[dims.length];
+            tables = new JoinTable[dims.length];
+            empty = new byte[dims.length][];
+            matches = new int[dims.length];
+            for (int d = 0; d < dims.length; d++) {
+                String prefix = dims[d].name.toUpperCase(Locale.ROOT);
+                matched[d] = counters.register(COUNTER_GROUP, prefix + "_MATCHED");
+                unmatched[d] = counters.register(COUNTER_GROUP, prefix + "_UNMATCHED");
+                tables[d] = loadTable(context, dims[d], dedupe, firstTask ? counters : null);
+                empty[d] = dims[d].emptyFragment();
+            }
+            counters.bind(context);
+
+            if (firstTask) {
+                outValue.set(conf.get(OUTPUT_HEADER));
+                context.write(NullWritable.get(), outValue);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            counters.flush();
+        }
+
+        @Override
+        protected void map(LongWritable offset, Text value, Context context)
+                throws IOException, InterruptedException {
+            counters.tick();
+            int result = left.parse(value);
+            if (result == SKIP) {
+                return;
+            }
+            if (result == MALFORMED) {
+                counters.increment(malformed);
+                return;
+            }
+            counters.increment(rowsIn);
+
+            for (int d = 0; d < dims.length; d++) {
+                left.key(d, key);
+                matches[d] = tables[d].find(key.getBytes(), 0, key.getLength());
+                counters.increment(matches[d] >= 0 ? matched[d] : unmatched[d]);
+            }
+            append(0, left.row(), 0, left.rowLength());
+            emit(context, 0, left.rowLength());
+        }
+
+        /** Emits the row extended with every combination of matches from dims[d..]. */
+        private void emit(Context context, int d, int length) throws IOException, InterruptedException {
+            if (d == dims.length) {
+                outValue.set(buf, 0, length);
+                context.write(NullWritable.get(), outValue);
+                counters.increment(rowsOut);
+                return;
+            }
+            if (matches[d] < 0) {
+                append(length, empty[d], 0, empty[d].length);
+                emit(context, d + 1, length + empty[d].length);
+                return;
+            }
+            JoinTable t = tables[d];
+            for (int e = matches[d]; e >= 0; e = t.next(e)) {
+                append(length, t.arena(), t.valueStart(e), t.valueLength(e));
+                emit(context, d + 1, length + t.valueLength(e));
+            }
+        }
+
+        private void append(int at, byte[] src, int start, int length) {
+            if (at + length > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, at + length));
+            }
+            System.arraycopy(src, start, buf, at, length);
+        }
+    }
+
+    /**
+     * Loads a dimension from the task's cache files. Symlinked local copies
+     * are used when the framework made them, the original otherwise.
+     */
+    static JoinTable loadTable(Mapper<?, ?, ?, ?>.Context context, Dimension dim, boolean dedupe,
+            CounterRegistry counters) throws IOException {
+        Configuration conf = context.getConfiguration();
+        JoinTable table = new JoinTable(1024);
+        long malformed = 0;
+        Text line = new Text();
+        URI[] cached = context.getCacheFiles();
+        for (URI uri : cached == null ? new URI[0] : cached) {
+            String fragment = uri.getFragment();
+            if (fragment == null || !fragment.startsWith(dim.name + "-")) {
+                continue;
+            }
+            File local = new File(fragment);
+            Path path = local.exists()
+                    ? new Path(local.getAbsoluteFile().toURI())
+                    : new Path(uri.getScheme(), uri.getAuthority(), uri.getPath());
+            try (FSDataInputStream in = path.getFileSystem(conf).open(path)) {
+                LineReader reader = new LineReader(in, conf);
+                while (reader.readLine(line) > 0) {
+                    int result = dim.parse(line);
+                    if (result == ROW) {
+                        Text key = dim.key();
+                        table.add(key.getBytes(), 0, key.getLength(),
+                                dim.fragment(), 0, dim.fragmentLength(), dedupe);
+                    } else if (result == MALFORMED) {
+                        malformed++;
+                    }
+                }
+            }
+        }
+        if (counters != null) {
+            String prefix = dim.name.toUpperCase(Locale.ROOT);
+            counters.add(counters.register(COUNTER_GROUP, prefix + "_TABLE_ROWS"), table.size());
+            counters.add(counters.register(COUNTER_GROUP, prefix + "_TABLE_BYTES"), table.sizeInBytes());
+            counters.add(counters.register(COUNTER_GROUP, prefix + "_MALFORMED"), malformed);
+        }
+        return table;
+    }
+
+    /**
+     * Reduce-side join, left side: key is the lookup key plus {@link #LEFT_SUFFIX}.
+     */
+    public static class LeftTagMapper extends Mapper<LongWritable, Text, Text, Text> {
+
+        private final Text outKey = new Text();
+        private final Text outValue = new Text();
+        private final CounterRegistry counters = new CounterRegistry();
+        private LeftRows left;
+        private int rowsIn;
+        private int malformed;
+
+        @Override
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            TextNormalizer normalizer = newNormalizer(conf, counters);
+            left = new LeftRows(conf, stageDimensions(conf, normalizer), normalizer);
+            rowsIn = counters.register(COUNTER_GROUP, "LEFT_ROWS");
+            malformed = counters.register(COUNTER_GROUP, "LEFT_MALFORMED");
+            counters.bind(context);
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            counters.flush();
+        }
+
+        @Override
+        protected void map(LongWritable offset, Text value, Context context)
+                throws IOException, InterruptedException {
+            counters.tick();
+            int result = left.parse(value);
+            if (result == SKIP) {
+                return;
+            }
+            if (result == MALFORMED) {
+                counters.increment(malformed);
+                return;
+            }
+            counters.increment(rowsIn);
+            left.key(0, outKey);
+            outKey.append(LEFT_SUFFIX, 0, LEFT_SUFFIX.length);
+            outValue.set(left.row(), 0, left.rowLength());
+            context.write(outKey, outValue);
+        }
+    }
+
+    /**
+     * Reduce-side join, dimension side: key is the lookup key plus
+     * {@link #DIMENSION_SUFFIX}, which sorts ahead of the left rows.
+     */
+    public static class DimensionTagMapper extends Mapper<LongWritable, Text, Text, Text> {
+
+        private final Text outKey = new Text();
+        private final Text outValue = new Text();
+        private final CounterRegistry counters = new CounterRegistry();
+        private Dimension dim;
+        private int rows;
+        private int malformed;
+
+        @Override
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            dim = stageDimensions(conf, newNormalizer(conf, counters))[0];
+            String prefix = dim.name.toUpperCase(Locale.ROOT);
+            rows = counters.register(COUNTER_GROUP, prefix + "_TABLE_ROWS");
+            malformed = counters.register(COUNTER_GROUP, prefix + "_MALFORMED");
+            counters.bind(context);
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            counters.flush();
+        }
+
+        @Override
+        protected void map(LongWritable offset, Text value, Context context)
+                throws IOException, InterruptedException {
+            counters.tick();
+            int result = dim.parse(value);
+            if (result == MALFORMED) {
+                counters.increment(malformed);
+            }
+            if (result != ROW) {
+                return;
+            }
+            counters.increment(rows);
+            outKey.set(dim.key());
+            outKey.append(DIMENSION_SUFFIX, 0, DIMENSION_SUFFIX.length);
+            outValue.set(dim.fragment(), 0, dim.fragmentLength());
+            context.write(outKey, outValue);
+        }
+    }
+
+    /** Partitions on the lookup key, ignoring the two-byte side tag. */
+    public static class JoinKeyPartitioner extends Partitioner<Text, Text> {
+
+        @Override
+        public int getPartition(Text key, Text value, int numPartitions) {
+            return (WritableComparator.hashBytes(key.getBytes(), key.getLength() - 2) & Integer.MAX_VALUE)
+                    % numPartitions;
+        }
+    }
+
+    /** Groups on the lookup key, ignoring the two-byte side tag. */
+    public static class JoinKeyGroupingComparator extends WritableComparator {
+
+        public JoinKeyGroupingComparator() {
+            super(Text.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+            int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+            return compareBytes(b1, s1 + n1, l1 - n1 - 2, b2, s2 + n2, l2 - n2 - 2);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            Text t1 = (Text) a;
+            Text t2 = (Text) b;
+            return compareBytes(t1.getBytes(), 0, t1.getLength() - 2, t2.getBytes(), 0, t2.getLength() - 2);
+        }
+    }
+
+    /**
+     * Buffers the dimension rows of a key, which sort first, then streams
+     * the left rows past them.
+     */
+    public static class ReduceSideJoinReducer extends Reducer<Text, Text, NullWritable, Text> {
+
+        private final Text outValue = new Text();
+        private final List<byte[]> fragments = new ArrayList<>();
+        private final CounterRegistry counters = new CounterRegistry();
+        private byte[] empty;
+        private boolean dedupe;
+        private int rowsOut;
+        private int matched;
+        private int unmatched;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+            Dimension dim = stageDimensions(conf, null)[0];
+            empty = dim.emptyFragment();
+            dedupe = conf.getBoolean(DEDUPE, false);
+            String prefix = dim.name.toUpperCase(Locale.ROOT);
+            rowsOut = counters.register(COUNTER_GROUP, "OUTPUT_ROWS");
+            matched = counters.register(COUNTER_GROUP, prefix + "_MATCHED");
+            unmatched = counters.register(COUNTER_GROUP, prefix + "_UNMATCHED");
+            counters.bind(context);
+
+            if (context.getTaskAttemptID().getTaskID().getId() == 0) {
+                outValue.set(conf.get(OUTPUT_HEADER));
+                context.write(NullWritable.get(), outValue);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            counters.flush();
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<Text> values, Context context)
+                throws IOException, InterruptedException {
+            fragments.clear();
+            for (Text v : values) {
+                // The framework refreshes key with each value's full key.
+                if (key.getBytes()[key.getLength() - 1] == DIMENSION_SUFFIX[1]) {
+                    byte[] f = Arrays.copyOf(v.getBytes(), v.getLength());
+                    if (!dedupe || !contains(fragments, f)) {
+                        fragments.add(f);
+                    }
+                    continue;
+                }
+
+                counters.tick();
+                if (fragments.isEmpty()) {
+                    counters.increment(unmatched);
+                    write(context, v, empty);
+                    continue;
+                }
+                counters.increment(matched);
+                for (byte[] f : fragments) {
+                    write(context, v, f);
+                }
+            }
+        }
+
+        private void write(Context context, Text row, byte[] fragment)
+                throws IOException, InterruptedException {
+            outValue.set(row.getBytes(), 0, row.getLength());
+            outValue.append(fragment, 0, fragment.length);
+            context.write(NullWritable.get(), outValue);
+            counters.increment(rowsOut);
+        }
+
+        private static boolean contains(List<byte[]> list, byte[] f) {
+            for (byte[] g : list) {
+                if (Arrays.equals(g, f)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Visible files of a path in name order: the path itself if it is a
+     * file, else the files in the directory not starting with _ or '.'.
+     */
+    static List<Path> inputFiles(Configuration conf, Path path) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        List<Path> files = new ArrayList<>();
+        FileStatus status = fs.getFileStatus(path);
+        if (status.isFile()) {
+            files.add(fs.makeQualified(path));
+            return files;
+        }
+        FileStatus[] children = fs.listStatus(path);
+        Arrays.sort(children);
+        for (FileStatus f : children) {
+            String name = f.getPath().getName();
+            if (f.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                files.add(fs.makeQualified(f.getPath()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * First line of the first non-empty input file, without BOM or CR.
+     */
+    static String readHeader(Configuration conf, Path path) throws IOException {
+        for (Path file : inputFiles(conf, path)) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    file.getFileSystem(conf).open(file), StandardCharsets.UTF_8))) {
+                String line = in.readLine();
+                if (line != null) {
+                    return line.startsWith("\uFEFF") ? line.substring(1) : line;
+                }
+            }
+        }
+        throw new IOException("No header found in " + path);
+    }
+
+    static long inputBytes(Configuration conf, Path path) throws IOException {
+        long total = 0;
+        for (Path file : inputFiles(conf, path)) {
+            total += file.getFileSystem(conf).getFileStatus(file).getLen();
+        }
+        return total;
+    }
+
+    /**
+     * Output columns after merging a dimension, with pandas' _x/_y suffixes
+     * on names present on both sides.
+     */
+    static List<String> mergeColumns(List<String> left, Dimension dim) {
+        List<String> out = new ArrayList<>(left);
+        for (int c : dim.valueColumns) {
+            String name = dim.header[c];
+            int clash = out.indexOf(name);
+            if (clash >= 0) {
+                out.set(clash, name + "_x");
+                out.add(name + "_y");
+            } else {
+                out.add(name);
+            }
+        }
+        return out;
+    }
+
+    public static Job createBroadcastJob(Configuration conf, Path left, Path[] dimensionPaths, Path output)
+            throws IOException {
+        Job job = Job.getInstance(conf, "MMTD Broadcast Join");
+        job.setJarByClass(MmtdJoinJob.class);
+        job.setMapperClass(BroadcastJoinMapper.class);
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+
+        String[] names = conf.getTrimmedStrings(STAGE_DIMENSIONS);
+        for (int d = 0; d < names.length; d++) {
+            List<Path> files = inputFiles(conf, dimensionPaths[d]);
+            for (int i = 0; i < files.size(); i++) {
+                job.addCacheFile(URI.create(files.get(i).toUri() + "#" + names[d] + "-" + i));
+            }
+        }
+        FileInputFormat.addInputPath(job, left);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    public static Job createReduceSideJob(Configuration conf, Path left, Path dimensionPath, Path output)
+            throws IOException {
+        Job job = Job.getInstance(conf, "MMTD Reduce-Side Join");
+        job.setJarByClass(MmtdJoinJob.class);
+        MultipleInputs.addInputPath(job, left, TextInputFormat.class, LeftTagMapper.class);
+        MultipleInputs.addInputPath(job, dimensionPath, TextInputFormat.class, DimensionTagMapper.class);
+        job.setPartitionerClass(JoinKeyPartitioner.class);
+        job.setGroupingComparatorClass(JoinKeyGroupingComparator.class);
+        job.setReducerClass(ReduceSideJoinReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    /**
+     * Plans and runs the stages: runs of broadcastable dimensions share a
+     * map-only job, each larger one gets a reduce-side job. Intermediate
+     * outputs go next to the output and are removed at the end.
+     */
+    public static boolean run(Configuration conf, Path tweets, Path[] dimensionPaths, Path output)
+            throws Exception {
+        long maxBroadcast = conf.getLong(BROADCAST_MAX_BYTES, DEFAULT_BROADCAST_MAX_BYTES);
+        String leftHeader = readHeader(conf, tweets);
+        List<String> columns = new ArrayList<>(Arrays.asList(parseHeader(leftHeader)));
+
+        Dimension[] dims = new Dimension[DIMENSIONS.length];
+        boolean[] broadcast = new boolean[DIMENSIONS.length];
+        Set<String> keyNames = new HashSet<>();
+        for (int d = 0; d < dims.length; d++) {
+            conf.set(conf(DIMENSIONS[d], "header"), readHeader(conf, dimensionPaths[d]));
+            dims[d] = new Dimension(conf, DIMENSIONS[d], null);
+            broadcast[d] = inputBytes(conf, dimensionPaths[d]) <= maxBroadcast;
+            keyNames.addAll(Arrays.asList(dims[d].keyNames()));
+        }
+
+        List<List<Integer>> stages = new ArrayList<>();
+        for (int d = 0; d < dims.length; d++) {
+            List<Integer> last = stages.isEmpty() ? null : stages.get(stages.size() - 1);
+            if (broadcast[d] && last != null && broadcast[last.get(0)]) {
+                last.add(d);
+            } else {
+                List<Integer> stage = new ArrayList<>();
+                stage.add(d);
+                stages.add(stage);
+            }
+        }
+
+        FileSystem fs = output.getFileSystem(conf);
+        Path scratch = new Path(output.getParent(), "_" + output.getName() + "_stages");
+        Path left = tweets;
+        try {
+            for (int s = 0; s < stages.size(); s++) {
+                List<Integer> stage = stages.get(s);
+                Configuration stageConf = new Configuration(conf);
+                StringBuilder names = new StringBuilder();
+                Path[] paths = new Path[stage.size()];
+                for (int i = 0; i < stage.size(); i++) {
+                    int d = stage.get(i);
+                    names.append(i > 0 ? "," : "").append(DIMENSIONS[d]);
+                    paths[i] = dimensionPaths[d];
+                    columns = mergeColumns(columns, dims[d]);
+                }
+                stageConf.set(STAGE_DIMENSIONS, names.toString());
+                stageConf.set(LEFT_HEADER, leftHeader);
+                if (s == 0) {
+                    stageConf.setStrings(LEFT_NORMALIZE, keyNames.toArray(new String[0]));
+                }
+                String outputHeader = formatHeader(columns);
+                stageConf.set(OUTPUT_HEADER, outputHeader);
+
+                Path stageOut = s == stages.size() - 1 ? output : new Path(scratch, "stage-" + s);
+                Job job = broadcast[stage.get(0)]
+                        ? createBroadcastJob(stageConf, left, paths, stageOut)
+                        : createReduceSideJob(stageConf, left, paths[0], stageOut);
+                if (!job.waitForCompletion(true)) {
+                    return false;
+                }
+                left = stageOut;
+                leftHeader = outputHeader;
+            }
+        } finally {
+            fs.delete(scratch, true);
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length != 5) {
+            System.err.println("Usage: MmtdJoinJob [-D " + BROADCAST_MAX_BYTES + "=bytes]"
+                    + " [-D " + DEDUPE + "=true] [-D mmtdjoin.<spotify|hot100|artists>.keys|columns=...|*]"
+                    + " <tweets> <spotify> <hot100> <top artists> <output path>");
+            System.exit(1);
+        }
+        Path[] dims = {new Path(args[1]), new Path(args[2]), new Path(args[3])};
+        System.exit(run(conf, new Path(args[0]), dims, new Path(args[4])) ? 0 : 1);
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Composite (song, chart date) key for the chart-run job's secondary sort.
+ *
+ * The song is the cleaned "song,artist" CSV fields as bytes. On the wire:
+ * the song as a vint length and bytes, as Text writes it, then the chart
+ * date as a 4-byte epoch day. Keys sort by song bytes, then by date; the
+ * registered {@link Comparator} does this on the serialized bytes, and
+ * {@link SongComparator} groups all of a song's weeks into one reduce call.
+ */
+public class SongWeekWritable implements WritableComparable<SongWeekWritable> {
+
+    private final Text song = new Text();
+    private int day;
+
+    public void set(byte[] b, int start, int length, int day) {
+        song.set(b, start, length);
+        this.day = day;
+    }
+
+    public Text getSong() {
+        return song;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    /**
+     * Hash of the song alone, so all its weeks go to the same reducer.
+     */
+    public int songHash() {
+        return WritableComparator.hashBytes(song.getBytes(), song.getLength());
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        song.write(out);
+        out.writeInt(day);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        song.readFields(in);
+        day = in.readInt();
+    }
+
+    @Override
+    public int compareTo(SongWeekWritable other) {
+        int c = song.compareTo(other.song);
+        return c != 0 ? c : Integer.compare(day, other.day);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SongWeekWritable)) {
+            return false;
+        }
+        SongWeekWritable other = (SongWeekWritable) o;
+        return day == other.day && song.equals(other.song);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * songHash() + day;
+    }
+
+    @Override
+    public String toString() {
+        return song + "\t" + day;
+    }
+
+    /**
+     * Compares the songs of two serialized keys.
+     */
+    static int compareSongs(byte[] b1, int s1, byte[] b2, int s2) {
+        try {
+            int v1 = WritableUtils.decodeVIntSize(b1[s1]);
+            int v2 = WritableUtils.decodeVIntSize(b2[s2]);
+            return WritableComparator.compareBytes(b1, s1 + v1, WritableComparator.readVInt(b1, s1),
+                    b2, s2 + v2, WritableComparator.readVInt(b2, s2));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Compares serialized keys: the song bytes, then the date, which is
+     * always the last four bytes.
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(SongWeekWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int c = compareSongs(b1, s1, b2, s2);
+            if (c != 0) {
+                return c;
+            }
+            return Integer.compare(readInt(b1, s1 + l1 - 4), readInt(b2, s2 + l2 - 4));
+        }
+    }
+
+    /**
+     * Groups serialized keys by song, ignoring the date.
+     */
+    public static class SongComparator extends WritableComparator {
+
+        public SongComparator() {
+            super(SongWeekWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return compareSongs(b1, s1, b2, s2);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            return ((SongWeekWritable) a).song.compareTo(((SongWeekWritable) b).song);
+        }
+    }
+
+    static {
+        WritableComparator.define(SongWeekWritable.class, new Comparator());
+    }
+}
@@ -1,33 +1,10 @@
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.NullWritable;
-import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-
+/**
+ * Spotify cleaning job; see {@link CleaningDriver} for the split and
+ * compression options it accepts.
+ */
 public class SpotifyCleanDriver {
 
     public static void main(String[] args) throws Exception {
-        if (args.length != 2) {
-            System.err.println("Usage: SpotifyCleanDriver <input> <output>");
-            System.exit(1);
-        }
-
-        Configuration conf = new Configuration();
-        Job job = Job.getInstance(conf, "Spotify Cleaning");
-
-        job.setJarByClass(SpotifyCleanDriver.class);
-        job.setMapperClass(SpotifyCleanMapper.class);
-
-        job.setNumReduceTasks(0);
-
-        job.setOutputKeyClass(NullWritable.class);
-        job.setOutputValueClass(Text.class);
-
-        FileInputFormat.addInputPath(job, new Path(args[0]));
-        FileOutputFormat.setOutputPath(job, new Path(args[1]));
-
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        System.exit(CleaningDriver.run("SpotifyCleanDriver", "spotify", args));
     }
 }
@@ -1,13 +1,18 @@
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public class SpotifyCleanMapper
         extends Mapper<LongWritable, Text, NullWritable, Text> {
 
+    /** Whether map task 0 writes the output CSV header (default true). */
+    public static final String OUTPUT_HEADER = "spotify.output.header";
+
     private static final int NUM_COLUMNS = 19;
 
     private static final int IDX_VALENCE = 0;
@@ -30,346 +35,137 @@ public class SpotifyCleanMapper
     private static final int IDX_SPEECHINESS = 17;
     private static final int IDX_TEMPO = 18;
 
-    private Text outValue = new Text();
-    private boolean headerSeen = false;
-
-    @Override
-    protected void map(LongWritable key, Text value, Context context)
-            throws IOException, InterruptedException {
-
-        String line = value.toString();
-
-        if (!headerSeen && line.startsWith("valence")) {
-            headerSeen = true;
-            outValue.set(line);
-            context.write(NullWritable.get(), outValue);
-            return;
-        }
-
-        if (line.trim().isEmpty()) {
-            return;
-        }
-
-        String[] fields = line.split(",", -1);
-
-        if (fields.length != NUM_COLUMNS) {
-            context.getCounter("CLEANING", "BAD_NUM_FIELDS").increment(1);
-            return;
-        }
-
-        fields[IDX_VALENCE] = fixDoubleFeature(
-                fields[IDX_VALENCE],
-                0.0, 1.0,
-                0.5,
-                "VALENCE_MISSING",
-                "VALENCE_PARSE_ERR",
-                "VALENCE_CLIPPED",
-                context);
-
-        fields[IDX_YEAR] = fixIntFeature(
-                fields[IDX_YEAR],
-                1921, 2020,
-                2000,
-                "YEAR_MISSING",
-                "YEAR_PARSE_ERR",
-                "YEAR_CLIPPED",
-                context);
-
-        fields[IDX_ACOUSTICNESS] = fixDoubleFeature(
-                fields[IDX_ACOUSTICNESS],
-                0.0, 1.0,
-                0.5,
-                "ACOUSTIC_MISSING",
-                "ACOUSTIC_PARSE_ERR",
-                "ACOUSTIC_CLIPPED",
-                context);
-
-        fields[IDX_ARTISTS] = fixArtists(fields[IDX_ARTISTS], context);
-
-        fields[IDX_DANCEABILITY] = fixDoubleFeature(
-                fields[IDX_DANCEABILITY],
-                0.0, 0.99,
-                0.5,
-                "DANCE_MISSING",
-                "DANCE_PARSE_ERR",
-                "DANCE_CLIPPED",
-                context);
-
-        fields[IDX_DURATION_MS] = fixLongFeature(
-                fields[IDX_DURATION_MS],
-                5108L, 5_400_000L,
-                180_000L,
-                "DUR_MISSING",
-                "DUR_PARSE_ERR",
-                "DUR_CLIPPED",
-                context);
-
-        fields[IDX_ENERGY] = fixDoubleFeature(
-                fields[IDX_ENERGY],
-                0.0, 1.0,
-                0.5,
-                "ENERGY_MISSING",
-                "ENERGY_PARSE_ERR",
-                "ENERGY_CLIPPED",
-                context);
-
-        fields[IDX_EXPLICIT] = fixBinary01(
-                fields[IDX_EXPLICIT],
-                "EXPL_MISSING",
-                "EXPL_PARSE_ERR",
-                context);
-
-        String fixedId = fixId(fields[IDX_ID], context);
-        if (fixedId == null) {
-            context.getCounter("CLEANING", "ID_MISSING_DROPPED").increment(1);
-            return;
-        }
-        fields[IDX_ID] = fixedId;
-
-        fields[IDX_INSTRUMENTAL] = fixDoubleFeature(
-                fields[IDX_INSTRUMENTAL],
-                0.0, 1.0,
-                0.0,
-                "INSTR_MISSING",
-                "INSTR_PARSE_ERR",
-                "INSTR_CLIPPED",
-                context);
-
-        fields[IDX_KEY] = fixKey(fields[IDX_KEY], context);
-
-        fields[IDX_LIVENESS] = fixDoubleFeature(
-                fields[IDX_LIVENESS],
-                0.0, 1.0,
-                0.5,
-                "LIVENESS_MISSING",
-                "LIVENESS_PARSE_ERR",
-                "LIVENESS_CLIPPED",
-                context);
-
-        fields[IDX_LOUDNESS] = fixDoubleFeature(
-                fields[IDX_LOUDNESS],
-                -60.0, 3.85,
-                -10.0,
-                "LOUD_MISSING",
-                "LOUD_PARSE_ERR",
-                "LOUD_CLIPPED",
-                context);
-
-        fields[IDX_MODE] = fixBinary01(
-                fields[IDX_MODE],
-                "MODE_MISSING",
-                "MODE_PARSE_ERR",
-                context);
+    /** Results of {@link Cleaner#clean}. */
+    static final int CLEANED = 0;
+    static final int HEADER = 1;
+    static final int SKIPPED = 2;
 
-        fields[IDX_NAME] = fixName(fields[IDX_NAME], context);
+    static final byte[] HEADER_LINE = ("valence,year,acousticness,artists,danceability,duration_ms,"
+            + "energy,explicit,id,instrumentalness,key,liveness,loudness,mode,name,popularity,"
+            + "release_date,speechiness,tempo").getBytes(StandardCharsets.UTF_8);
 
-        fields[IDX_POPULARITY] = fixIntFeature(
-                fields[IDX_POPULARITY],
-                0, 100,
-                50,
-                "POP_MISSING",
-                "POP_PARSE_ERR",
-                "POP_CLIPPED",
-                context);
-
-        String yearFromDate = extractYearStr(fields[IDX_RELEASE_DATE]);
-        fields[IDX_RELEASE_DATE] = fixIntFeature(
-                yearFromDate,
-                1921, 2020,
-                1970,
-                "RELDATE_MISSING",
-                "RELDATE_PARSE_ERR",
-                "RELDATE_CLIPPED",
-                context);
-
-        fields[IDX_SPEECHINESS] = fixDoubleFeature(
-                fields[IDX_SPEECHINESS],
-                0.0, 0.97,
-                0.48,
-                "SPEECH_MISSING",
-                "SPEECH_PARSE_ERR",
-                "SPEECH_CLIPPED",
-                context);
-
-        fields[IDX_TEMPO] = fixDoubleFeature(
-                fields[IDX_TEMPO],
-                0.0, 244.0,
-                120.0,
-                "TEMPO_MISSING",
-                "TEMPO_PARSE_ERR",
-                "TEMPO_CLIPPED",
-                context);
-
-        String cleanedLine = String.join(",", fields);
-        outValue.set(cleanedLine);
-        context.write(NullWritable.get(), outValue);
+    private Text outValue = new Text();
+    private final CounterRegistry counters = new CounterRegistry();
+    private Cleaner cleaner;
+
+    /**
+     * Cleaning rule per column. Bounds and defaults can be overridden with
+     * {@code -D spotify.clean.<column>.min|max|default=...}.
+     */
+    static ColumnRules defaultRules() {
+        return new ColumnRules(NUM_COLUMNS)
+                .doubleRule(IDX_VALENCE, "valence", 0.0, 1.0, 0.5, "VALENCE")
+                .intRule(IDX_YEAR, "year", 1921, 2020, 2000, "YEAR")
+                .doubleRule(IDX_ACOUSTICNESS, "acousticness", 0.0, 1.0, 0.5, "ACOUSTIC")
+                .textRule(IDX_ARTISTS, "artists", "Unknown Artist", "ARTISTS")
+                .doubleRule(IDX_DANCEABILITY, "danceability", 0.0, 0.99, 0.5, "DANCE")
+                .longRule(IDX_DURATION_MS, "duration_ms", 5108L, 5_400_000L, 180_000L, "DUR")
+                .doubleRule(IDX_ENERGY, "energy", 0.0, 1.0, 0.5, "ENERGY")
+                .binaryRule(IDX_EXPLICIT, "explicit", "EXPL")
+                .requiredTextRule(IDX_ID, "id")
+                .doubleRule(IDX_INSTRUMENTAL, "instrumentalness", 0.0, 1.0, 0.0, "INSTR")
+                .keyRule(IDX_KEY, "key", "KEY")
+                .doubleRule(IDX_LIVENESS, "liveness", 0.0, 1.0, 0.5, "LIVENESS")
+                .doubleRule(IDX_LOUDNESS, "loudness", -60.0, 3.85, -10.0, "LOUD")
+                .binaryRule(IDX_MODE, "mode", "MODE")
+                .textRule(IDX_NAME, "name", "Unknown Title", "NAME")
+                .intRule(IDX_POPULARITY, "popularity", 0, 100, 50, "POP")
+                .yearPrefixRule(IDX_RELEASE_DATE, "release_date", 1921, 2020, 1970, "RELDATE")
+                .doubleRule(IDX_SPEECHINESS, "speechiness", 0.0, 0.97, 0.48, "SPEECH")
+                .doubleRule(IDX_TEMPO, "tempo", 0.0, 244.0, 120.0, "TEMPO");
     }
 
-    private static boolean isMissing(String s) {
-        return s == null || s.trim().isEmpty();
-    }
+    /**
+     * Per-line cleaning shared by the mapper and {@link LocalSpotifyEngine}:
+     * every "valence..." line is a header, wherever it appears, so inputs
+     * of several files (or combined splits) keep no headers; blank lines
+     * and rows without 19 columns are dropped, everything else goes
+     * through the rule table into {@link #row()}.
+     */
+    static final class Cleaner {
+
+        // Quote-aware in and out: artists/name values such as "['A', 'B']" keep
+        // their embedded commas and are re-quoted by the row writer.
+        private final CsvFieldScanner scanner = new CsvFieldScanner();
+        private final CsvRowWriter row = new CsvRowWriter();
+
+        private final ColumnRules rules;
+        private final CounterRegistry counters;
+        private final int badNumFields;
+        private final int idMissingDropped;
+        private final int headerSkipped;
+
+        Cleaner(Configuration conf, CounterRegistry counters) {
+            this.counters = counters;
+            rules = defaultRules().configure(conf, "spotify.clean.");
+            rules.registerCounters(counters);
+            badNumFields = counters.register("CLEANING", "BAD_NUM_FIELDS");
+            idMissingDropped = counters.register("CLEANING", "ID_MISSING_DROPPED");
+            headerSkipped = counters.register("CLEANING", "HEADER_SKIPPED");
+        }
+
+        int clean(byte[] bytes, int start, int length) {
+            int numFields = scanner.scan(bytes, start, length);
+
+            if (scanner.lineStartsWithIgnoreCase("valence")) {
+                counters.increment(headerSkipped);
+                return HEADER;
+            }
 
-    private String fixDoubleFeature(String s,
-            double min, double max,
-            double defaultVal,
-            String missingCounter,
-            String parseErrCounter,
-            String clippedCounter,
-            Context context) {
-        if (isMissing(s)) {
-            context.getCounter("CLEANING_FIX", missingCounter).increment(1);
-            return Double.toString(defaultVal);
-        }
-        try {
-            double v = Double.parseDouble(s.trim());
-            if (v < min) {
-                context.getCounter("CLEANING_FIX", clippedCounter).increment(1);
-                v = min;
-            } else if (v > max) {
-                context.getCounter("CLEANING_FIX", clippedCounter).increment(1);
-                v = max;
+            if (scanner.isBlankLine()) {
+                return SKIPPED;
             }
-            return Double.toString(v);
-        } catch (NumberFormatException e) {
-            context.getCounter("CLEANING_FIX", parseErrCounter).increment(1);
-            return Double.toString(defaultVal);
-        }
-    }
 
-    private String fixIntFeature(String s,
-            int min, int max,
-            int defaultVal,
-            String missingCounter,
-            String parseErrCounter,
-            String clippedCounter,
-            Context context) {
-        if (isMissing(s)) {
-            context.getCounter("CLEANING_FIX", missingCounter).increment(1);
-            return Integer.toString(defaultVal);
-        }
-        try {
-            int v = Integer.parseInt(s.trim());
-            if (v < min) {
-                context.getCounter("CLEANING_FIX", clippedCounter).increment(1);
-                v = min;
-            } else if (v > max) {
-                context.getCounter("CLEANING_FIX", clippedCounter).increment(1);
-                v = max;
+            if (numFields != NUM_COLUMNS) {
+                counters.increment(badNumFields);
+                return SKIPPED;
             }
-            return Integer.toString(v);
-        } catch (NumberFormatException e) {
-            context.getCounter("CLEANING_FIX", parseErrCounter).increment(1);
-            return Integer.toString(defaultVal);
-        }
-    }
 
-    private String fixLongFeature(String s,
-            long min, long max,
-            long defaultVal,
-            String missingCounter,
-            String parseErrCounter,
-            String clippedCounter,
-            Context context) {
-        if (isMissing(s)) {
-            context.getCounter("CLEANING_FIX", missingCounter).increment(1);
-            return Long.toString(defaultVal);
-        }
-        try {
-            long v = Long.parseLong(s.trim());
-            if (v < min) {
-                context.getCounter("CLEANING_FIX", clippedCounter).increment(1);
-                v = min;
-            } else if (v > max) {
-                context.getCounter("CLEANING_FIX", clippedCounter).increment(1);
-                v = max;
+            row.reset();
+            if (!rules.apply(scanner, row)) {
+                counters.increment(idMissingDropped);
+                return SKIPPED;
             }
-            return Long.toString(v);
-        } catch (NumberFormatException e) {
-            context.getCounter("CLEANING_FIX", parseErrCounter).increment(1);
-            return Long.toString(defaultVal);
+            return CLEANED;
         }
-    }
 
-    private String fixBinary01(String s,
-            String missingCounter,
-            String parseErrCounter,
-            Context context) {
-        if (isMissing(s)) {
-            context.getCounter("CLEANING_FIX", missingCounter).increment(1);
-            return "0";
+        CsvRowWriter row() {
+            return row;
         }
-        String t = s.trim().toLowerCase();
-        if (t.equals("0") || t.equals("1"))
-            return t;
-        if (t.equals("true") || t.equals("yes") || t.equals("y"))
-            return "1";
-        if (t.equals("false") || t.equals("no") || t.equals("n"))
-            return "0";
-
-        context.getCounter("CLEANING_FIX", parseErrCounter).increment(1);
-        return "0";
     }
 
-    private String fixId(String s, Context context) {
-        if (s == null)
-            s = "";
-        String trimmed = s.trim();
-        if (trimmed.isEmpty()) {
-            return null;
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        cleaner = new Cleaner(conf, counters);
+        counters.bind(context);
+
+        // Input headers are dropped wherever they appear; exactly one
+        // header goes out, at the top of part-m-00000.
+        if (conf.getBoolean(OUTPUT_HEADER, true)
+                && context.getTaskAttemptID().getTaskID().getId() == 0) {
+            outValue.set(HEADER_LINE);
+            context.write(NullWritable.get(), outValue);
         }
-        return trimmed;
     }
 
-    private String fixArtists(String s, Context context) {
-        if (s == null)
-            s = "";
-        String trimmed = s.trim();
-        if (trimmed.isEmpty()) {
-            context.getCounter("CLEANING_FIX", "ARTISTS_IMPUTED_UNKNOWN").increment(1);
-            return "Unknown Artist";
-        }
-        return trimmed;
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        counters.flush();
     }
 
-    private String fixName(String s, Context context) {
-        if (s == null)
-            s = "";
-        String trimmed = s.trim();
-        if (trimmed.isEmpty()) {
-            context.getCounter("CLEANING_FIX", "NAME_IMPUTED_UNKNOWN").increment(1);
-            return "Unknown Title";
-        }
-        return trimmed;
-    }
+    @Override
+    protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
 
-    private String fixKey(String s, Context context) {
-        if (isMissing(s)) {
-            context.getCounter("CLEANING_FIX", "KEY_MISSING").increment(1);
-            return "0";
+        counters.tick();
+        switch (cleaner.clean(value.getBytes(), 0, value.getLength())) {
+            case CLEANED:
+                cleaner.row().writeTo(outValue);
+                context.write(NullWritable.get(), outValue);
+                break;
+            default:
+                break;
         }
-        try {
-            int v = Integer.parseInt(s.trim());
-            if (v < 0) {
-                context.getCounter("CLEANING_FIX", "KEY_NEGATIVE_CLIPPED").increment(1);
-                v = 0;
-            }
-            if (v > 11) {
-                context.getCounter("CLEANING_FIX", "KEY_MOD_12").increment(1);
-                v = v % 12;
-            }
-            return Integer.toString(v);
-        } catch (NumberFormatException e) {
-            context.getCounter("CLEANING_FIX", "KEY_PARSE_ERR").increment(1);
-            return "0";
-        }
-    }
-
-    private String extractYearStr(String s) {
-        if (s == null)
-            return "";
-        String t = s.trim();
-        if (t.length() < 4)
-            return "";
-        return t.substring(0, 4);
     }
 }
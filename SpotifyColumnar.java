@@ -0,0 +1,444 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * Columnar binary layout for the cleaned Spotify dataset (.scol files).
+ *
+ * A file is a run of blocks followed by a footer:
+ * <pre>
+ *   "SCOL" version
+ *   block*   one chunk per column, in column order
+ *   footer   schema, then per block: offset, rows, and per column the
+ *            chunk length and min/max stats
+ *   long footerOffset, "SCOL"
+ * </pre>
+ * INT and LONG chunks are frame-of-reference encoded: a width byte, the
+ * block minimum as a long, then each value minus the minimum in 1, 2, 4 or
+ * 8 big-endian bytes. DOUBLE chunks start with a decimal scale s: when every
+ * value of the block is exactly u / 10^s for an integer u (true for the
+ * dataset's 3-6 digit decimals), the u's follow in the integer encoding and
+ * decode bit-for-bit to the same doubles; otherwise s is -1 and raw IEEE
+ * doubles follow. TEXT chunks hold an int end offset per row followed by
+ * the UTF-8 bytes, stored decoded, without CSV quoting.
+ *
+ * The schema is the cleaner's rule table ({@link SpotifyCleanMapper#defaultRules()}),
+ * so the two cannot drift apart; release_date, which the cleaner has already
+ * cut to its year, is an INT column like year. Readers pick columns with
+ * {@link #COLUMNS} and skip whole blocks with {@link #YEAR_MIN}/{@link #YEAR_MAX}
+ * and {@link #RELEASE_YEAR_MIN}/{@link #RELEASE_YEAR_MAX}.
+ */
+public final class SpotifyColumnar {
+
+    /** Rows per block; one block is buffered in memory by the writer. */
+    public static final String BLOCK_ROWS = "spotify.columnar.block.rows";
+    public static final int DEFAULT_BLOCK_ROWS = 32_768;
+
+    /** Comma-separated column names to decode; unset decodes all of them. */
+    public static final String COLUMNS = "spotify.columnar.columns";
+
+    /** Blocks whose year range lies entirely outside [min, max] are not read. */
+    public static final String YEAR_MIN = "spotify.columnar.year.min";
+    public static final String YEAR_MAX = "spotify.columnar.year.max";
+
+    /** The same filter on the year of release_date. */
+    public static final String RELEASE_YEAR_MIN = "spotify.columnar.release.year.min";
+    public static final String RELEASE_YEAR_MAX = "spotify.columnar.release.year.max";
+
+    public static final byte DOUBLE = 0;
+    public static final byte INT = 1;
+    public static final byte LONG = 2;
+    public static final byte TEXT = 3;
+
+    static final byte[] MAGIC = {'S', 'C', 'O', 'L'};
+    /** Largest decimal scale tried for DOUBLE chunks. */
+    static final int MAX_DECIMAL_SCALE = 9;
+    private static final double[] POW10 = new double[MAX_DECIMAL_SCALE + 1];
+    private static final long MAX_EXACT = 1L << 53;
+
+    static {
+        double p = 1.0;
+        for (int i = 0; i <= MAX_DECIMAL_SCALE; i++) {
+            POW10[i] = p;
+            p *= 10.0;
+        }
+    }
+    /** 2: release_date is an INT column (it was TEXT in version 1). */
+    static final int VERSION = 2;
+    /** footerOffset plus the trailing magic. */
+    static final int TAIL_LENGTH = 8 + MAGIC.length;
+
+    private static final String[] NAMES;
+    private static final byte[] KINDS;
+
+    static {
+        ColumnRules rules = SpotifyCleanMapper.defaultRules();
+        NAMES = new String[rules.numColumns()];
+        KINDS = new byte[rules.numColumns()];
+        for (int c = 0; c < NAMES.length; c++) {
+            NAMES[c] = rules.name(c);
+            switch (rules.type(c)) {
+                case DOUBLE:
+                    KINDS[c] = DOUBLE;
+                    break;
+                case INT:
+                case BINARY:
+                case KEY:
+                case YEAR_PREFIX:
+                    KINDS[c] = INT;
+                    break;
+                case LONG:
+                    KINDS[c] = LONG;
+                    break;
+                default:
+                    KINDS[c] = TEXT;
+                    break;
+            }
+        }
+    }
+
+    static final int YEAR_COLUMN = columnIndex("year");
+    static final int RELEASE_YEAR_COLUMN = columnIndex("release_date");
+
+    private SpotifyColumnar() {
+    }
+
+    public static int numColumns() {
+        return NAMES.length;
+    }
+
+    public static String name(int column) {
+        return NAMES[column];
+    }
+
+    public static byte kind(int column) {
+        return KINDS[column];
+    }
+
+    public static int columnIndex(String name) {
+        for (int c = 0; c < NAMES.length; c++) {
+            if (NAMES[c].equals(name)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    public static void setColumns(Job job, String... names) {
+        job.getConfiguration().setStrings(COLUMNS, names);
+    }
+
+    public static void setYearRange(Job job, int min, int max) {
+        job.getConfiguration().setInt(YEAR_MIN, min);
+        job.getConfiguration().setInt(YEAR_MAX, max);
+    }
+
+    public static void setReleaseYearRange(Job job, int min, int max) {
+        job.getConfiguration().setInt(RELEASE_YEAR_MIN, min);
+        job.getConfiguration().setInt(RELEASE_YEAR_MAX, max);
+    }
+
+    /**
+     * Columns to decode, from {@link #COLUMNS}; all of them when unset.
+     */
+    static boolean[] projection(Configuration conf) {
+        boolean[] wanted = new boolean[NAMES.length];
+        String[] names = conf.getTrimmedStrings(COLUMNS);
+        if (names.length == 0) {
+            Arrays.fill(wanted, true);
+            return wanted;
+        }
+        for (String name : names) {
+            int c = columnIndex(name);
+            if (c < 0) {
+                throw new IllegalArgumentException("Unknown column in " + COLUMNS + ": " + name);
+            }
+            wanted[c] = true;
+        }
+        return wanted;
+    }
+
+    /**
+     * Directory entry for one block, with min/max per column. Stats skip
+     * NaN and are NaN for text columns and for columns with no numbers.
+     */
+    static final class BlockInfo {
+        long offset;
+        int rows;
+        final int[] chunkLengths;
+        final double[] min;
+        final double[] max;
+
+        BlockInfo(int numColumns) {
+            chunkLengths = new int[numColumns];
+            min = new double[numColumns];
+            max = new double[numColumns];
+        }
+
+        long length() {
+            long n = 0;
+            for (int len : chunkLengths) {
+                n += len;
+            }
+            return n;
+        }
+
+        /**
+         * False only when the stats prove no row of the block has a value
+         * of the column inside [lo, hi].
+         */
+        boolean mayOverlap(int column, double lo, double hi) {
+            return Double.isNaN(min[column]) || (max[column] >= lo && min[column] <= hi);
+        }
+    }
+
+    /**
+     * Writes rows values as a width byte, the minimum, and narrow offsets.
+     */
+    static void writeLongs(DataOutputStream out, long[] values, int rows) throws IOException {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int r = 0; r < rows; r++) {
+            min = Math.min(min, values[r]);
+            max = Math.max(max, values[r]);
+        }
+        long range = max - min;
+        // A negative range overflowed and needs the full 8 bytes.
+        int width = range < 0 ? 8 : range < 0x80 ? 1 : range < 0x8000 ? 2 : range < 0x8000_0000L ? 4 : 8;
+        out.writeByte(width);
+        out.writeLong(min);
+        for (int r = 0; r < rows; r++) {
+            long v = values[r] - min;
+            switch (width) {
+                case 1:
+                    out.writeByte((int) v);
+                    break;
+                case 2:
+                    out.writeShort((int) v);
+                    break;
+                case 4:
+                    out.writeInt((int) v);
+                    break;
+                default:
+                    out.writeLong(v);
+                    break;
+            }
+        }
+    }
+
+    static void readLongs(ByteBuffer in, long[] dst, int rows) {
+        int width = in.get();
+        long min = in.getLong();
+        for (int r = 0; r < rows; r++) {
+            switch (width) {
+                case 1:
+                    dst[r] = min + in.get();
+                    break;
+                case 2:
+                    dst[r] = min + in.getShort();
+                    break;
+                case 4:
+                    dst[r] = min + in.getInt();
+                    break;
+                default:
+                    dst[r] = min + in.getLong();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writes a DOUBLE chunk, decimal-scaled when that is exact for every row.
+     * {@code scratch} must hold rows longs.
+     */
+    static void writeDoubles(DataOutputStream out, double[] values, int rows, long[] scratch)
+            throws IOException {
+        int scale = 0;
+        for (int r = 0; r < rows && scale >= 0; r++) {
+            while (scale >= 0 && !isDecimal(values[r], scale)) {
+                scale = scale < MAX_DECIMAL_SCALE ? scale + 1 : -1;
+            }
+        }
+        // Rows checked before the last scale bump are checked again here.
+        for (int r = 0; r < rows && scale >= 0; r++) {
+            if (!isDecimal(values[r], scale)) {
+                scale = -1;
+            } else {
+                scratch[r] = Math.round(values[r] * POW10[scale]);
+            }
+        }
+        out.writeByte(scale);
+        if (scale < 0) {
+            for (int r = 0; r < rows; r++) {
+                out.writeDouble(values[r]);
+            }
+        } else {
+            writeLongs(out, scratch, rows);
+        }
+    }
+
+    /**
+     * True when v is exactly u / 10^scale for some |u| < 2^53, so dividing
+     * u back reproduces v bit for bit (both divisions round the same real).
+     */
+    private static boolean isDecimal(double v, int scale) {
+        long u = Math.round(v * POW10[scale]);
+        return Math.abs(u) < MAX_EXACT
+                && Double.doubleToRawLongBits(u / POW10[scale]) == Double.doubleToRawLongBits(v);
+    }
+
+    static void readDoubles(ByteBuffer in, double[] dst, int rows, long[] scratch) {
+        int scale = in.get();
+        if (scale < 0) {
+            in.asDoubleBuffer().get(dst, 0, rows);
+            return;
+        }
+        readLongs(in, scratch, rows);
+        double p = POW10[scale];
+        for (int r = 0; r < rows; r++) {
+            dst[r] = scratch[r] / p;
+        }
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    static void writeFooter(DataOutputStream out, long footerOffset, List<BlockInfo> blocks)
+            throws IOException {
+        out.writeInt(NAMES.length);
+        for (int c = 0; c < NAMES.length; c++) {
+            out.writeByte(KINDS[c]);
+            out.writeUTF(NAMES[c]);
+        }
+        out.writeInt(blocks.size());
+        for (BlockInfo b : blocks) {
+            out.writeLong(b.offset);
+            out.writeInt(b.rows);
+            for (int c = 0; c < NAMES.length; c++) {
+                out.writeInt(b.chunkLengths[c]);
+                out.writeDouble(b.min[c]);
+                out.writeDouble(b.max[c]);
+            }
+        }
+        out.writeLong(footerOffset);
+        out.write(MAGIC);
+    }
+
+    /**
+     * Reads the block directory of a file, checking that its schema matches
+     * the one compiled in.
+     */
+    static List<BlockInfo> readFooter(FileSystem fs, Path file) throws IOException {
+        long fileLength = fs.getFileStatus(file).getLen();
+        if (fileLength < MAGIC.length + 4 + TAIL_LENGTH) {
+            throw new IOException("Not a columnar Spotify file (too short): " + file);
+        }
+        try (FSDataInputStream in = fs.open(file)) {
+            byte[] head = new byte[MAGIC.length];
+            in.readFully(head);
+            int version = in.readInt();
+            if (!Arrays.equals(head, MAGIC)) {
+                throw new IOException("Not a columnar Spotify file (bad magic): " + file);
+            }
+            if (version != VERSION) {
+                throw new IOException(file + " is format version " + version + ", expected " + VERSION
+                        + "; rewrite it with the cleaning job");
+            }
+
+            in.seek(fileLength - TAIL_LENGTH);
+            long footerOffset = in.readLong();
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a columnar Spotify file (bad magic): " + file);
+            }
+
+            in.seek(footerOffset);
+            int numColumns = in.readInt();
+            if (numColumns != NAMES.length) {
+                throw new IOException(file + " has " + numColumns + " columns, expected " + NAMES.length);
+            }
+            for (int c = 0; c < numColumns; c++) {
+                byte kind = in.readByte();
+                String name = in.readUTF();
+                if (kind != KINDS[c] || !name.equals(NAMES[c])) {
+                    throw new IOException(file + ": column " + c + " is " + name
+                            + ", expected " + NAMES[c]);
+                }
+            }
+            int numBlocks = in.readInt();
+            List<BlockInfo> blocks = new ArrayList<>(numBlocks);
+            for (int b = 0; b < numBlocks; b++) {
+                BlockInfo info = new BlockInfo(numColumns);
+                info.offset = in.readLong();
+                info.rows = in.readInt();
+                for (int c = 0; c < numColumns; c++) {
+                    info.chunkLengths[c] = in.readInt();
+                    info.min[c] = in.readDouble();
+                    info.max[c] = in.readDouble();
+                }
+                blocks.add(info);
+            }
+            return blocks;
+        }
+    }
+
+    /**
+     * One row of the block the record reader has decoded. The reader reuses
+     * a single Row, so values must be read before the next nextKeyValue().
+     * Columns left out of the projection throw when read.
+     */
+    public static final class Row {
+        final double[][] doubles = new double[NAMES.length][];
+        final int[][] ints = new int[NAMES.length][];
+        final long[][] longs = new long[NAMES.length][];
+        final byte[][] textBytes = new byte[NAMES.length][];
+        final int[][] textEnds = new int[NAMES.length][];
+        int row;
+
+        public double getDouble(int column) {
+            return checked(doubles[column], column)[row];
+        }
+
+        public int getInt(int column) {
+            return checked(ints[column], column)[row];
+        }
+
+        public long getLong(int column) {
+            return checked(longs[column], column)[row];
+        }
+
+        public void getText(int column, Text out) {
+            int[] ends = checked(textEnds[column], column);
+            int start = row == 0 ? 0 : ends[row - 1];
+            out.set(textBytes[column], start, ends[row] - start);
+        }
+
+        public String getString(int column) {
+            int[] ends = checked(textEnds[column], column);
+            int start = row == 0 ? 0 : ends[row - 1];
+            return new String(textBytes[column], start, ends[row] - start, StandardCharsets.UTF_8);
+        }
+
+        private static <T> T checked(T values, int column) {
+            if (values == null) {
+                throw new IllegalStateException("Column " + NAMES[column]
+                        + " is not decoded as this type; check " + COLUMNS);
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Reads {@link SpotifyColumnar} files, decoding only the projected columns.
+ *
+ * Splits are planned from the file footers: blocks whose year stats fall
+ * outside {@link SpotifyColumnar#YEAR_MIN}/{@link SpotifyColumnar#YEAR_MAX},
+ * or whose release_date stats fall outside
+ * {@link SpotifyColumnar#RELEASE_YEAR_MIN}/{@link SpotifyColumnar#RELEASE_YEAR_MAX},
+ * are left out, and the remaining consecutive blocks are packed into splits
+ * of up to the usual FileInputFormat split size. Within a block the reader
+ * seeks past the chunks of columns that are not projected, so they are never
+ * read from disk.
+ */
+public class SpotifyColumnarInputFormat
+        extends FileInputFormat<NullWritable, SpotifyColumnar.Row> {
+
+    private static final String COUNTER_GROUP = "COLUMNAR";
+
+    /**
+     * Blocks kept by the year and release year filters, in file order.
+     */
+    static List<SpotifyColumnar.BlockInfo> selectBlocks(Configuration conf,
+            List<SpotifyColumnar.BlockInfo> blocks) {
+        int yearMin = conf.getInt(SpotifyColumnar.YEAR_MIN, Integer.MIN_VALUE);
+        int yearMax = conf.getInt(SpotifyColumnar.YEAR_MAX, Integer.MAX_VALUE);
+        int releaseMin = conf.getInt(SpotifyColumnar.RELEASE_YEAR_MIN, Integer.MIN_VALUE);
+        int releaseMax = conf.getInt(SpotifyColumnar.RELEASE_YEAR_MAX, Integer.MAX_VALUE);
+        List<SpotifyColumnar.BlockInfo> kept = new ArrayList<>(blocks.size());
+        for (SpotifyColumnar.BlockInfo b : blocks) {
+            if (b.mayOverlap(SpotifyColumnar.YEAR_COLUMN, yearMin, yearMax)
+                    && b.mayOverlap(SpotifyColumnar.RELEASE_YEAR_COLUMN, releaseMin, releaseMax)) {
+                kept.add(b);
+            }
+        }
+        return kept;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        long maxSize = getMaxSplitSize(job);
+
+        List<InputSplit> splits = new ArrayList<>();
+        for (FileStatus file : listStatus(job)) {
+            Path path = file.getPath();
+            FileSystem fs = path.getFileSystem(conf);
+            List<SpotifyColumnar.BlockInfo> blocks = SpotifyColumnar.readFooter(fs, path);
+            List<SpotifyColumnar.BlockInfo> kept = selectBlocks(conf, blocks);
+            long splitSize = computeSplitSize(file.getBlockSize(), minSize, maxSize);
+            BlockLocation[] locations = fs.getFileBlockLocations(file, 0, file.getLen());
+
+            long start = -1;
+            long end = -1;
+            for (SpotifyColumnar.BlockInfo b : kept) {
+                // A gap means the blocks in between were filtered out.
+                if (start >= 0 && (b.offset != end || end - start >= splitSize)) {
+                    splits.add(split(path, start, end, locations));
+                    start = -1;
+                }
+                if (start < 0) {
+                    start = b.offset;
+                }
+                end = b.offset + b.length();
+            }
+            if (start >= 0) {
+                splits.add(split(path, start, end, locations));
+            }
+        }
+        return splits;
+    }
+
+    private FileSplit split(Path path, long start, long end, BlockLocation[] locations)
+            throws IOException {
+        String[] hosts = locations.length == 0
+                ? new String[0]
+                : locations[getBlockIndex(locations, start)].getHosts();
+        return new FileSplit(path, start, end - start, hosts);
+    }
+
+    @Override
+    public RecordReader<NullWritable, SpotifyColumnar.Row> createRecordReader(
+            InputSplit split, TaskAttemptContext context) {
+        return new ColumnarRecordReader();
+    }
+
+    /**
+     * Decodes one block at a time into per-column arrays and walks a shared
+     * {@link SpotifyColumnar.Row} over them.
+     */
+    static class ColumnarRecordReader extends RecordReader<NullWritable, SpotifyColumnar.Row> {
+
+        private final int numColumns = SpotifyColumnar.numColumns();
+        private final SpotifyColumnar.Row row = new SpotifyColumnar.Row();
+
+        private boolean[] projected;
+        private FSDataInputStream in;
+        private List<SpotifyColumnar.BlockInfo> blocks;
+        private int nextBlock;
+        private int rowsInBlock;
+        private byte[] chunk = new byte[64 * 1024];
+        private long[] scratch;
+
+        private org.apache.hadoop.mapreduce.Counter blocksRead;
+        private org.apache.hadoop.mapreduce.Counter rowsRead;
+        private org.apache.hadoop.mapreduce.Counter columnBytesRead;
+
+        @Override
+        public void initialize(InputSplit genericSplit, TaskAttemptContext context)
+                throws IOException {
+            FileSplit split = (FileSplit) genericSplit;
+            Configuration conf = context.getConfiguration();
+            projected = SpotifyColumnar.projection(conf);
+
+            Path path = split.getPath();
+            FileSystem fs = path.getFileSystem(conf);
+            long start = split.getStart();
+            long end = start + split.getLength();
+            blocks = new ArrayList<>();
+            for (SpotifyColumnar.BlockInfo b : selectBlocks(conf, SpotifyColumnar.readFooter(fs, path))) {
+                if (b.offset >= start && b.offset < end) {
+                    blocks.add(b);
+                }
+            }
+            in = fs.open(path);
+
+            blocksRead = context.getCounter(COUNTER_GROUP, "BLOCKS_READ");
+            rowsRead = context.getCounter(COUNTER_GROUP, "ROWS_READ");
+            columnBytesRead = context.getCounter(COUNTER_GROUP, "COLUMN_BYTES_READ");
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            if (row.row + 1 < rowsInBlock) {
+                row.row++;
+                return true;
+            }
+            while (nextBlock < blocks.size()) {
+                SpotifyColumnar.BlockInfo b = blocks.get(nextBlock++);
+                if (b.rows == 0) {
+                    continue;
+                }
+                readBlock(b);
+                row.row = 0;
+                return true;
+            }
+            return false;
+        }
+
+        private void readBlock(SpotifyColumnar.BlockInfo b) throws IOException {
+            long pos = b.offset;
+            long bytes = 0;
+            int rows = b.rows;
+            for (int c = 0; c < numColumns; c++) {
+                int len = b.chunkLengths[c];
+                if (!projected[c]) {
+                    pos += len;
+                    continue;
+                }
+                if (chunk.length < len) {
+                    chunk = new byte[Math.max(len, chunk.length * 2)];
+                }
+                if (in.getPos() != pos) {
+                    in.seek(pos);
+                }
+                in.readFully(chunk, 0, len);
+                pos += len;
+                bytes += len;
+
+                ByteBuffer buf = ByteBuffer.wrap(chunk, 0, len);
+                switch (SpotifyColumnar.kind(c)) {
+                    case SpotifyColumnar.DOUBLE:
+                        row.doubles[c] = ensure(row.doubles[c], rows);
+                        scratch = ensure(scratch, rows);
+                        SpotifyColumnar.readDoubles(buf, row.doubles[c], rows, scratch);
+                        break;
+                    case SpotifyColumnar.INT:
+                        row.ints[c] = ensure(row.ints[c], rows);
+                        scratch = ensure(scratch, rows);
+                        SpotifyColumnar.readLongs(buf, scratch, rows);
+                        for (int r = 0; r < rows; r++) {
+                            row.ints[c][r] = (int) scratch[r];
+                        }
+                        break;
+                    case SpotifyColumnar.LONG:
+                        row.longs[c] = ensure(row.longs[c], rows);
+                        SpotifyColumnar.readLongs(buf, row.longs[c], rows);
+                        break;
+                    default:
+                        row.textEnds[c] = ensure(row.textEnds[c], rows);
+                        buf.asIntBuffer().get(row.textEnds[c], 0, rows);
+                        int textLength = len - rows * 4;
+                        if (row.textBytes[c] == null || row.textBytes[c].length < textLength) {
+                            row.textBytes[c] = new byte[Math.max(textLength, 1024)];
+                        }
+                        System.arraycopy(chunk, rows * 4, row.textBytes[c], 0, textLength);
+                        break;
+                }
+            }
+            rowsInBlock = rows;
+            blocksRead.increment(1);
+            rowsRead.increment(rows);
+            columnBytesRead.increment(bytes);
+        }
+
+        private static double[] ensure(double[] a, int n) {
+            return a != null && a.length >= n ? a : new double[n];
+        }
+
+        private static int[] ensure(int[] a, int n) {
+            return a != null && a.length >= n ? a : new int[n];
+        }
+
+        private static long[] ensure(long[] a, int n) {
+            return a != null && a.length >= n ? a : new long[n];
+        }
+
+        @Override
+        public NullWritable getCurrentKey() {
+            return NullWritable.get();
+        }
+
+        @Override
+        public SpotifyColumnar.Row getCurrentValue() {
+            return row;
+        }
+
+        @Override
+        public float getProgress() {
+            return blocks.isEmpty() ? 1.0f : (float) nextBlock / blocks.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+}
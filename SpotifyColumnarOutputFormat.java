@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Writes the cleaner's CSV rows as {@link SpotifyColumnar} files.
+ *
+ * Takes the same (NullWritable, Text) pairs SpotifyCleanMapper emits, so
+ * switching the cleaning job to columnar output is only a matter of the
+ * output format class. The header row is dropped; the schema lives in the
+ * footer.
+ */
+public class SpotifyColumnarOutputFormat extends FileOutputFormat<NullWritable, Text> {
+
+    public static final String EXTENSION = ".scol";
+
+    @Override
+    public RecordWriter<NullWritable, Text> getRecordWriter(TaskAttemptContext context)
+            throws IOException {
+        Path file = getDefaultWorkFile(context, EXTENSION);
+        FileSystem fs = file.getFileSystem(context.getConfiguration());
+        int blockRows = context.getConfiguration().getInt(
+                SpotifyColumnar.BLOCK_ROWS, SpotifyColumnar.DEFAULT_BLOCK_ROWS);
+        return new ColumnarRecordWriter(fs.create(file, false), blockRows);
+    }
+
+    static class ColumnarRecordWriter extends RecordWriter<NullWritable, Text> {
+
+        private final FSDataOutputStream out;
+        private final int blockRows;
+        private final int numColumns = SpotifyColumnar.numColumns();
+
+        private final CsvFieldScanner scanner = new CsvFieldScanner();
+        private final List<SpotifyColumnar.BlockInfo> blocks = new ArrayList<>();
+
+        private final double[][] doubles = new double[numColumns][];
+        // INT columns share the long buffers; both use the same chunk encoding.
+        private final long[][] longs = new long[numColumns][];
+        private final long[] scratch;
+        private final double[] minMax = new double[2];
+        private final byte[][] textBytes = new byte[numColumns][];
+        private final int[][] textEnds = new int[numColumns][];
+        private int rows;
+
+        ColumnarRecordWriter(FSDataOutputStream out, int blockRows) throws IOException {
+            this.out = out;
+            this.blockRows = blockRows;
+            this.scratch = new long[blockRows];
+            for (int c = 0; c < numColumns; c++) {
+                switch (SpotifyColumnar.kind(c)) {
+                    case SpotifyColumnar.DOUBLE:
+                        doubles[c] = new double[blockRows];
+                        break;
+                    case SpotifyColumnar.INT:
+                    case SpotifyColumnar.LONG:
+                        longs[c] = new long[blockRows];
+                        break;
+                    default:
+                        textBytes[c] = new byte[blockRows * 16];
+                        textEnds[c] = new int[blockRows];
+                        break;
+                }
+            }
+            SpotifyColumnar.writeHeader(out);
+        }
+
+        @Override
+        public void write(NullWritable key, Text value) throws IOException {
+            int numFields = scanner.scan(value);
+            if (scanner.isBlankLine() || scanner.lineStartsWith("valence")) {
+                return;
+            }
+            if (numFields != numColumns) {
+                throw new IOException("Expected " + numColumns + " cleaned columns, got "
+                        + numFields + ": " + value);
+            }
+            try {
+                for (int c = 0; c < numColumns; c++) {
+                    switch (SpotifyColumnar.kind(c)) {
+                        case SpotifyColumnar.DOUBLE:
+                            doubles[c][rows] = scanner.parseDouble(c);
+                            break;
+                        case SpotifyColumnar.INT:
+                            longs[c][rows] = scanner.parseInt(c);
+                            break;
+                        case SpotifyColumnar.LONG:
+                            longs[c][rows] = scanner.parseLong(c);
+                            break;
+                        default:
+                            appendText(c);
+                            break;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Unparsable cleaned row: " + value, e);
+            }
+            if (++rows == blockRows) {
+                flushBlock();
+            }
+        }
+
+        private void appendText(int c) {
+            int start = rows == 0 ? 0 : textEnds[c][rows - 1];
+            byte[] src;
+            int from;
+            int len;
+            if (scanner.isQuoted(c)) {
+                src = scanner.getString(c).getBytes(StandardCharsets.UTF_8);
+                from = 0;
+                len = src.length;
+            } else {
+                src = scanner.bytes();
+                from = scanner.start(c);
+                len = scanner.end(c) - from;
+            }
+            if (start + len > textBytes[c].length) {
+                textBytes[c] = Arrays.copyOf(textBytes[c], Math.max(textBytes[c].length * 2, start + len));
+            }
+            System.arraycopy(src, from, textBytes[c], start, len);
+            textEnds[c][rows] = start + len;
+        }
+
+        private void flushBlock() throws IOException {
+            if (rows == 0) {
+                return;
+            }
+            SpotifyColumnar.BlockInfo info = new SpotifyColumnar.BlockInfo(numColumns);
+            info.offset = out.getPos();
+            info.rows = rows;
+            for (int c = 0; c < numColumns; c++) {
+                long chunkStart = out.getPos();
+                double min = Double.NaN;
+                double max = Double.NaN;
+                switch (SpotifyColumnar.kind(c)) {
+                    case SpotifyColumnar.DOUBLE:
+                        FeatureKernels.minMax(doubles[c], 0, rows, minMax);
+                        min = minMax[0];
+                        max = minMax[1];
+                        SpotifyColumnar.writeDoubles(out, doubles[c], rows, scratch);
+                        break;
+                    case SpotifyColumnar.INT:
+                    case SpotifyColumnar.LONG:
+                        for (int r = 0; r < rows; r++) {
+                            long v = longs[c][r];
+                            min = r == 0 ? v : Math.min(min, v);
+                            max = r == 0 ? v : Math.max(max, v);
+                        }
+                        SpotifyColumnar.writeLongs(out, longs[c], rows);
+                        break;
+                    default:
+                        for (int r = 0; r < rows; r++) {
+                            out.writeInt(textEnds[c][r]);
+                        }
+                        out.write(textBytes[c], 0, textEnds[c][rows - 1]);
+                        break;
+                }
+                info.chunkLengths[c] = (int) (out.getPos() - chunkStart);
+                info.min[c] = min;
+                info.max[c] = max;
+            }
+            blocks.add(info);
+            rows = 0;
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException {
+            flushBlock();
+            SpotifyColumnar.writeFooter(out, out.getPos(), blocks);
+            out.close();
+        }
+    }
+}
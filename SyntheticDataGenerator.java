@@ -0,0 +1,736 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Seeded generator of load-test inputs in the raw layouts the jobs read:
+ * Spotify CSV (19 columns, for SpotifyCleanMapper), Billboard Hot 100 CSV
+ * (8 columns, for hot100Mapper) and tweet TSV (tweetId, userId, artistId,
+ * trackId, timestamp, as tweets_clean_mapper.py reads it, or with the weekday
+ * column TweetProfileJob reads when {@link #TWEETS_CLEANED} is set).
+ *
+ * Every row is a function of the seed, the dataset and the row number only,
+ * so output is the same for any thread or file count; rows are split into
+ * {@link #FILES} part files written in parallel through the output path's
+ * FileSystem, local or HDFS.
+ *
+ * Tweets and chart entries pick tracks Zipf-distributed over
+ * {@link #TRACKS}, and track t always has the same artist (itself drawn
+ * Zipf over {@link #ARTISTS}), name, year and id, so the datasets join on
+ * artist and track as the real ones do. Spotify row r describes track
+ * r mod TRACKS.
+ *
+ * Dirtiness is per field: with the configured probabilities a field is left
+ * empty, moved out of its valid range, replaced by an unparsable token or,
+ * for text, quoted with an embedded comma. A fraction of rows is also cut
+ * short. The number of each kind written is printed at the end.
+ *
+ * Those tallies count dirty fields, not what a cleaner rejects. Spotify dirt
+ * shows up field by field in SpotifyCleanMapper's CLEANING_FIX counters
+ * (missing, parse error, clipped) and truncated rows in BAD_NUM_FIELDS.
+ * hot100Mapper only checks the shape of a field, so out-of-range Hot 100
+ * dates and numbers (2019-02-30, rank 130) pass it as RECORDS_CLEANED; its
+ * HOT100_CLEANING counters count rejected rows, once each however many of
+ * their fields are dirty.
+ */
+public class SyntheticDataGenerator {
+
+    public static final String SEED = "synth.seed";
+    /** Writer threads, default the number of processors. */
+    public static final String THREADS = "synth.threads";
+    /** Part files, default the number of threads. */
+    public static final String FILES = "synth.files";
+    /** Header line at the top of the first file (CSV datasets), default true. */
+    public static final String HEADER = "synth.header";
+    public static final String ARTISTS = "synth.artists";
+    public static final String TRACKS = "synth.tracks";
+    public static final String USERS = "synth.users";
+    /** Zipf exponent of artist, track and user popularity, default 1.1. */
+    public static final String ZIPF_EXPONENT = "synth.zipf.exponent";
+    /** Per-field probabilities of each kind of dirt, default 0. */
+    public static final String MISSING = "synth.dirty.missing";
+    public static final String OUT_OF_RANGE = "synth.dirty.outofrange";
+    public static final String UNPARSABLE = "synth.dirty.unparsable";
+    public static final String QUOTED = "synth.dirty.quoted";
+    /** Per-row probability of a truncated row, default 0. */
+    public static final String MALFORMED = "synth.dirty.malformed";
+    /** Tweets in the cleaned six-column layout (with weekday), default false. */
+    public static final String TWEETS_CLEANED = "synth.tweets.cleaned";
+
+    static final String SPOTIFY_HEADER = "valence,year,acousticness,artists,danceability,duration_ms,"
+            + "energy,explicit,id,instrumentalness,key,liveness,loudness,mode,name,popularity,"
+            + "release_date,speechiness,tempo";
+    static final String HOT100_HEADER = "Date,Song,Artist,Rank,Last Week,Peak Position,Weeks in Charts,Image";
+
+    enum Dataset {
+        SPOTIFY(".csv", SPOTIFY_HEADER),
+        HOT100(".csv", HOT100_HEADER),
+        TWEETS(".tsv", null);
+
+        final String extension;
+        final String header;
+
+        Dataset(String extension, String header) {
+            this.extension = extension;
+            this.header = header;
+        }
+    }
+
+    // Kinds of dirt, also the indexes of the printed tallies.
+    static final int CLEAN = 0;
+    static final int DIRTY_MISSING = 1;
+    static final int DIRTY_OUT_OF_RANGE = 2;
+    static final int DIRTY_UNPARSABLE = 3;
+    static final int DIRTY_QUOTED = 4;
+    static final int DIRTY_MALFORMED = 5;
+    private static final String[] TALLIES = {
+        "CLEAN_ROWS", "MISSING", "OUT_OF_RANGE", "UNPARSABLE", "QUOTED", "MALFORMED_ROWS"
+    };
+
+    private static final String[] GARBAGE = {"abc", "n/a", "1.2.3", "--", "#VALUE!", "?", "12a", "0x1F"};
+    private static final char[] BASE62 =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+    private static final long HOT100_FIRST_WEEK = LocalDate.of(1958, 8, 4).toEpochDay();
+    private static final int HOT100_WEEKS = 3300;
+    private static final long TWEETS_FIRST_DAY = LocalDate.of(2014, 1, 1).toEpochDay();
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** SplitMix64, reseeded per row so rows do not depend on each other. */
+    static final class Rng {
+        private long state;
+
+        void reset(long seed) {
+            state = seed;
+        }
+
+        long nextLong() {
+            state += GOLDEN;
+            return mix(state);
+        }
+
+        double nextDouble() {
+            return (nextLong() >>> 11) * 0x1.0p-53;
+        }
+
+        int nextInt(int bound) {
+            return (int) (((nextLong() >>> 33) * bound) >>> 31);
+        }
+
+        boolean chance(double p) {
+            return p > 0 && nextDouble() < p;
+        }
+    }
+
+    /**
+     * Zipf sampler over 1..n by rejection-inversion (Hoermann and
+     * Derflinger): O(1) per draw and no tables, so n can be in the billions.
+     */
+    static final class Zipf {
+        private final long n;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double s;
+
+        Zipf(long n, double exponent) {
+            if (n < 1 || !(exponent > 0)) {
+                throw new IllegalArgumentException("Zipf needs n >= 1 and exponent > 0: " + n + ", " + exponent);
+            }
+            this.n = n;
+            this.exponent = exponent;
+            hIntegralX1 = hIntegral(1.5) - 1;
+            hIntegralN = hIntegral(n + 0.5);
+            s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        long sample(Rng rng) {
+            while (true) {
+                double u = hIntegralN + rng.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                long k = (long) (x + 0.5);
+                if (k < 1) {
+                    k = 1;
+                } else if (k > n) {
+                    k = n;
+                }
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = x * (1 - exponent);
+            if (t < -1) {
+                t = -1;
+            }
+            return Math.exp(helper1(t) * x);
+        }
+
+        /** log1p(x) / x, continuous at 0. */
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        /** expm1(x) / x, continuous at 0. */
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+
+    /** Byte row buffer flushed to the output stream in large writes. */
+    static final class Row {
+        private byte[] buf = new byte[1 << 20];
+        private int len;
+
+        void ascii(String s) {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                buf[len++] = (byte) s.charAt(i);
+            }
+        }
+
+        void ch(char c) {
+            ensure(1);
+            buf[len++] = (byte) c;
+        }
+
+        void number(long v) {
+            ensure(20);
+            if (v < 0) {
+                buf[len++] = '-';
+                v = -v;
+            }
+            int start = len;
+            do {
+                buf[len++] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v > 0);
+            for (int i = start, j = len - 1; i < j; i++, j--) {
+                byte t = buf[i];
+                buf[i] = buf[j];
+                buf[j] = t;
+            }
+        }
+
+        void padded(long v, int width) {
+            ensure(width);
+            for (int i = width - 1; i >= 0; i--) {
+                buf[len + i] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            len += width;
+        }
+
+        void fixed(double v, int decimals) {
+            long scale = 1;
+            for (int i = 0; i < decimals; i++) {
+                scale *= 10;
+            }
+            long scaled = Math.round(Math.abs(v) * scale);
+            if (v < 0 && scaled != 0) {
+                ch('-');
+            }
+            number(scaled / scale);
+            if (decimals > 0) {
+                ch('.');
+                padded(scaled % scale, decimals);
+            }
+        }
+
+        void date(long epochDay) {
+            LocalDate d = LocalDate.ofEpochDay(epochDay);
+            padded(d.getYear(), 4);
+            ch('-');
+            padded(d.getMonthValue(), 2);
+            ch('-');
+            padded(d.getDayOfMonth(), 2);
+        }
+
+        /** Drops everything after the given number of separators. */
+        void truncate(int rowStart, char separator, int keepFields) {
+            int seen = 0;
+            for (int i = rowStart; i < len; i++) {
+                if (buf[i] == separator && ++seen == keepFields) {
+                    len = i;
+                    return;
+                }
+            }
+        }
+
+        int length() {
+            return len;
+        }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+            }
+        }
+
+        void flushIfFull(OutputStream out) throws IOException {
+            if (len >= (1 << 20) - 4096) {
+                flush(out);
+            }
+        }
+
+        void flush(OutputStream out) throws IOException {
+            out.write(buf, 0, len);
+            len = 0;
+        }
+    }
+
+    private final Configuration conf;
+    private final Dataset dataset;
+    private final long seed;
+    private final long tracks;
+    private final Zipf artistZipf;
+    private final Zipf trackZipf;
+    private final Zipf userZipf;
+    private final double missing;
+    private final double outOfRange;
+    private final double unparsable;
+    private final double quoted;
+    private final double malformed;
+    private final boolean tweetsCleaned;
+
+    SyntheticDataGenerator(Configuration conf, Dataset dataset) {
+        this.conf = conf;
+        this.dataset = dataset;
+        seed = conf.getLong(SEED, 42L);
+        double exponent = conf.getDouble(ZIPF_EXPONENT, 1.1);
+        tracks = conf.getLong(TRACKS, 1_000_000L);
+        artistZipf = new Zipf(conf.getLong(ARTISTS, 10_000L), exponent);
+        trackZipf = new Zipf(tracks, exponent);
+        userZipf = new Zipf(conf.getLong(USERS, 100_000L), exponent);
+        missing = conf.getDouble(MISSING, 0.0);
+        outOfRange = conf.getDouble(OUT_OF_RANGE, 0.0);
+        unparsable = conf.getDouble(UNPARSABLE, 0.0);
+        quoted = conf.getDouble(QUOTED, 0.0);
+        malformed = conf.getDouble(MALFORMED, 0.0);
+        if (missing + outOfRange + unparsable + quoted > 1) {
+            throw new IllegalArgumentException("Dirty field probabilities add up to more than 1");
+        }
+        tweetsCleaned = conf.getBoolean(TWEETS_CLEANED, false);
+    }
+
+    /**
+     * One writer thread's state. Track attributes come from their own
+     * generator seeded by the track id, so they agree across rows and datasets.
+     */
+    final class Worker implements Callable<long[]> {
+        private final Path file;
+        private final long start;
+        private final long end;
+        private final boolean header;
+        private final Rng rng = new Rng();
+        private final Rng trackRng = new Rng();
+        private final Row row = new Row();
+        private final long[] tallies = new long[TALLIES.length];
+        private boolean dirtyRow;
+
+        // Attributes of the last track loaded by track().
+        private long trackArtist;
+        private int trackYear;
+
+        Worker(Path file, long start, long end, boolean header) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.header = header;
+        }
+
+        @Override
+        public long[] call() throws IOException {
+            FileSystem fs = file.getFileSystem(conf);
+            long base = mix(seed ^ ((long) dataset.ordinal() << 56));
+            try (OutputStream out = new BufferedOutputStream(fs.create(file, false), 1 << 16)) {
+                if (header && dataset.header != null) {
+                    row.ascii(dataset.header);
+                    row.ch('\n');
+                }
+                for (long r = start; r < end; r++) {
+                    rng.reset(mix(base + r * GOLDEN));
+                    dirtyRow = false;
+                    int rowStart = row.length();
+                    switch (dataset) {
+                        case SPOTIFY:
+                            spotify(r);
+                            break;
+                        case HOT100:
+                            hot100(r);
+                            break;
+                        default:
+                            tweet(r);
+                            break;
+                    }
+                    if (rng.chance(malformed)) {
+                        int fields = dataset == Dataset.SPOTIFY ? 19 : dataset == Dataset.HOT100 ? 8 : 5;
+                        row.truncate(rowStart, dataset == Dataset.TWEETS ? '\t' : ',', 1 + rng.nextInt(fields - 2));
+                        tallies[DIRTY_MALFORMED]++;
+                        dirtyRow = true;
+                    }
+                    if (!dirtyRow) {
+                        tallies[CLEAN]++;
+                    }
+                    row.ch('\n');
+                    row.flushIfFull(out);
+                }
+                row.flush(out);
+            }
+            return tallies;
+        }
+
+        private void track(long t) {
+            trackRng.reset(mix(seed ^ 0x5bd1e995L) + t * GOLDEN);
+            trackArtist = artistZipf.sample(trackRng);
+            // Skewed towards recent years, as the catalogue is.
+            trackYear = 1921 + (int) (100 * Math.sqrt(trackRng.nextDouble()));
+        }
+
+        /** Kind of dirt for the next field; quoting applies to text only. */
+        private int dirt(boolean text) {
+            if (missing + outOfRange + unparsable + quoted == 0) {
+                return CLEAN;
+            }
+            double u = rng.nextDouble();
+            int kind;
+            if (u < missing) {
+                kind = DIRTY_MISSING;
+            } else if (u < missing + outOfRange) {
+                kind = text ? CLEAN : DIRTY_OUT_OF_RANGE;
+            } else if (u < missing + outOfRange + unparsable) {
+                kind = text ? CLEAN : DIRTY_UNPARSABLE;
+            } else if (u < missing + outOfRange + unparsable + quoted) {
+                kind = text ? DIRTY_QUOTED : CLEAN;
+            } else {
+                kind = CLEAN;
+            }
+            if (kind != CLEAN) {
+                tallies[kind]++;
+                dirtyRow = true;
+            }
+            return kind;
+        }
+
+        private void garbage() {
+            row.ascii(GARBAGE[rng.nextInt(GARBAGE.length)]);
+        }
+
+        /** A value in [lo, hi], or dirt; out of range lands up to 50% of the span outside. */
+        private void decimal(double value, double lo, double hi, int decimals) {
+            switch (dirt(false)) {
+                case DIRTY_MISSING:
+                    break;
+                case DIRTY_OUT_OF_RANGE:
+                    double off = (hi - lo) * (0.01 + 0.5 * rng.nextDouble());
+                    row.fixed(rng.nextInt(2) == 0 ? lo - off : hi + off, decimals);
+                    break;
+                case DIRTY_UNPARSABLE:
+                    garbage();
+                    break;
+                default:
+                    row.fixed(value, decimals);
+                    break;
+            }
+        }
+
+        private void integer(long value, long lo, long hi) {
+            switch (dirt(false)) {
+                case DIRTY_MISSING:
+                    break;
+                case DIRTY_OUT_OF_RANGE:
+                    long off = Math.max(1, (long) ((hi - lo) * (0.01 + 0.5 * rng.nextDouble())));
+                    row.number(rng.nextInt(2) == 0 ? lo - off : hi + off);
+                    break;
+                case DIRTY_UNPARSABLE:
+                    garbage();
+                    break;
+                default:
+                    row.number(value);
+                    break;
+            }
+        }
+
+        /** prefix + id + suffix, or dirt; quoted dirt adds a comma inside quotes. */
+        private void text(String prefix, long id, String suffix) {
+            switch (dirt(true)) {
+                case DIRTY_MISSING:
+                    break;
+                case DIRTY_QUOTED:
+                    row.ch('"');
+                    row.ascii(prefix);
+                    row.number(id);
+                    row.ascii(", Pt. ");
+                    row.number(1 + rng.nextInt(3));
+                    row.ascii(suffix);
+                    row.ch('"');
+                    break;
+                default:
+                    row.ascii(prefix);
+                    row.number(id);
+                    row.ascii(suffix);
+                    break;
+            }
+        }
+
+        private void spotify(long r) {
+            long t = r % tracks + 1;
+            track(t);
+            double energy = Math.pow(rng.nextDouble(), 0.7);
+            decimal(rng.nextDouble(), 0, 1, 4);
+            row.ch(',');
+            integer(trackYear, 1921, 2020);
+            row.ch(',');
+            decimal(Math.pow(rng.nextDouble(), 2), 0, 1, 4);
+            row.ch(',');
+            text("['Artist ", trackArtist, "']");
+            row.ch(',');
+            decimal(0.2 + 0.75 * rng.nextDouble(), 0, 0.99, 3);
+            row.ch(',');
+            integer(60_000 + rng.nextInt(420_000), 5108, 5_400_000);
+            row.ch(',');
+            decimal(energy, 0, 1, 4);
+            row.ch(',');
+            integer(rng.chance(0.1) ? 1 : 0, 0, 1);
+            row.ch(',');
+            trackId(t);
+            row.ch(',');
+            decimal(Math.pow(rng.nextDouble(), 6), 0, 1, 4);
+            row.ch(',');
+            integer(rng.nextInt(12), 0, 11);
+            row.ch(',');
+            decimal(0.05 + 0.6 * Math.pow(rng.nextDouble(), 2), 0, 1, 4);
+            row.ch(',');
+            decimal(-30 + 28 * energy + 2 * rng.nextDouble(), -60, 3.85, 3);
+            row.ch(',');
+            integer(rng.chance(0.7) ? 1 : 0, 0, 1);
+            row.ch(',');
+            text("Song ", t, "");
+            row.ch(',');
+            integer(Math.max(0, Math.min(100, 90 - (long) (8 * Math.log(t)) + rng.nextInt(10))), 0, 100);
+            row.ch(',');
+            switch (dirt(false)) {
+                case DIRTY_MISSING:
+                    break;
+                case DIRTY_OUT_OF_RANGE:
+                    row.ascii(rng.nextInt(2) == 0 ? "1850-01-01" : "2150-06-30");
+                    break;
+                case DIRTY_UNPARSABLE:
+                    garbage();
+                    break;
+                default:
+                    row.date(LocalDate.of(trackYear, 1, 1).toEpochDay() + rng.nextInt(365));
+                    break;
+            }
+            row.ch(',');
+            decimal(0.03 + 0.3 * Math.pow(rng.nextDouble(), 3), 0, 0.97, 4);
+            row.ch(',');
+            decimal(70 + 110 * rng.nextDouble(), 0, 244, 3);
+        }
+
+        /** A 22-character base62 id fixed per track; only ever missing, which drops the row. */
+        private void trackId(long t) {
+            if (missing > 0 && rng.chance(missing)) {
+                tallies[DIRTY_MISSING]++;
+                dirtyRow = true;
+                return;
+            }
+            long h = 0;
+            for (int i = 0; i < 22; i++) {
+                if (i % 10 == 0) {
+                    h = mix(seed + t * GOLDEN + i);
+                }
+                row.ch(BASE62[(int) Long.remainderUnsigned(h, 62)]);
+                h = Long.divideUnsigned(h, 62);
+            }
+        }
+
+        /** A positive id, or dirt: out of range is negative. */
+        private void id(long value) {
+            switch (dirt(false)) {
+                case DIRTY_MISSING:
+                    break;
+                case DIRTY_OUT_OF_RANGE:
+                    row.number(-value);
+                    break;
+                case DIRTY_UNPARSABLE:
+                    garbage();
+                    break;
+                default:
+                    row.number(value);
+                    break;
+            }
+        }
+
+        private void hot100(long r) {
+            long t = trackZipf.sample(rng);
+            track(t);
+            int rank = (int) (r % 100) + 1;
+            switch (dirt(false)) {                                       // Date
+                case DIRTY_MISSING:
+                    break;
+                case DIRTY_OUT_OF_RANGE:
+                    row.ascii(rng.nextInt(2) == 0 ? "2019-13-05" : "2019-02-30");
+                    break;
+                case DIRTY_UNPARSABLE:
+                    garbage();
+                    break;
+                default:
+                    row.date(HOT100_FIRST_WEEK + 7 * ((r / 100) % HOT100_WEEKS));
+                    break;
+            }
+            row.ch(',');
+            text("Song ", t, "");
+            row.ch(',');
+            text("Artist ", trackArtist, "");
+            row.ch(',');
+            integer(rank, 1, 100);
+            row.ch(',');
+            // New entries have no last week, which is not dirt.
+            if (!rng.chance(0.1)) {
+                integer(1 + rng.nextInt(100), 1, 100);
+            }
+            row.ch(',');
+            integer(1 + rng.nextInt(rank), 1, 100);
+            row.ch(',');
+            integer(1 + rng.nextInt(87), 1, 87);
+            row.ascii(",https://charts.example/img/");
+            row.number(t);
+            row.ascii(".jpg");
+        }
+
+        private void tweet(long r) {
+            long t = trackZipf.sample(rng);
+            track(t);
+            long day = TWEETS_FIRST_DAY + rng.nextInt(365);
+            int second = rng.nextInt(86400);
+            id(r + 1);
+            row.ch('\t');
+            id(userZipf.sample(rng));
+            row.ch('\t');
+            id(trackArtist);
+            row.ch('\t');
+            id(t);
+            row.ch('\t');
+            switch (dirt(false)) {
+                case DIRTY_MISSING:
+                    break;
+                case DIRTY_OUT_OF_RANGE:
+                    row.ascii("2014-13-40 25:61:00");
+                    break;
+                case DIRTY_UNPARSABLE:
+                    garbage();
+                    break;
+                default:
+                    row.date(day);
+                    row.ch(' ');
+                    row.padded(second / 3600, 2);
+                    row.ch(':');
+                    row.padded(second / 60 % 60, 2);
+                    row.ch(':');
+                    row.padded(second % 60, 2);
+                    break;
+            }
+            if (tweetsCleaned) {
+                row.ch('\t');
+                // Python's weekday(): Monday is 0.
+                row.number(LocalDate.ofEpochDay(day).getDayOfWeek().getValue() - 1);
+            }
+        }
+    }
+
+    /**
+     * Writes rows [0, rows) to outDir as part files and returns the tallies.
+     */
+    long[] generate(long rows, Path outDir) throws IOException, InterruptedException {
+        int threads = conf.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+        int files = (int) Math.max(1, Math.min(rows, conf.getInt(FILES, threads)));
+        FileSystem fs = outDir.getFileSystem(conf);
+        if (fs.exists(outDir)) {
+            throw new IOException("Output directory " + outDir + " already exists");
+        }
+        fs.mkdirs(outDir);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files)));
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int f = 0; f < files; f++) {
+                long start = rows * f / files;
+                long end = rows * (f + 1) / files;
+                Path file = new Path(outDir, String.format(Locale.ROOT, "part-%05d%s", f, dataset.extension));
+                results.add(pool.submit(new Worker(file, start, end, f == 0 && conf.getBoolean(HEADER, true))));
+            }
+            long[] totals = new long[TALLIES.length];
+            for (Future<long[]> result : results) {
+                long[] tallies = result.get();
+                for (int i = 0; i < totals.length; i++) {
+                    totals[i] += tallies[i];
+                }
+            }
+            return totals;
+        } catch (ExecutionException e) {
+            throw new IOException("Generator thread failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length != 3) {
+            System.err.println("Usage: SyntheticDataGenerator [-D " + SEED + "=42] [-D " + THREADS + "=N] [-D "
+                    + FILES + "=N] [-D synth.dirty.missing|outofrange|unparsable|quoted|malformed=p]"
+                    + " <spotify|hot100|tweets> <rows> <output dir>");
+            System.exit(-1);
+        }
+
+        Dataset dataset = Dataset.valueOf(args[0].trim().toUpperCase(Locale.ROOT));
+        long rows = Long.parseLong(args[1].replace("_", ""));
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(conf, dataset);
+
+        long begin = System.nanoTime();
+        long[] tallies = generator.generate(rows, new Path(args[2]));
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        Path out = new Path(args[2]);
+        long bytes = out.getFileSystem(conf).getContentSummary(out).getLength();
+        System.err.printf(Locale.ROOT, "%s: %d rows, %d bytes in %.1f s (%.0f rows/s)%n",
+                dataset.name().toLowerCase(Locale.ROOT), rows, bytes, seconds, rows / seconds);
+        for (int i = 0; i < TALLIES.length; i++) {
+            System.err.println(TALLIES[i] + "=" + tallies[i]);
+        }
+    }
+}
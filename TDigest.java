@@ -0,0 +1,334 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Mergeable quantile summary: a merging t-digest (Dunning and Ertl).
+ *
+ * Values are buffered and periodically merged into a sorted list of
+ * centroids (mean, weight). Under the k1 scale function
+ * k(q) = delta / (2 pi) * asin(2q - 1) a centroid may span at most one unit
+ * of k, so centroids stay small in the tails and grow in the middle, and a
+ * digest holds at most about delta of them however many values it has seen.
+ * Centroids of weight 1 are the values themselves, so small inputs are
+ * summarized exactly.
+ *
+ * Two digests merge by feeding one's centroids through the other's buffer,
+ * so map-side partials can be combined in any order. Weights are whole
+ * counts and go on the wire as vlongs next to the double means.
+ *
+ * Not thread-safe.
+ */
+public final class TDigest implements Writable {
+
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private double compression;
+
+    // Merged centroids, sorted by mean.
+    private double[] means;
+    private long[] weights;
+    private int centroids;
+
+    // Unsorted values and centroids waiting to be merged.
+    private double[] bufferMeans;
+    private long[] bufferWeights;
+    private int buffered;
+
+    // Scratch for compress(): centroids and buffer merged by mean.
+    private double[] sortedMeans;
+    private long[] sortedWeights;
+
+    private long totalWeight;
+    private double min;
+    private double max;
+
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compression delta; larger keeps more centroids and is more
+     *                    accurate (at least 10)
+     */
+    public TDigest(double compression) {
+        reset(compression);
+    }
+
+    private void reset(double compression) {
+        if (!(compression >= 10)) {
+            throw new IllegalArgumentException("t-digest compression must be at least 10: " + compression);
+        }
+        if (this.compression != compression) {
+            // k1 leaves at most delta + 1 centroids; the buffer amortizes the sort.
+            int capacity = (int) Math.ceil(compression) + 2;
+            means = new double[capacity];
+            weights = new long[capacity];
+            bufferMeans = new double[capacity * 5];
+            bufferWeights = new long[capacity * 5];
+            sortedMeans = new double[capacity * 6];
+            sortedWeights = new long[capacity * 6];
+            this.compression = compression;
+        }
+        clear();
+    }
+
+    public void clear() {
+        centroids = 0;
+        buffered = 0;
+        totalWeight = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    public double getCompression() {
+        return compression;
+    }
+
+    /** Number of values summarized, summed over merges. */
+    public long size() {
+        return totalWeight;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /** Centroids after merging the buffer. */
+    public int centroidCount() {
+        compress();
+        return centroids;
+    }
+
+    /**
+     * Adds one value. NaN is ignored.
+     */
+    public void add(double x) {
+        if (Double.isNaN(x)) {
+            return;
+        }
+        add(x, 1);
+        min = Math.min(min, x);
+        max = Math.max(max, x);
+    }
+
+    private void add(double mean, long weight) {
+        if (buffered == bufferMeans.length) {
+            compress();
+        }
+        bufferMeans[buffered] = mean;
+        bufferWeights[buffered] = weight;
+        buffered++;
+        totalWeight += weight;
+    }
+
+    /**
+     * Folds another digest into this one. The compressions may differ; this
+     * digest keeps its own.
+     */
+    public void merge(TDigest other) {
+        if (other.totalWeight == 0) {
+            return;
+        }
+        for (int i = 0; i < other.centroids; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        for (int i = 0; i < other.buffered; i++) {
+            add(other.bufferMeans[i], other.bufferWeights[i]);
+        }
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /** Upper edge, as a fraction of the total weight, of the centroid starting at q. */
+    private double qLimit(double q) {
+        double k = compression / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+        if (k >= compression / 4) {
+            return 1;
+        }
+        return (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    private void compress() {
+        if (buffered == 0) {
+            return;
+        }
+        sort(bufferMeans, bufferWeights, 0, buffered - 1);
+        if (centroids + buffered > sortedMeans.length) {
+            sortedMeans = new double[centroids + buffered];
+            sortedWeights = new long[centroids + buffered];
+        }
+
+        // Merge the sorted buffer with the existing centroids.
+        int n = 0;
+        int a = 0;
+        int b = 0;
+        while (a < centroids || b < buffered) {
+            if (b == buffered || (a < centroids && means[a] <= bufferMeans[b])) {
+                sortedMeans[n] = means[a];
+                sortedWeights[n++] = weights[a++];
+            } else {
+                sortedMeans[n] = bufferMeans[b];
+                sortedWeights[n++] = bufferWeights[b++];
+            }
+        }
+
+        // Greedily absorb neighbours while the centroid stays within one unit of k.
+        double total = totalWeight;
+        long soFar = 0;
+        double limit = total * qLimit(0);
+        double mean = sortedMeans[0];
+        long weight = sortedWeights[0];
+        centroids = 0;
+        for (int i = 1; i < n; i++) {
+            long w = sortedWeights[i];
+            if (soFar + weight + w <= limit) {
+                weight += w;
+                mean += (sortedMeans[i] - mean) * w / weight;
+            } else {
+                emit(mean, weight);
+                soFar += weight;
+                limit = total * qLimit(soFar / total);
+                mean = sortedMeans[i];
+                weight = w;
+            }
+        }
+        emit(mean, weight);
+        buffered = 0;
+    }
+
+    private void emit(double mean, long weight) {
+        if (centroids == means.length) {
+            means = Arrays.copyOf(means, centroids * 2);
+            weights = Arrays.copyOf(weights, centroids * 2);
+        }
+        means[centroids] = mean;
+        weights[centroids++] = weight;
+    }
+
+    /** Quicksort of parallel arrays by mean, insertion sort for short runs. */
+    private static void sort(double[] m, long[] w, int lo, int hi) {
+        while (hi - lo > 16) {
+            double pivot = m[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (m[i] < pivot) {
+                    i++;
+                }
+                while (m[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(m, w, i++, j--);
+                }
+            }
+            // Recurse into the smaller side, loop on the larger.
+            if (j - lo < hi - i) {
+                sort(m, w, lo, j);
+                lo = i;
+            } else {
+                sort(m, w, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && m[j - 1] > m[j]; j--) {
+                swap(m, w, j - 1, j);
+            }
+        }
+    }
+
+    private static void swap(double[] m, long[] w, int i, int j) {
+        double t = m[i];
+        m[i] = m[j];
+        m[j] = t;
+        long u = w[i];
+        w[i] = w[j];
+        w[j] = u;
+    }
+
+    /**
+     * Estimated value at rank q * N, 0 &lt;= q &lt;= 1, interpolating between
+     * centroid centres and out to the exact min and max; NaN when empty.
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be in [0, 1]: " + q);
+        }
+        compress();
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+        if (centroids == 1) {
+            return weights[0] == 1 ? means[0] : min + (max - min) * q;
+        }
+
+        double index = q * totalWeight;
+        double left = weights[0] / 2.0;
+        if (index < left) {
+            // A singleton is its own value; otherwise ramp up from the minimum.
+            return weights[0] == 1 ? means[0] : min + (means[0] - min) * index / left;
+        }
+        double center = left;
+        for (int i = 0; i < centroids - 1; i++) {
+            double step = (weights[i] + weights[i + 1]) / 2.0;
+            if (index < center + step) {
+                double t = (index - center) / step;
+                return means[i] + t * (means[i + 1] - means[i]);
+            }
+            center += step;
+        }
+        int last = centroids - 1;
+        double right = weights[last] / 2.0;
+        if (weights[last] == 1) {
+            return means[last];
+        }
+        return means[last] + (max - means[last]) * Math.min(1, (index - center) / right);
+    }
+
+    /** Bytes {@link #write} will produce; merges the buffer first. */
+    public int serializedSize() {
+        compress();
+        int size = 8 + 8 + 8 + WritableUtils.getVIntSize(centroids);
+        for (int i = 0; i < centroids; i++) {
+            size += 8 + WritableUtils.getVIntSize(weights[i]);
+        }
+        return size;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        compress();
+        out.writeDouble(compression);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        WritableUtils.writeVInt(out, centroids);
+        for (int i = 0; i < centroids; i++) {
+            out.writeDouble(means[i]);
+            WritableUtils.writeVLong(out, weights[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        reset(in.readDouble());
+        min = in.readDouble();
+        max = in.readDouble();
+        int n = WritableUtils.readVInt(in);
+        for (int i = 0; i < n; i++) {
+            double mean = in.readDouble();
+            long weight = WritableUtils.readVLong(in);
+            emit(mean, weight);
+            totalWeight += weight;
+        }
+    }
+}
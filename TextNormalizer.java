@@ -0,0 +1,335 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Single-pass, regex-free port of normalize_text from merge_mmtd.py, behind a
+ * bounded memo cache.
+ *
+ * normalize_text lower-cases, strips, deletes every character outside
+ * [a-z0-9] and whitespace, then collapses whitespace runs to one space; the
+ * values pandas reads as missing come out as "". This class does the same in
+ * one walk over the UTF-8 bytes: ASCII is handled byte by byte, other code
+ * points are decoded, lower-cased and kept only if they become [a-z0-9]
+ * (U+0130, U+212A) or count as whitespace. The quirks of the regex order are
+ * kept: a space left by deleting trailing punctuation ("abc !" -> "abc ")
+ * survives, because strip ran before the deletion.
+ *
+ * Artist and track names repeat heavily, so results are memoized in a CLOCK
+ * cache of {@link #CACHE_ENTRIES} raw values (default 65536; 0 disables).
+ * Lookups hash and compare the raw bytes and allocate nothing; a miss copies
+ * the key and result once. Hits, misses and evictions go to the caller's
+ * {@link CounterRegistry} when one is given.
+ *
+ * Not thread-safe: use one instance per task or thread.
+ */
+public final class TextNormalizer {
+
+    public static final String CACHE_ENTRIES = "normalizer.cache.entries";
+    public static final int DEFAULT_CACHE_ENTRIES = 1 << 16;
+
+    /** Raw values longer than this are normalized but not cached. */
+    static final int MAX_CACHED_LENGTH = 256;
+
+    /** Strings pandas.read_csv turns into NaN by default. */
+    private static final byte[][] NA_VALUES = utf8(
+            "", "#N/A", "#N/A N/A", "#NA", "-1.#IND", "-1.#QNAN", "-NaN", "-nan", "1.#IND",
+            "1.#QNAN", "<NA>", "N/A", "NA", "NULL", "NaN", "None", "n/a", "nan", "null");
+    private static final int MAX_NA_LENGTH = 8;
+
+    // Per ASCII byte: KEEP after lower-casing, SPACE, or DROP.
+    private static final byte DROP = 0;
+    private static final byte KEEP = 1;
+    private static final byte SPACE = 2;
+    private static final byte[] ASCII = new byte[128];
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            ASCII[c] = KEEP;
+            ASCII[c - 'a' + 'A'] = KEEP;
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            ASCII[c] = KEEP;
+        }
+        // Python's str.isspace also covers the \x1c-\x1f separators.
+        for (int c : new int[] {'\t', '\n', 0x0B, '\f', '\r', 0x1C, 0x1D, 0x1E, 0x1F, ' '}) {
+            ASCII[c] = SPACE;
+        }
+    }
+
+    private static byte[][] utf8(String... values) {
+        byte[][] out = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return out;
+    }
+
+    private byte[] result = new byte[128];
+    private byte[] resultRef;
+    private int resultLength;
+
+    // CLOCK cache: entries in a ring swept by hand, indexed by an open-addressing table.
+    private final int capacity;
+    private byte[][] keys;
+    private byte[][] values;
+    private int[] hashes;
+    private boolean[] referenced;
+    private int[] table;
+    private int mask;
+    private int size;
+    private int hand;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private final CounterRegistry counters;
+    private int hitSlot;
+    private int missSlot;
+    private int evictionSlot;
+
+    public TextNormalizer(int cacheEntries) {
+        this(cacheEntries, null, null);
+    }
+
+    /**
+     * @param counters registry for CACHE_HITS, CACHE_MISSES and
+     *                 CACHE_EVICTIONS under group, or null
+     */
+    public TextNormalizer(int cacheEntries, CounterRegistry counters, String group) {
+        capacity = Math.max(0, cacheEntries);
+        if (capacity > 0) {
+            keys = new byte[capacity][];
+            values = new byte[capacity][];
+            hashes = new int[capacity];
+            referenced = new boolean[capacity];
+            int cap = Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1;
+            table = new int[cap];
+            mask = cap - 1;
+        }
+        this.counters = counters;
+        if (counters != null) {
+            hitSlot = counters.register(group, "NORMALIZER_CACHE_HITS");
+            missSlot = counters.register(group, "NORMALIZER_CACHE_MISSES");
+            evictionSlot = counters.register(group, "NORMALIZER_CACHE_EVICTIONS");
+        }
+    }
+
+    /**
+     * Normalizes UTF-8 bytes [start, end). The result is in
+     * {@link #result()}[0, returned length) until the next call; callers must
+     * not modify it.
+     */
+    public int normalize(byte[] src, int start, int end) {
+        int len = end - start;
+        if (capacity == 0 || len > MAX_CACHED_LENGTH) {
+            return compute(src, start, end);
+        }
+
+        int h = hash(src, start, end);
+        int i = h & mask;
+        while (table[i] != 0) {
+            int e = table[i] - 1;
+            if (hashes[e] == h && Arrays.equals(keys[e], 0, keys[e].length, src, start, end)) {
+                referenced[e] = true;
+                hits++;
+                if (counters != null) {
+                    counters.increment(hitSlot);
+                }
+                resultRef = values[e];
+                resultLength = resultRef.length;
+                return resultLength;
+            }
+            i = (i + 1) & mask;
+        }
+
+        misses++;
+        if (counters != null) {
+            counters.increment(missSlot);
+        }
+        int n = compute(src, start, end);
+        insert(h, Arrays.copyOfRange(src, start, end), Arrays.copyOf(result, n));
+        return n;
+    }
+
+    /**
+     * Convenience form for Strings; goes through the same cache.
+     */
+    public String normalize(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        int n = normalize(b, 0, b.length);
+        return new String(result(), 0, n, StandardCharsets.UTF_8);
+    }
+
+    public byte[] result() {
+        return resultRef;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    static int hash(byte[] b, int start, int end) {
+        int h = 0x811c9dc5;
+        for (int i = start; i < end; i++) {
+            h = (h ^ b[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private void insert(int h, byte[] key, byte[] value) {
+        int e;
+        if (size < capacity) {
+            e = size++;
+        } else {
+            // Sweep: give referenced entries a second chance, evict the first that is not.
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = hand + 1 == capacity ? 0 : hand + 1;
+            }
+            e = hand;
+            hand = hand + 1 == capacity ? 0 : hand + 1;
+            unlink(e);
+            evictions++;
+            if (counters != null) {
+                counters.increment(evictionSlot);
+            }
+        }
+        keys[e] = key;
+        values[e] = value;
+        hashes[e] = h;
+        referenced[e] = false;
+        int i = h & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = e + 1;
+    }
+
+    /** Removes entry e from the index, backward-shifting its probe run. */
+    private void unlink(int e) {
+        int hole = hashes[e] & mask;
+        while (table[hole] != e + 1) {
+            hole = (hole + 1) & mask;
+        }
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (table[i] == 0) {
+                break;
+            }
+            int home = hashes[table[i] - 1] & mask;
+            boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                table[hole] = table[i];
+                hole = i;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private static boolean isNa(byte[] src, int start, int end) {
+        if (end - start > MAX_NA_LENGTH) {
+            return false;
+        }
+        for (byte[] na : NA_VALUES) {
+            if (Arrays.equals(na, 0, na.length, src, start, end)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unicode whitespace as Python's str.isspace sees it, beyond ASCII.
+     */
+    private static boolean isSpace(int cp) {
+        return cp == 0x85 || cp == 0xA0 || cp == 0x1680 || (cp >= 0x2000 && cp <= 0x200A)
+                || cp == 0x2028 || cp == 0x2029 || cp == 0x202F || cp == 0x205F || cp == 0x3000;
+    }
+
+    private int compute(byte[] src, int start, int end) {
+        resultRef = result;
+        resultLength = 0;
+        if (isNa(src, start, end)) {
+            return 0;
+        }
+        if (result.length < end - start) {
+            result = new byte[Math.max(end - start, result.length * 2)];
+            resultRef = result;
+        }
+
+        // started: a non-space was seen, so later spaces are not leading.
+        // inRun: inside a space run that may still turn out to be trailing.
+        // needSpace: a space run was followed by a non-space, so one ' ' is owed.
+        boolean started = false;
+        boolean inRun = false;
+        boolean needSpace = false;
+        int n = 0;
+        int i = start;
+        while (i < end) {
+            int b = src[i] & 0xFF;
+            int kind;
+            int c;
+            if (b < 0x80) {
+                kind = ASCII[b];
+                c = b | 0x20;
+                i++;
+            } else {
+                int cp;
+                int width;
+                if (b >= 0xF0 && i + 3 < end) {
+                    cp = ((b & 0x07) << 18) | ((src[i + 1] & 0x3F) << 12) | ((src[i + 2] & 0x3F) << 6) | (src[i + 3] & 0x3F);
+                    width = 4;
+                } else if (b >= 0xE0 && i + 2 < end) {
+                    cp = ((b & 0x0F) << 12) | ((src[i + 1] & 0x3F) << 6) | (src[i + 2] & 0x3F);
+                    width = 3;
+                } else if (b >= 0xC0 && i + 1 < end) {
+                    cp = ((b & 0x1F) << 6) | (src[i + 1] & 0x3F);
+                    width = 2;
+                } else {
+                    cp = 0xFFFD;
+                    width = 1;
+                }
+                i += width;
+                c = Character.toLowerCase(cp);
+                if (c < 0x80 && ASCII[c] == KEEP) {
+                    kind = KEEP;
+                } else {
+                    kind = isSpace(cp) ? SPACE : DROP;
+                }
+            }
+
+            if (kind == SPACE) {
+                inRun = started;
+                continue;
+            }
+            started = true;
+            if (inRun) {
+                needSpace = true;
+                inRun = false;
+            }
+            if (kind == KEEP) {
+                if (needSpace) {
+                    result[n++] = ' ';
+                    needSpace = false;
+                }
+                result[n++] = (byte) c;
+            }
+        }
+        // A run that ended in deleted characters was not stripped.
+        if (needSpace) {
+            result[n++] = ' ';
+        }
+        resultLength = n;
+        return n;
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped "similar tracks" index over the nine audio features (.tidx
+ * files, written by {@link TrackIndexBuilder}).
+ *
+ * An inverted-file (IVF) index: tracks are clustered around k-means
+ * centroids and stored list by list, so a query scans only the lists of the
+ * nprobe centroids nearest to it. Distances are squared Euclidean over the
+ * features z-scored with the catalog's mean and standard deviation, so
+ * loudness and tempo do not outweigh the 0-1 features.
+ *
+ * Layout, little-endian, every section 4-byte aligned:
+ * <pre>
+ *   "TIDX" version size dims lists
+ *   float mean[dims], scale[dims]     scale = 1 / standard deviation
+ *   float centroids[lists * dims]
+ *   int   listStart[lists + 1]        positions of each list's tracks
+ *   float vectors[size * dims]        normalized, in list order
+ *   int   byId[size]                  positions sorted by track id bytes
+ *   int   idEnd[size]                 end offsets into the id bytes
+ *   byte  ids[]                       UTF-8 track ids, in position order
+ * </pre>
+ * The vectors stay in the mapping, off the heap; only the centroids and
+ * list offsets are copied out. A file is one mapping, so it is limited to
+ * 2 GB: {@link #TRACK_BYTES} (44) bytes a track plus its id, or about 32M
+ * tracks with 22-byte Spotify ids. The index is immutable and can be shared
+ * between threads; each thread searches through its own {@link Searcher}.
+ */
+public final class TrackIndex {
+
+    static final byte[] MAGIC = {'T', 'I', 'D', 'X'};
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+
+    public static final int DIMS = FeatureSumsWritable.NUM_FEATURES;
+
+    /** Bytes per track besides its id: the vector, byId and idEnd. */
+    static final int TRACK_BYTES = 4 * DIMS + 4 + 4;
+
+    private final int size;
+    private final int numLists;
+    private final float[] mean;
+    private final float[] scale;
+    private final float[] centroids;
+    private final int[] listStart;
+    private final FloatBuffer vectors;
+    private final IntBuffer byId;
+    private final IntBuffer idEnd;
+    private final ByteBuffer ids;
+
+    private TrackIndex(MappedByteBuffer map) throws IOException {
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[MAGIC.length];
+        map.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || map.getInt(4) != VERSION || map.getInt(12) != DIMS) {
+            throw new IOException("Not a version " + VERSION + " track index");
+        }
+        size = map.getInt(8);
+        numLists = map.getInt(16);
+
+        int pos = HEADER_BYTES;
+        mean = new float[DIMS];
+        scale = new float[DIMS];
+        map.slice(pos, 4 * DIMS).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(mean);
+        pos += 4 * DIMS;
+        map.slice(pos, 4 * DIMS).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(scale);
+        pos += 4 * DIMS;
+        centroids = new float[numLists * DIMS];
+        map.slice(pos, 4 * centroids.length).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(centroids);
+        pos += 4 * centroids.length;
+        listStart = new int[numLists + 1];
+        map.slice(pos, 4 * listStart.length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(listStart);
+        pos += 4 * listStart.length;
+        vectors = map.slice(pos, 4 * size * DIMS).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        pos += 4 * size * DIMS;
+        byId = map.slice(pos, 4 * size).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        pos += 4 * size;
+        idEnd = map.slice(pos, 4 * size).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        pos += 4 * size;
+        ids = map.slice(pos, map.limit() - pos);
+        if (listStart[numLists] != size || (size > 0 && idEnd.get(size - 1) != ids.limit())) {
+            throw new IOException("Truncated track index");
+        }
+    }
+
+    /**
+     * Length of an index file with the given shape; it can be opened only if
+     * this is at most Integer.MAX_VALUE.
+     */
+    static long fileBytes(int size, int numLists, long idBytes) {
+        return HEADER_BYTES + 4L * 2 * DIMS + 4L * numLists * DIMS + 4L * (numLists + 1)
+                + (long) TRACK_BYTES * size + idBytes;
+    }
+
+    /**
+     * Maps an index file read-only.
+     */
+    public static TrackIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than one mapping");
+            }
+            // The mapping stays valid after the channel is closed.
+            return new TrackIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int numLists() {
+        return numLists;
+    }
+
+    /**
+     * Normalizes raw features, in FeatureSumsWritable order, into a query.
+     */
+    public void normalize(double[] features, float[] out) {
+        for (int d = 0; d < DIMS; d++) {
+            out[d] = (float) ((features[d] - mean[d]) * scale[d]);
+        }
+    }
+
+    /**
+     * The normalized vector of the track at a position.
+     */
+    public void vector(int position, float[] out) {
+        vectors.get(position * DIMS, out, 0, DIMS);
+    }
+
+    public String id(int position) {
+        int start = position == 0 ? 0 : idEnd.get(position - 1);
+        byte[] b = new byte[idEnd.get(position) - start];
+        ids.get(start, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Position of a track by id, or -1. Binary search over the id order;
+     * with duplicate ids, any one of them.
+     */
+    public int find(String id) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int position = byId.get(mid);
+            int c = compareId(position, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private int compareId(int position, byte[] key) {
+        int start = position == 0 ? 0 : idEnd.get(position - 1);
+        int length = idEnd.get(position) - start;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (ids.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - key.length;
+    }
+
+    public Searcher searcher() {
+        return new Searcher();
+    }
+
+    /**
+     * Per-thread query state. Results are positions in the index, nearest
+     * first, with their squared distances.
+     */
+    public final class Searcher {
+
+        private final TopK probes = new TopK();
+        private final TopK nearest = new TopK();
+        private final float[] query = new float[DIMS];
+
+        /**
+         * The k nearest tracks among the lists of the nprobe centroids
+         * nearest to the query. Returns the number found, at most k.
+         */
+        public int search(float[] q, int k, int nprobe, int[] positions, float[] distances) {
+            nprobe = Math.min(Math.max(nprobe, 1), numLists);
+            probes.reset(nprobe);
+            for (int l = 0; l < numLists; l++) {
+                probes.offer(distance(q, 0, centroids, l * DIMS), l);
+            }
+            nearest.reset(k);
+            for (int i = 0; i < probes.size; i++) {
+                int l = probes.values[i];
+                scan(q, listStart[l], listStart[l + 1]);
+            }
+            return nearest.drain(positions, distances);
+        }
+
+        /**
+         * The exact k nearest tracks, by scanning every vector.
+         */
+        public int searchExact(float[] q, int k, int[] positions, float[] distances) {
+            nearest.reset(k);
+            scan(q, 0, size);
+            return nearest.drain(positions, distances);
+        }
+
+        /**
+         * The k tracks most like the one at a position, itself excluded.
+         */
+        public int similar(int position, int k, int nprobe, int[] positions, float[] distances) {
+            vector(position, query);
+            int found = search(query, k + 1, nprobe, positions, distances);
+            int out = 0;
+            for (int i = 0; i < found; i++) {
+                if (positions[i] != position && out < k) {
+                    positions[out] = positions[i];
+                    distances[out] = distances[i];
+                    out++;
+                }
+            }
+            return out;
+        }
+
+        private void scan(float[] q, int from, int to) {
+            FloatBuffer v = vectors;
+            for (int p = from; p < to; p++) {
+                int base = p * DIMS;
+                float sum = 0;
+                for (int d = 0; d < DIMS; d++) {
+                    float diff = v.get(base + d) - q[d];
+                    sum += diff * diff;
+                }
+                nearest.offer(sum, p);
+            }
+        }
+    }
+
+    /**
+     * Squared distance between a[aBase, aBase + DIMS) and b[bBase, bBase + DIMS).
+     */
+    static float distance(float[] a, int aBase, float[] b, int bBase) {
+        float sum = 0;
+        for (int d = 0; d < DIMS; d++) {
+            float diff = b[bBase + d] - a[aBase + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * The k smallest keys seen, as a max-heap on parallel arrays.
+     */
+    static final class TopK {
+        float[] keys = new float[16];
+        int[] values = new int[16];
+        int size;
+        private int k;
+
+        void reset(int k) {
+            this.k = k;
+            size = 0;
+            if (keys.length < k) {
+                keys = new float[k];
+                values = new int[k];
+            }
+        }
+
+        void offer(float key, int value) {
+            if (size < k) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (keys[parent] >= key) {
+                        break;
+                    }
+                    keys[i] = keys[parent];
+                    values[i] = values[parent];
+                    i = parent;
+                }
+                keys[i] = key;
+                values[i] = value;
+            } else if (k > 0 && key < keys[0]) {
+                siftDown(key, value, size);
+            }
+        }
+
+        private void siftDown(float key, int value, int n) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && keys[child + 1] > keys[child]) {
+                    child++;
+                }
+                if (keys[child] <= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                values[i] = values[child];
+                i = child;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        /**
+         * Empties the heap into the arrays in ascending key order.
+         */
+        int drain(int[] outValues, float[] outKeys) {
+            int n = size;
+            for (int last = n - 1; last >= 0; last--) {
+                outValues[last] = values[0];
+                outKeys[last] = keys[0];
+                siftDown(keys[last], values[last], last);
+            }
+            size = 0;
+            return n;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Usage: TrackIndex <index file> <track id> [k] [nprobe]");
+            System.exit(1);
+        }
+        TrackIndex index = open(Paths.get(args[0]));
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int nprobe = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        int position = index.find(args[1]);
+        if (position < 0) {
+            System.err.println("No track " + args[1] + " in " + args[0]);
+            System.exit(1);
+        }
+        int[] positions = new int[k + 1];
+        float[] distances = new float[k + 1];
+        int found = index.searcher().similar(position, k, nprobe, positions, distances);
+        System.out.println("id,distance");
+        for (int i = 0; i < found; i++) {
+            System.out.println(index.id(positions[i]) + "," + (float) Math.sqrt(distances[i]));
+        }
+    }
+}
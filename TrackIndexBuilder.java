@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * Builds a {@link TrackIndex} from cleaned Spotify rows: a Spotify_cleaned.csv
+ * file, or a directory of cleaner part files, local or on HDFS.
+ *
+ * The whole catalog is loaded as floats (36 bytes a track), z-scored, and
+ * clustered with k-means trained on a random sample of
+ * {@link #TRAIN_SAMPLE} tracks per list; then every track goes to the list
+ * of its nearest centroid. Clustering is seeded, so the same input and
+ * options give the same file. Assignment runs on all cores.
+ */
+public class TrackIndexBuilder {
+
+    /** Number of inverted lists; default the square root of the track count. */
+    public static final String LISTS = "trackindex.lists";
+
+    /** Training tracks per list for k-means (default 64). */
+    public static final String TRAIN_SAMPLE = "trackindex.train.sample";
+
+    /** Lloyd iterations over the training sample (default 10). */
+    public static final String ITERATIONS = "trackindex.train.iterations";
+
+    public static final String SEED = "trackindex.seed";
+
+    private static final String COUNTER_GROUP = "TRACK_INDEX";
+    private static final int ID_COLUMN = 8;
+    private static final int DIMS = TrackIndex.DIMS;
+
+    private final Configuration conf;
+    private final CounterRegistry counters = new CounterRegistry();
+    private final int tracksIndexed;
+    private final int rowsSkipped;
+
+    private float[] vectors = new float[1024 * DIMS];
+    private byte[] ids = new byte[1 << 16];
+    private int[] idEnd = new int[1024];
+    private int size;
+
+    public TrackIndexBuilder(Configuration conf) {
+        this.conf = conf;
+        tracksIndexed = counters.register(COUNTER_GROUP, "TRACKS_INDEXED");
+        rowsSkipped = counters.register(COUNTER_GROUP, "ROWS_SKIPPED");
+    }
+
+    public CounterRegistry getCounters() {
+        return counters;
+    }
+
+    /**
+     * Reads the input and writes the index file.
+     */
+    public void build(Path input, java.nio.file.Path output) throws IOException {
+        FileSystem fs = input.getFileSystem(conf);
+        for (Path file : inputFiles(fs, input)) {
+            read(fs, file);
+        }
+        if (size == 0) {
+            throw new IOException("No tracks in " + input);
+        }
+
+        float[] mean = new float[DIMS];
+        float[] scale = new float[DIMS];
+        normalize(mean, scale);
+
+        int lists = conf.getInt(LISTS, 0);
+        int numLists = lists > 0 ? Math.min(lists, size) : Math.max(1, (int) Math.round(Math.sqrt(size)));
+        long bytes = TrackIndex.fileBytes(size, numLists, idEnd[size - 1]);
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException(size + " tracks need a " + bytes + "-byte index, more than one mapping");
+        }
+        float[] centroids = train(numLists);
+
+        int[] assignment = new int[size];
+        IntStream.range(0, size).parallel()
+                .forEach(t -> assignment[t] = nearest(t * DIMS, centroids, numLists));
+        write(output, mean, scale, centroids, numLists, assignment);
+    }
+
+    /**
+     * The file itself, or the part files of a directory in name order.
+     */
+    private static List<Path> inputFiles(FileSystem fs, Path input) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!fs.getFileStatus(input).isDirectory()) {
+            files.add(input);
+            return files;
+        }
+        FileStatus[] statuses = fs.listStatus(input, p -> p.getName().startsWith("part-"));
+        Arrays.sort(statuses);
+        for (FileStatus status : statuses) {
+            files.add(status.getPath());
+        }
+        return files;
+    }
+
+    private void read(FileSystem fs, Path file) throws IOException {
+        CsvFieldScanner scanner = new CsvFieldScanner();
+        double[] track = new double[DIMS];
+        Text line = new Text();
+        try (FSDataInputStream in = fs.open(file)) {
+            LineReader reader = new LineReader(in, conf);
+            while (reader.readLine(line) > 0) {
+                scanner.scan(line);
+                if (scanner.isBlankLine() || scanner.lineStartsWithIgnoreCase("valence")) {
+                    continue;
+                }
+                if (!AudioFeatureRollup.readFeatures(scanner, track) || scanner.isBlank(ID_COLUMN)) {
+                    counters.increment(rowsSkipped);
+                    continue;
+                }
+                add(track, scanner);
+                counters.increment(tracksIndexed);
+            }
+        }
+    }
+
+    private void add(double[] track, CsvFieldScanner scanner) {
+        if (size == idEnd.length) {
+            idEnd = Arrays.copyOf(idEnd, size * 2);
+            vectors = Arrays.copyOf(vectors, size * 2 * DIMS);
+        }
+        for (int d = 0; d < DIMS; d++) {
+            vectors[size * DIMS + d] = (float) track[d];
+        }
+        int s = scanner.trimmedStart(ID_COLUMN);
+        int e = scanner.trimmedEnd(ID_COLUMN);
+        if (scanner.isQuoted(ID_COLUMN)) {
+            s++;
+            e--;
+        }
+        int idStart = size == 0 ? 0 : idEnd[size - 1];
+        if (idStart + (e - s) > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(ids.length * 2, idStart + (e - s)));
+        }
+        System.arraycopy(scanner.bytes(), s, ids, idStart, e - s);
+        idEnd[size++] = idStart + (e - s);
+    }
+
+    /**
+     * Z-scores the vectors in place; constant features get scale 1.
+     */
+    private void normalize(float[] mean, float[] scale) {
+        for (int d = 0; d < DIMS; d++) {
+            double sum = 0;
+            for (int t = 0; t < size; t++) {
+                sum += vectors[t * DIMS + d];
+            }
+            double m = sum / size;
+            double squares = 0;
+            for (int t = 0; t < size; t++) {
+                double diff = vectors[t * DIMS + d] - m;
+                squares += diff * diff;
+            }
+            double std = Math.sqrt(squares / size);
+            mean[d] = (float) m;
+            scale[d] = std > 0 ? (float) (1 / std) : 1f;
+            for (int t = 0; t < size; t++) {
+                vectors[t * DIMS + d] = (vectors[t * DIMS + d] - mean[d]) * scale[d];
+            }
+        }
+    }
+
+    /**
+     * Lloyd's k-means over a random sample, starting from random sample
+     * points. A list that loses all its points restarts at a random one.
+     */
+    private float[] train(int numLists) {
+        Random rnd = new Random(conf.getLong(SEED, 42L));
+        int sampleSize = (int) Math.min(size, (long) numLists * conf.getInt(TRAIN_SAMPLE, 64));
+        int[] sample = new int[size];
+        for (int t = 0; t < size; t++) {
+            sample[t] = t;
+        }
+        for (int i = 0; i < sampleSize; i++) {
+            int j = i + rnd.nextInt(size - i);
+            int swap = sample[i];
+            sample[i] = sample[j];
+            sample[j] = swap;
+        }
+
+        float[] centroids = new float[numLists * DIMS];
+        for (int l = 0; l < numLists; l++) {
+            System.arraycopy(vectors, sample[l] * DIMS, centroids, l * DIMS, DIMS);
+        }
+        int[] assignment = new int[sampleSize];
+        double[] sums = new double[numLists * DIMS];
+        int[] counts = new int[numLists];
+        int iterations = conf.getInt(ITERATIONS, 10);
+        for (int it = 0; it < iterations; it++) {
+            IntStream.range(0, sampleSize).parallel()
+                    .forEach(i -> assignment[i] = nearest(sample[i] * DIMS, centroids, numLists));
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < sampleSize; i++) {
+                int l = assignment[i];
+                counts[l]++;
+                for (int d = 0; d < DIMS; d++) {
+                    sums[l * DIMS + d] += vectors[sample[i] * DIMS + d];
+                }
+            }
+            for (int l = 0; l < numLists; l++) {
+                if (counts[l] == 0) {
+                    System.arraycopy(vectors, sample[rnd.nextInt(sampleSize)] * DIMS, centroids, l * DIMS, DIMS);
+                    continue;
+                }
+                for (int d = 0; d < DIMS; d++) {
+                    centroids[l * DIMS + d] = (float) (sums[l * DIMS + d] / counts[l]);
+                }
+            }
+        }
+        return centroids;
+    }
+
+    private int nearest(int base, float[] centroids, int numLists) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int l = 0; l < numLists; l++) {
+            float d = TrackIndex.distance(vectors, base, centroids, l * DIMS);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = l;
+            }
+        }
+        return best;
+    }
+
+    private void write(java.nio.file.Path output, float[] mean, float[] scale, float[] centroids,
+            int numLists, int[] assignment) throws IOException {
+        // Counting sort of the tracks by list; order[p] is the track at position p.
+        int[] listStart = new int[numLists + 1];
+        for (int t = 0; t < size; t++) {
+            listStart[assignment[t] + 1]++;
+        }
+        for (int l = 0; l < numLists; l++) {
+            listStart[l + 1] += listStart[l];
+        }
+        int[] order = new int[size];
+        int[] next = Arrays.copyOf(listStart, numLists);
+        for (int t = 0; t < size; t++) {
+            order[next[assignment[t]]++] = t;
+        }
+
+        Integer[] byId = new Integer[size];
+        for (int p = 0; p < size; p++) {
+            byId[p] = p;
+        }
+        Arrays.sort(byId, (a, b) -> compareIds(order[a], order[b]));
+
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.put(TrackIndex.MAGIC).putInt(TrackIndex.VERSION).putInt(size).putInt(DIMS).putInt(numLists);
+            for (float v : mean) {
+                putFloat(out, buf, v);
+            }
+            for (float v : scale) {
+                putFloat(out, buf, v);
+            }
+            for (float v : centroids) {
+                putFloat(out, buf, v);
+            }
+            for (int v : listStart) {
+                putInt(out, buf, v);
+            }
+            for (int p = 0; p < size; p++) {
+                for (int d = 0; d < DIMS; d++) {
+                    putFloat(out, buf, vectors[order[p] * DIMS + d]);
+                }
+            }
+            for (int p = 0; p < size; p++) {
+                putInt(out, buf, byId[p]);
+            }
+            int end = 0;
+            for (int p = 0; p < size; p++) {
+                end += idLength(order[p]);
+                putInt(out, buf, end);
+            }
+            for (int p = 0; p < size; p++) {
+                int t = order[p];
+                int start = idStart(t);
+                for (int i = start; i < idEnd[t]; i++) {
+                    if (!buf.hasRemaining()) {
+                        drain(out, buf);
+                    }
+                    buf.put(ids[i]);
+                }
+            }
+            drain(out, buf);
+        }
+    }
+
+    private int idStart(int t) {
+        return t == 0 ? 0 : idEnd[t - 1];
+    }
+
+    private int idLength(int t) {
+        return idEnd[t] - idStart(t);
+    }
+
+    private int compareIds(int a, int b) {
+        return Arrays.compareUnsigned(ids, idStart(a), idEnd[a], ids, idStart(b), idEnd[b]);
+    }
+
+    private static void putFloat(FileChannel out, ByteBuffer buf, float v) throws IOException {
+        if (buf.remaining() < 4) {
+            drain(out, buf);
+        }
+        buf.putFloat(v);
+    }
+
+    private static void putInt(FileChannel out, ByteBuffer buf, int v) throws IOException {
+        if (buf.remaining() < 4) {
+            drain(out, buf);
+        }
+        buf.putInt(v);
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length != 2) {
+            System.err.println("Usage: TrackIndexBuilder [-D " + LISTS + "=N] [-D " + TRAIN_SAMPLE
+                    + "=N] [-D " + ITERATIONS + "=N] <cleaned input> <index file>");
+            System.exit(1);
+        }
+
+        TrackIndexBuilder builder = new TrackIndexBuilder(conf);
+        long t0 = System.nanoTime();
+        builder.build(new Path(args[0]), Paths.get(args[1]));
+        long millis = (System.nanoTime() - t0) / 1_000_000;
+
+        CounterRegistry counters = builder.getCounters();
+        for (int slot = 0; slot < counters.size(); slot++) {
+            System.err.println(counters.group(slot) + "/" + counters.name(slot) + "=" + counters.get(slot));
+        }
+        System.err.println("Done in " + millis + " ms");
+    }
+}
@@ -0,0 +1,621 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Java replacement for tweet_profile_mapper.py / tweet_profile_reducer.py.
+ *
+ * Input: tab-separated cleaned tweets from tweets_clean_mapper.py
+ * (tweetId, userId, artistId, trackId, timestamp, weekday).
+ * Output: CATEGORY \t id \t count, as the streaming job wrote, with
+ * STAT \t TOTAL_TWEETS \t n for the tweet total.
+ *
+ * Keys are binary {@link CategoryIdWritable}s and a combiner sums counts on
+ * the map side, so each map task ships one record per distinct id instead
+ * of four text lines per tweet. With {@link #TOP_K} set, only the K most
+ * tweeted users, tracks and artists are written, highest count first.
+ *
+ * With {@link #APPROX} set, each map task instead folds its ids into one
+ * {@link HeavyHitterSketch} per category and ships only those; a single
+ * reducer merges them and writes the top N per category as
+ * CATEGORY \t id \t estimate \t lowerBound. The true count lies in
+ * [lowerBound, estimate] (the upper end with the Count-Min probability), so
+ * the "top tracks by tweet volume" report no longer needs an exact shuffle of
+ * every id. {@link #APPROX_EXACT} compares the result against an exact run.
+ */
+public class TweetProfileJob {
+
+    /**
+     * Keep only the K largest counts per category; 0 (default) keeps all.
+     */
+    public static final String TOP_K = "tweetprofile.topk";
+
+    /**
+     * Approximate heavy-hitter mode; {@link #TOP_K} is the N to report
+     * (default {@link #DEFAULT_APPROX_TOP}).
+     */
+    public static final String APPROX = "tweetprofile.approx";
+
+    public static final String APPROX_CM_DEPTH = "tweetprofile.approx.cm.depth";
+    public static final String APPROX_CM_WIDTH = "tweetprofile.approx.cm.width";
+    /** Space-Saving entries per category; defaults to max(1024, 32 * N). */
+    public static final String APPROX_SS_CAPACITY = "tweetprofile.approx.ss.capacity";
+    /** Output directory of an exact run over the same input to compare with. */
+    public static final String APPROX_EXACT = "tweetprofile.approx.exact";
+
+    public static final int DEFAULT_APPROX_TOP = 10;
+    public static final int DEFAULT_CM_DEPTH = 5;
+    public static final int DEFAULT_CM_WIDTH = 1 << 14;
+
+    private static final String COUNTER_GROUP = "TWEET_PROFILE";
+    private static final String APPROX_COUNTER_GROUP = "TWEET_PROFILE_APPROX";
+
+    /** Categories that get a sketch, in output order. */
+    private static final byte[] SKETCHED = {
+        CategoryIdWritable.ARTIST, CategoryIdWritable.TRACK, CategoryIdWritable.USER
+    };
+
+    private static final int FIELDS = 6;
+
+    public static class ProfileMapper
+            extends Mapper<LongWritable, Text, CategoryIdWritable, LongWritable> {
+
+        private final CategoryIdWritable outKey = new CategoryIdWritable();
+        private final LongWritable one = new LongWritable(1);
+        private final int[] tabs = new int[FIELDS + 1];
+        private final long[] ids = new long[CategoryIdWritable.NUM_CATEGORIES];
+
+        private final CounterRegistry counters = new CounterRegistry();
+        private int tweets;
+        private int malformed;
+
+        @Override
+        protected void setup(Context context) {
+            tweets = counters.register(COUNTER_GROUP, "TWEETS");
+            malformed = counters.register(COUNTER_GROUP, "MALFORMED_LINES");
+            counters.bind(context);
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            counters.flush();
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            counters.tick();
+            if (!parseTweet(value, tabs, ids)) {
+                counters.increment(malformed);
+                return;
+            }
+
+            counters.increment(tweets);
+            outKey.set(CategoryIdWritable.STAT, CategoryIdWritable.TOTAL_TWEETS);
+            context.write(outKey, one);
+            outKey.set(CategoryIdWritable.USER, ids[CategoryIdWritable.USER]);
+            context.write(outKey, one);
+            outKey.set(CategoryIdWritable.TRACK, ids[CategoryIdWritable.TRACK]);
+            context.write(outKey, one);
+            outKey.set(CategoryIdWritable.ARTIST, ids[CategoryIdWritable.ARTIST]);
+            context.write(outKey, one);
+        }
+    }
+
+    /**
+     * Splits a cleaned tweet line and stores its user, track and artist ids in
+     * ids[] at their category codes. False if the line is malformed.
+     *
+     * @param tabs scratch of FIELDS + 1 ints
+     */
+    static boolean parseTweet(Text value, int[] tabs, long[] ids) {
+        byte[] b = value.getBytes();
+        int len = value.getLength();
+
+        // tabs[i] is the end of field i; field i starts at tabs[i - 1] + 1.
+        int fields = 0;
+        for (int i = 0; i < len && fields < FIELDS; i++) {
+            if (b[i] == '\t') {
+                tabs[fields++] = i;
+            }
+        }
+        if (fields != FIELDS - 1) {
+            return false;
+        }
+        tabs[fields] = len;
+
+        try {
+            ids[CategoryIdWritable.USER] = CsvFieldScanner.parseLong(b, tabs[0] + 1, tabs[1]);
+            ids[CategoryIdWritable.ARTIST] = CsvFieldScanner.parseLong(b, tabs[1] + 1, tabs[2]);
+            ids[CategoryIdWritable.TRACK] = CsvFieldScanner.parseLong(b, tabs[2] + 1, tabs[3]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    static HeavyHitterSketch newSketch(Configuration conf) {
+        int top = conf.getInt(TOP_K, 0) > 0 ? conf.getInt(TOP_K, 0) : DEFAULT_APPROX_TOP;
+        return new HeavyHitterSketch(
+                conf.getInt(APPROX_CM_DEPTH, DEFAULT_CM_DEPTH),
+                conf.getInt(APPROX_CM_WIDTH, DEFAULT_CM_WIDTH),
+                conf.getInt(APPROX_SS_CAPACITY, Math.max(1024, 32 * top)));
+    }
+
+    /**
+     * Approximate mode: sketches every id of the split and writes one
+     * sketch per category from cleanup, so the shuffle is a few sketches per
+     * task whatever the number of distinct ids.
+     */
+    public static class SketchMapper
+            extends Mapper<LongWritable, Text, CategoryIdWritable, HeavyHitterSketch> {
+
+        private final HeavyHitterSketch[] sketches = new HeavyHitterSketch[CategoryIdWritable.NUM_CATEGORIES];
+        private final int[] tabs = new int[FIELDS + 1];
+        private final long[] ids = new long[CategoryIdWritable.NUM_CATEGORIES];
+
+        private final CounterRegistry counters = new CounterRegistry();
+        private int tweets;
+        private int malformed;
+        private int sketchBytes;
+
+        @Override
+        protected void setup(Context context) {
+            for (byte c : SKETCHED) {
+                sketches[c] = newSketch(context.getConfiguration());
+            }
+            tweets = counters.register(COUNTER_GROUP, "TWEETS");
+            malformed = counters.register(COUNTER_GROUP, "MALFORMED_LINES");
+            sketchBytes = counters.register(APPROX_COUNTER_GROUP, "MAP_SKETCH_BYTES");
+            counters.bind(context);
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) {
+            counters.tick();
+            if (!parseTweet(value, tabs, ids)) {
+                counters.increment(malformed);
+                return;
+            }
+            counters.increment(tweets);
+            for (byte c : SKETCHED) {
+                sketches[c].add(ids[c]);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            CategoryIdWritable outKey = new CategoryIdWritable();
+            for (byte c : SKETCHED) {
+                outKey.set(c, 0L);
+                context.write(outKey, sketches[c]);
+                counters.add(sketchBytes, sketches[c].sizeInBytes());
+            }
+            counters.flush();
+        }
+    }
+
+    public static class SumCombiner
+            extends Reducer<CategoryIdWritable, LongWritable, CategoryIdWritable, LongWritable> {
+
+        private final LongWritable sum = new LongWritable();
+
+        @Override
+        protected void reduce(CategoryIdWritable key, Iterable<LongWritable> values, Context context)
+                throws IOException, InterruptedException {
+            long total = 0;
+            for (LongWritable v : values) {
+                total += v.get();
+            }
+            sum.set(total);
+            context.write(key, sum);
+        }
+    }
+
+    /**
+     * Sends each category to one reducer so it sees every id of it and its
+     * top K is exact. Only used in top-K mode: the combiner has already
+     * collapsed the input to one partial per id and map task.
+     */
+    public static class CategoryPartitioner extends Partitioner<CategoryIdWritable, LongWritable> {
+
+        @Override
+        public int getPartition(CategoryIdWritable key, LongWritable value, int numPartitions) {
+            return key.getCategory() % numPartitions;
+        }
+    }
+
+    /**
+     * Fixed-capacity min-heap of (count, id) keeping the K largest counts.
+     * Ties go to the smaller id so the output is deterministic.
+     */
+    static final class TopK {
+        private final long[] counts;
+        private final long[] ids;
+        private int size;
+
+        TopK(int k) {
+            counts = new long[k];
+            ids = new long[k];
+        }
+
+        /** True when (c1, id1) ranks below (c2, id2). */
+        private static boolean lower(long c1, long id1, long c2, long id2) {
+            return c1 < c2 || (c1 == c2 && id1 > id2);
+        }
+
+        void offer(long id, long count) {
+            if (size < counts.length) {
+                counts[size] = count;
+                ids[size] = id;
+                siftUp(size++);
+            } else if (lower(counts[0], ids[0], count, id)) {
+                counts[0] = count;
+                ids[0] = id;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!lower(counts[i], ids[i], counts[parent], ids[parent])) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int least = i;
+                int l = 2 * i + 1;
+                int r = l + 1;
+                if (l < size && lower(counts[l], ids[l], counts[least], ids[least])) {
+                    least = l;
+                }
+                if (r < size && lower(counts[r], ids[r], counts[least], ids[least])) {
+                    least = r;
+                }
+                if (least == i) {
+                    return;
+                }
+                swap(i, least);
+                i = least;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long c = counts[a];
+            counts[a] = counts[b];
+            counts[b] = c;
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+        }
+
+        /**
+         * Empties the heap into out[0..n) ids and counts, highest first.
+         */
+        int drain(long[] outIds, long[] outCounts) {
+            int n = size;
+            for (int i = n - 1; i >= 0; i--) {
+                outIds[i] = ids[0];
+                outCounts[i] = counts[0];
+                size--;
+                if (size > 0) {
+                    counts[0] = counts[size];
+                    ids[0] = ids[size];
+                    siftDown(0);
+                }
+            }
+            return n;
+        }
+    }
+
+    public static class ProfileReducer
+            extends Reducer<CategoryIdWritable, LongWritable, Text, NullWritable> {
+
+        private final Text out = new Text();
+        private final StringBuilder sb = new StringBuilder();
+        private int topK;
+        private TopK[] heaps;
+
+        @Override
+        protected void setup(Context context) {
+            topK = context.getConfiguration().getInt(TOP_K, 0);
+            if (topK > 0) {
+                heaps = new TopK[CategoryIdWritable.NUM_CATEGORIES];
+                for (int c = 0; c < heaps.length; c++) {
+                    heaps[c] = new TopK(topK);
+                }
+            }
+        }
+
+        @Override
+        protected void reduce(CategoryIdWritable key, Iterable<LongWritable> values, Context context)
+                throws IOException, InterruptedException {
+            long total = 0;
+            for (LongWritable v : values) {
+                total += v.get();
+            }
+
+            if (key.getCategory() == CategoryIdWritable.STAT) {
+                write(context, key.getCategory(), "TOTAL_TWEETS", total);
+            } else if (heaps != null) {
+                heaps[key.getCategory()].offer(key.getId(), total);
+            } else {
+                write(context, key.getCategory(), Long.toString(key.getId()), total);
+            }
+        }
+
+        private void write(Context context, int category, String id, long count)
+                throws IOException, InterruptedException {
+            sb.setLength(0);
+            sb.append(CategoryIdWritable.categoryName(category)).append('\t')
+              .append(id).append('\t').append(count);
+            out.set(sb.toString());
+            context.write(out, NullWritable.get());
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (heaps == null) {
+                return;
+            }
+            long[] ids = new long[topK];
+            long[] counts = new long[topK];
+            for (int c = 0; c < heaps.length; c++) {
+                int n = heaps[c].drain(ids, counts);
+                for (int i = 0; i < n; i++) {
+                    write(context, c, Long.toString(ids[i]), counts[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the per-task sketches of each category and writes its top N,
+     * ranked by upper bound. Runs as the only reducer.
+     */
+    public static class SketchReducer
+            extends Reducer<CategoryIdWritable, HeavyHitterSketch, Text, NullWritable> {
+
+        private final Text out = new Text();
+        private final StringBuilder sb = new StringBuilder();
+        private int top;
+        private long totalTweets;
+
+        @Override
+        protected void setup(Context context) {
+            int k = context.getConfiguration().getInt(TOP_K, 0);
+            top = k > 0 ? k : DEFAULT_APPROX_TOP;
+        }
+
+        @Override
+        protected void reduce(CategoryIdWritable key, Iterable<HeavyHitterSketch> values, Context context)
+                throws IOException, InterruptedException {
+            HeavyHitterSketch merged = newSketch(context.getConfiguration());
+            for (HeavyHitterSketch s : values) {
+                merged.merge(s);
+            }
+            totalTweets = merged.getTotal();
+
+            TopK heap = new TopK(top);
+            for (int i = 0; i < merged.size(); i++) {
+                heap.offer(merged.id(i), merged.upperBound(merged.id(i)));
+            }
+            long[] ids = new long[top];
+            long[] estimates = new long[top];
+            int n = heap.drain(ids, estimates);
+            String category = CategoryIdWritable.categoryName(key.getCategory());
+            for (int i = 0; i < n; i++) {
+                sb.setLength(0);
+                sb.append(category).append('\t').append(ids[i]).append('\t')
+                  .append(estimates[i]).append('\t').append(merged.lowerBound(ids[i]));
+                out.set(sb.toString());
+                context.write(out, NullWritable.get());
+            }
+
+            context.getCounter(APPROX_COUNTER_GROUP, "REDUCE_SKETCH_BYTES").increment(merged.sizeInBytes());
+            context.getCounter(APPROX_COUNTER_GROUP, "CM_ERROR_BOUND_" + category)
+                   .increment(merged.countMinErrorBound());
+            context.getCounter(APPROX_COUNTER_GROUP, "SS_UNTRACKED_BOUND_" + category)
+                   .increment(merged.untrackedBound());
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            out.set("STAT\tTOTAL_TWEETS\t" + totalTweets);
+            context.write(out, NullWritable.get());
+        }
+    }
+
+    public static Job createJob(Configuration conf) throws IOException {
+        Job job = Job.getInstance(conf, "Tweet Profile");
+
+        job.setJarByClass(TweetProfileJob.class);
+        job.setMapOutputKeyClass(CategoryIdWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        if (conf.getBoolean(APPROX, false)) {
+            job.setMapperClass(SketchMapper.class);
+            job.setReducerClass(SketchReducer.class);
+            job.setMapOutputValueClass(HeavyHitterSketch.class);
+            job.setNumReduceTasks(1);
+            return job;
+        }
+
+        job.setMapperClass(ProfileMapper.class);
+        job.setCombinerClass(SumCombiner.class);
+        job.setReducerClass(ProfileReducer.class);
+        job.setMapOutputValueClass(LongWritable.class);
+
+        if (conf.getInt(TOP_K, 0) > 0) {
+            job.setPartitionerClass(CategoryPartitioner.class);
+            job.setNumReduceTasks(Math.min(job.getNumReduceTasks(), CategoryIdWritable.NUM_CATEGORIES));
+        }
+        return job;
+    }
+
+    private interface LineVisitor {
+        void visit(int category, long id, long count, long lower);
+    }
+
+    /**
+     * Reads CATEGORY \t id \t count [\t lowerBound] lines from the part files
+     * of a job output directory. STAT lines are skipped.
+     */
+    private static void readOutput(Configuration conf, Path dir, LineVisitor visitor) throws IOException {
+        FileSystem fs = dir.getFileSystem(conf);
+        for (FileStatus file : fs.listStatus(dir)) {
+            if (!file.getPath().getName().startsWith("part-")) {
+                continue;
+            }
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(fs.open(file.getPath()), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] f = line.split("\t");
+                    int category = categoryCode(f[0]);
+                    if (category < 0 || category == CategoryIdWritable.STAT) {
+                        continue;
+                    }
+                    long count = Long.parseLong(f[2]);
+                    visitor.visit(category, Long.parseLong(f[1]), count,
+                            f.length > 3 ? Long.parseLong(f[3]) : count);
+                }
+            }
+        }
+    }
+
+    private static int categoryCode(String name) {
+        for (int c = 0; c < CategoryIdWritable.NUM_CATEGORIES; c++) {
+            if (CategoryIdWritable.categoryName(c).equals(name)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Prints, per category, how the approximate top N compares with the exact
+     * counts of an exact run (no {@link #TOP_K}) over the same input: recall of
+     * the exact top N, estimate errors, and how often the reported bounds miss.
+     */
+    static void compareWithExact(Configuration conf, Path approx, Path exact, int top, PrintStream out)
+            throws IOException {
+        List<Map<Long, long[]>> reported = new ArrayList<>();
+        for (int c = 0; c < CategoryIdWritable.NUM_CATEGORIES; c++) {
+            reported.add(new LinkedHashMap<>());
+        }
+        readOutput(conf, approx, (c, id, estimate, lower) ->
+                reported.get(c).put(id, new long[] {estimate, lower, -1}));
+
+        TopK[] exactTop = new TopK[CategoryIdWritable.NUM_CATEGORIES];
+        for (int c = 0; c < exactTop.length; c++) {
+            exactTop[c] = new TopK(top);
+        }
+        readOutput(conf, exact, (c, id, count, lower) -> {
+            exactTop[c].offer(id, count);
+            long[] r = reported.get(c).get(id);
+            if (r != null) {
+                r[2] = count;
+            }
+        });
+
+        out.println("category\trecall@" + top + "\tmax_abs_err\tmean_abs_err\tmax_rel_err\tbound_misses");
+        long[] ids = new long[top];
+        long[] counts = new long[top];
+        for (byte c : SKETCHED) {
+            int n = exactTop[c].drain(ids, counts);
+            Map<Long, long[]> r = reported.get(c);
+            int hits = 0;
+            for (int i = 0; i < n; i++) {
+                if (r.containsKey(ids[i])) {
+                    hits++;
+                }
+            }
+            long maxAbs = 0;
+            long sumAbs = 0;
+            double maxRel = 0;
+            int misses = 0;
+            for (long[] e : r.values()) {
+                long truth = Math.max(e[2], 0);
+                long err = e[0] - truth;
+                maxAbs = Math.max(maxAbs, Math.abs(err));
+                sumAbs += Math.abs(err);
+                maxRel = Math.max(maxRel, truth == 0 ? 1.0 : (double) Math.abs(err) / truth);
+                if (truth > e[0] || truth < e[1]) {
+                    misses++;
+                }
+            }
+            out.printf("%s\t%.3f\t%d\t%.2f\t%.5f\t%d%n", CategoryIdWritable.categoryName(c),
+                    n == 0 ? 1.0 : (double) hits / n, maxAbs,
+                    r.isEmpty() ? 0.0 : (double) sumAbs / r.size(), maxRel, misses);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length != 2) {
+            System.err.println("Usage: TweetProfileJob [-D " + TOP_K + "=K] [-D " + APPROX + "=true"
+                    + " [-D " + APPROX_EXACT + "=<exact output>]] <input path> <output path>");
+            System.exit(1);
+        }
+
+        Job job = createJob(conf);
+
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        if (!job.waitForCompletion(true)) {
+            System.exit(1);
+        }
+        if (conf.getBoolean(APPROX, false)) {
+            CounterGroup sketch = job.getCounters().getGroup(APPROX_COUNTER_GROUP);
+            System.out.println("Sketch footprint: " + sketch.findCounter("MAP_SKETCH_BYTES").getValue()
+                    + " bytes over all map tasks, " + sketch.findCounter("REDUCE_SKETCH_BYTES").getValue()
+                    + " bytes merged");
+            for (byte c : SKETCHED) {
+                String name = CategoryIdWritable.categoryName(c);
+                System.out.println(name + ": Count-Min overcount <= "
+                        + sketch.findCounter("CM_ERROR_BOUND_" + name).getValue()
+                        + ", untracked ids <= " + sketch.findCounter("SS_UNTRACKED_BOUND_" + name).getValue());
+            }
+            String exact = conf.get(APPROX_EXACT);
+            if (exact != null) {
+                int k = conf.getInt(TOP_K, 0);
+                compareWithExact(conf, new Path(args[1]), new Path(exact),
+                        k > 0 ? k : DEFAULT_APPROX_TOP, System.out);
+            }
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,186 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares CsvFieldScanner against the parsers it replaced in the mappers.
+ *
+ * Each benchmark splits one line and reads the fields the mapper needs:
+ * the ten numeric feature columns for the Spotify rows, and the seven
+ * chart columns for the Hot100 row.
+ *
+ * Run with -prof gc to see bytes allocated per line. The scanner is driven
+ * through {@link DefaultPackage} handles since it lives in the default package.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvParseBenchmark {
+
+    private static final String SPOTIFY_LINE =
+            "0.0594,1921,0.982,['Sergei Rachmaninoff'],0.279,831667,0.211,0,"
+            + "4BJqT0PrAfrxzMOxytFOIz,0.878,10,0.665,-20.096,1,"
+            + "Piano Concerto No. 3 in D Minor,4,1921,0.0366,80.954";
+
+    private static final String SPOTIFY_QUOTED_LINE =
+            "0.963,1921,0.732,\"['Dennis Day', 'Frank Sinatra']\",0.819,180533,0.341,0,"
+            + "7xPhfUan2yNtyFG0cUWkt8,0.0,7,0.16,-12.441,1,"
+            + "\"Clancy Lowered the Boom, Pt. 2\",5,1921,0.415,60.936";
+
+    private static final String HOT100_LINE =
+            "2021-11-06,\"Easy On Me\",Adele,1,1,1,3,https://charts-static.billboard.com/img.jpg";
+
+    private static final String FEATURES_REGEX = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+
+    private static final int[] FEATURE_COLUMNS = {0, 2, 4, 6, 9, 11, 12, 17, 18};
+
+    private static final MethodHandle SCAN =
+            DefaultPackage.virtual("CsvFieldScanner", "scan", int.class, Text.class);
+    private static final MethodHandle PARSE_INT =
+            DefaultPackage.virtual("CsvFieldScanner", "parseInt", int.class, int.class);
+    private static final MethodHandle PARSE_DOUBLE =
+            DefaultPackage.virtual("CsvFieldScanner", "parseDouble", double.class, int.class);
+    private static final MethodHandle IS_INT =
+            DefaultPackage.virtual("CsvFieldScanner", "isInt", boolean.class, int.class);
+    private static final MethodHandle GET_STRING =
+            DefaultPackage.virtual("CsvFieldScanner", "getString", String.class, int.class);
+
+    private Text spotify;
+    private Text spotifyQuoted;
+    private Text hot100;
+
+    private Object scanner;
+    private Object plainScanner;
+
+    @Setup
+    public void setup() {
+        spotify = new Text(SPOTIFY_LINE);
+        spotifyQuoted = new Text(SPOTIFY_QUOTED_LINE);
+        hot100 = new Text(HOT100_LINE.getBytes(StandardCharsets.UTF_8));
+        scanner = DefaultPackage.create("CsvFieldScanner");
+        plainScanner = DefaultPackage.create("CsvFieldScanner",
+                new Class<?>[] {boolean.class}, false);
+    }
+
+    private static double legacyFeatures(Text value) {
+        String line = value.toString().trim();
+        String[] fields = line.split(FEATURES_REGEX, -1);
+        double acc = fields.length + Integer.parseInt(fields[1]);
+        for (int c : FEATURE_COLUMNS) {
+            acc += Double.parseDouble(fields[c]);
+        }
+        return acc;
+    }
+
+    private static double scannerFeatures(Object scanner, Text value) throws Throwable {
+        int fields = (int) SCAN.invokeExact(scanner, value);
+        double acc = fields + (int) PARSE_INT.invokeExact(scanner, 1);
+        for (int c : FEATURE_COLUMNS) {
+            acc += (double) PARSE_DOUBLE.invokeExact(scanner, c);
+        }
+        return acc;
+    }
+
+    @Benchmark
+    public double featuresRegexSplit() {
+        return legacyFeatures(spotify);
+    }
+
+    @Benchmark
+    public double featuresScanner() throws Throwable {
+        return scannerFeatures(scanner, spotify);
+    }
+
+    @Benchmark
+    public double featuresQuotedRegexSplit() {
+        return legacyFeatures(spotifyQuoted);
+    }
+
+    @Benchmark
+    public double featuresQuotedScanner() throws Throwable {
+        return scannerFeatures(scanner, spotifyQuoted);
+    }
+
+    @Benchmark
+    public void cleanerStringSplit(Blackhole bh) {
+        String[] fields = spotify.toString().split(",", -1);
+        bh.consume(fields.length);
+        bh.consume(fields);
+    }
+
+    @Benchmark
+    public void cleanerScanner(Blackhole bh) throws Throwable {
+        bh.consume((int) SCAN.invokeExact(plainScanner, spotify));
+        bh.consume((double) PARSE_DOUBLE.invokeExact(plainScanner, 0));
+    }
+
+    @Benchmark
+    public void hot100StringBuilderParse(Blackhole bh) {
+        String[] fields = legacyParseCSVLine(hot100.toString());
+        for (int i = 0; i < 7; i++) {
+            bh.consume(fields[i].trim());
+        }
+    }
+
+    @Benchmark
+    public void hot100Scanner(Blackhole bh) throws Throwable {
+        bh.consume((int) SCAN.invokeExact(scanner, hot100));
+        bh.consume((String) GET_STRING.invokeExact(scanner, 0));
+        bh.consume((String) GET_STRING.invokeExact(scanner, 1));
+        bh.consume((String) GET_STRING.invokeExact(scanner, 2));
+        for (int i = 3; i < 7; i++) {
+            bh.consume((boolean) IS_INT.invokeExact(scanner, i));
+        }
+    }
+
+    /**
+     * hot100Mapper.parseCSVLine as it was before the scanner.
+     */
+    private static String[] legacyParseCSVLine(String line) {
+        String[] result = new String[8];
+        int fieldIndex = 0;
+        StringBuilder currentField = new StringBuilder();
+        boolean inQuotes = false;
+
+        for (int i = 0; i < line.length() && fieldIndex < 8; i++) {
+            char c = line.charAt(i);
+
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == ',' && !inQuotes) {
+                result[fieldIndex++] = currentField.toString();
+                currentField = new StringBuilder();
+            } else {
+                currentField.append(c);
+            }
+        }
+
+        if (fieldIndex < 8) {
+            result[fieldIndex] = currentField.toString();
+        }
+
+        for (int i = fieldIndex + 1; i < 8; i++) {
+            result[i] = "";
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Access to the pipeline classes from the benchmarks.
+ *
+ * The jobs live in the default package, which named packages cannot import,
+ * and JMH refuses benchmark classes in the default package. Benchmarks bind
+ * the methods they drive once, into static final MethodHandles, which the
+ * JIT treats as constants and inlines like direct calls.
+ */
+public final class DefaultPackage {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private DefaultPackage() {
+    }
+
+    public static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Pipeline class not on classpath: " + className, e);
+        }
+    }
+
+    /**
+     * Instance method of a pipeline class, with the receiver widened to Object.
+     */
+    public static MethodHandle virtual(String className, String method,
+            Class<?> returnType, Class<?>... params) {
+        try {
+            Class<?> cls = type(className);
+            MethodHandle mh = LOOKUP.findVirtual(cls, method, MethodType.methodType(returnType, params));
+            return mh.asType(mh.type().changeParameterType(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(className + "." + method, e);
+        }
+    }
+
+    /**
+     * Static method of a pipeline class.
+     */
+    public static MethodHandle statik(String className, String method,
+            Class<?> returnType, Class<?>... params) {
+        try {
+            return LOOKUP.findStatic(type(className), method, MethodType.methodType(returnType, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(className + "." + method, e);
+        }
+    }
+
+    /**
+     * Creates an instance through its public constructor with the given
+     * parameter types.
+     */
+    public static Object create(String className, Class<?>[] paramTypes, Object... args) {
+        try {
+            return type(className).getConstructor(paramTypes).newInstance(args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("new " + className, e);
+        }
+    }
+
+    public static Object create(String className) {
+        return create(className, new Class<?>[0]);
+    }
+}
@@ -0,0 +1,125 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scalar against Vector API feature kernels over one 10M-row column (80 MB,
+ * well past the caches).
+ *
+ * sum, sumOfSquares and minMax each make one pass over the column. fold
+ * is the local engine's rollup loop: the same doubles read as rows of nine
+ * features, each added into the sums of one of 100 buckets. The column
+ * holds loudness-like values with 1% NaN, which minMax has to skip.
+ * Both implementations are called directly, in a JVM with the incubator
+ * module, so impl=scalar is the fallback Hadoop tasks run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class FeatureKernelBenchmark {
+
+    private static final int FEATURES = 9;
+    private static final int BUCKETS = 100;
+
+    private static final MethodHandle SCALAR_ADD = kernel("FeatureKernels$Scalar", "add");
+    private static final MethodHandle VECTOR_ADD = kernel("FeatureVectorKernels", "add");
+    private static final MethodHandle SCALAR_SUM = DefaultPackage.statik("FeatureKernels$Scalar", "sum",
+            double.class, double[].class, int.class, int.class);
+    private static final MethodHandle VECTOR_SUM = DefaultPackage.statik("FeatureVectorKernels", "sum",
+            double.class, double[].class, int.class, int.class);
+    private static final MethodHandle SCALAR_SQUARES = DefaultPackage.statik("FeatureKernels$Scalar",
+            "sumOfSquares", double.class, double[].class, int.class, int.class, double.class);
+    private static final MethodHandle VECTOR_SQUARES = DefaultPackage.statik("FeatureVectorKernels",
+            "sumOfSquares", double.class, double[].class, int.class, int.class, double.class);
+    private static final MethodHandle SCALAR_MIN_MAX = DefaultPackage.statik("FeatureKernels$Scalar",
+            "minMax", void.class, double[].class, int.class, int.class, double[].class);
+    private static final MethodHandle VECTOR_MIN_MAX = DefaultPackage.statik("FeatureVectorKernels",
+            "minMax", void.class, double[].class, int.class, int.class, double[].class);
+
+    @Param({"10000000"})
+    public int rows;
+
+    @Param({"scalar", "vector"})
+    public String impl;
+
+    private boolean vector;
+    private double[] column;
+    private double[] clean;
+    private int[] buckets;
+    private final double[] sums = new double[BUCKETS * FEATURES];
+    private final double[] minMax = new double[2];
+
+    private static MethodHandle kernel(String className, String method) {
+        return DefaultPackage.statik(className, method, void.class,
+                double[].class, int.class, double[].class, int.class, int.class);
+    }
+
+    @Setup
+    public void setup() {
+        vector = impl.equals("vector");
+        Random rnd = new Random(42);
+        column = new double[rows];
+        clean = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            clean[i] = -60 + 60 * rnd.nextDouble();
+            column[i] = rnd.nextInt(100) == 0 ? Double.NaN : clean[i];
+        }
+        buckets = new int[rows / FEATURES];
+        for (int t = 0; t < buckets.length; t++) {
+            buckets[t] = rnd.nextInt(BUCKETS);
+        }
+    }
+
+    @Benchmark
+    public double sum() throws Throwable {
+        return vector
+                ? (double) VECTOR_SUM.invokeExact(clean, 0, rows)
+                : (double) SCALAR_SUM.invokeExact(clean, 0, rows);
+    }
+
+    @Benchmark
+    public double sumOfSquares() throws Throwable {
+        return vector
+                ? (double) VECTOR_SQUARES.invokeExact(clean, 0, rows, -30.0)
+                : (double) SCALAR_SQUARES.invokeExact(clean, 0, rows, -30.0);
+    }
+
+    @Benchmark
+    public double[] minMax() throws Throwable {
+        if (vector) {
+            VECTOR_MIN_MAX.invokeExact(column, 0, rows, minMax);
+        } else {
+            SCALAR_MIN_MAX.invokeExact(column, 0, rows, minMax);
+        }
+        return minMax;
+    }
+
+    @Benchmark
+    public double[] fold() throws Throwable {
+        for (int t = 0; t < buckets.length; t++) {
+            if (vector) {
+                VECTOR_ADD.invokeExact(sums, buckets[t] * FEATURES, clean, t * FEATURES, FEATURES);
+            } else {
+                SCALAR_ADD.invokeExact(sums, buckets[t] * FEATURES, clean, t * FEATURES, FEATURES);
+            }
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,161 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-line throughput of the Hot100 cleaner before and after the output
+ * Text reuse and the regex-free date check.
+ *
+ * The legacy path is the String/regex/new Text code the mapper used to run,
+ * kept here as the baseline. Both paths see the same generated chart lines,
+ * with a few quoted titles and rejects mixed in. Results are per line; run
+ * with -prof gc for bytes allocated per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Hot100MapperBenchmark {
+
+    private static final int LINES = 1024;
+
+    private static final MethodHandle CLEAN =
+            DefaultPackage.virtual("hot100Mapper", "clean", int.class, Text.class, Text.class);
+
+    private Text[] lines;
+    private Object mapper;
+    private final Text out = new Text();
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        lines = new Text[LINES];
+        for (int i = 0; i < LINES; i++) {
+            int rank = 1 + rnd.nextInt(100);
+            String date = String.format("%04d-%02d-%02d",
+                    1958 + rnd.nextInt(64), 1 + rnd.nextInt(12), 1 + rnd.nextInt(28));
+            String song = (i % 10 == 0) ? "\"Song " + i + ", Pt. 2\"" : "Song " + i;
+            String lastWeek = (i % 7 == 0) ? "" : Integer.toString(1 + rnd.nextInt(100));
+            if (i % 97 == 0) {
+                date = "bad-date";
+            }
+            lines[i] = new Text(date + "," + song + ",Artist " + rnd.nextInt(5000) + ","
+                    + rank + "," + lastWeek + "," + rank + "," + (1 + rnd.nextInt(60))
+                    + ",https://charts-static.billboard.com/img/" + i + ".jpg");
+        }
+        mapper = DefaultPackage.create("hot100Mapper");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void legacy(Blackhole bh) {
+        for (Text line : lines) {
+            bh.consume(legacyClean(line));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void reusedText(Blackhole bh) throws Throwable {
+        for (Text line : lines) {
+            bh.consume((int) CLEAN.invokeExact(mapper, line, out));
+            bh.consume(out.getLength());
+        }
+    }
+
+    /**
+     * hot100Mapper.map as it was before this change, minus the context.
+     */
+    private static Text legacyClean(Text value) {
+        String[] fields = legacyParseCSVLine(value.toString());
+        String date = fields[0].trim();
+        String song = fields[1].trim();
+        String artist = fields[2].trim();
+        String rank = fields[3].trim();
+        String lastWeek = fields[4].trim();
+        String peakPosition = fields[5].trim();
+        String weeksInCharts = fields[6].trim();
+
+        if (!date.matches("\\d{4}-\\d{2}-\\d{2}")) {
+            return null;
+        }
+        if (song.isEmpty() || artist.isEmpty()) {
+            return null;
+        }
+        try {
+            Integer.parseInt(rank);
+            Integer.parseInt(peakPosition);
+            Integer.parseInt(weeksInCharts);
+            if (lastWeek.equals("#") || lastWeek.isEmpty()) {
+                lastWeek = "NULL";
+            } else {
+                Integer.parseInt(lastWeek);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        StringBuilder cleanedRecord = new StringBuilder();
+        cleanedRecord.append(date).append(",")
+                     .append(escapeCSV(song)).append(",")
+                     .append(escapeCSV(artist)).append(",")
+                     .append(rank).append(",")
+                     .append(lastWeek).append(",")
+                     .append(peakPosition).append(",")
+                     .append(weeksInCharts);
+        return new Text(cleanedRecord.toString());
+    }
+
+    private static String escapeCSV(String str) {
+        if (str.contains(",") || str.contains("\"") || str.contains("\n")) {
+            return "\"" + str.replace("\"", "\"\"") + "\"";
+        }
+        return str;
+    }
+
+    private static String[] legacyParseCSVLine(String line) {
+        String[] result = new String[8];
+        int fieldIndex = 0;
+        StringBuilder currentField = new StringBuilder();
+        boolean inQuotes = false;
+
+        for (int i = 0; i < line.length() && fieldIndex < 8; i++) {
+            char c = line.charAt(i);
+
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == ',' && !inQuotes) {
+                result[fieldIndex++] = currentField.toString();
+                currentField = new StringBuilder();
+            } else {
+                currentField.append(c);
+            }
+        }
+
+        if (fieldIndex < 8) {
+            result[fieldIndex] = currentField.toString();
+        }
+        for (int i = fieldIndex + 1; i < 8; i++) {
+            result[i] = "";
+        }
+        return result;
+    }
+}
@@ -0,0 +1,186 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Records per second of every mapper, combiner and reducer of the jobs,
+ * run through {@link TaskHarness} on fixed synthetic inputs.
+ *
+ * The inputs come from SyntheticDataGenerator with a fixed seed, either
+ * clean or with every kind of dirt at 1%, so runs on different commits see
+ * the same records. One invocation is one task over {@link #RECORDS} input
+ * records, setup() and cleanup() included; scores are per input record and
+ * -prof gc reports gc.alloc.rate.norm in bytes per input record. Reducers
+ * and combiners read the sorted, uncombined output of their job's mapper
+ * over the same data. MmtdJoinJob is not covered: its mappers load the
+ * dimension tables from the distributed cache in setup().
+ *
+ * bench/run.sh runs this with -prof gc and keeps the JSON per commit;
+ * bench/compare.py diffs two such files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapReduceBenchmark {
+
+    static final int RECORDS = 8192;
+    private static final long SEED = 20240601L;
+
+    private static final MethodHandle GENERATE =
+            DefaultPackage.statik("SyntheticDataGenerator", "main", void.class, String[].class);
+
+    public enum Task {
+        SpotifyCleanMapper("spotify", "SpotifyCleanMapper", null),
+        hot100Mapper("hot100", "hot100Mapper", null),
+        FeaturesMapper("spotify", "AudioFeatureRollup$FeaturesMapper", null),
+        FeaturesCombiner("spotify", "AudioFeatureRollup$FeaturesCombiner", "AudioFeatureRollup$FeaturesMapper"),
+        FeaturesReducer("spotify", "AudioFeatureRollup$FeaturesReducer", "AudioFeatureRollup$FeaturesMapper"),
+        ProfileMapper("tweets", "TweetProfileJob$ProfileMapper", null),
+        SumCombiner("tweets", "TweetProfileJob$SumCombiner", "TweetProfileJob$ProfileMapper"),
+        ProfileReducer("tweets", "TweetProfileJob$ProfileReducer", "TweetProfileJob$ProfileMapper");
+
+        final String dataset;
+        final String taskClass;
+        /** Mapper whose output feeds this reducer; null for mappers. */
+        final String inputMapper;
+
+        Task(String dataset, String taskClass, String inputMapper) {
+            this.dataset = dataset;
+            this.taskClass = taskClass;
+            this.inputMapper = inputMapper;
+        }
+    }
+
+    @Param
+    public Task task;
+
+    @Param({"clean", "dirty"})
+    public String data;
+
+    private TaskHarness harness;
+    private Class<?> taskClass;
+    private LongWritable[] offsets;
+    private Text[] lines;
+    private TaskHarness.SortedInput sorted;
+    private ScratchDir scratch;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        harness = new TaskHarness(new Configuration());
+        taskClass = DefaultPackage.type(task.taskClass);
+        scratch = new ScratchDir("bench-" + task.dataset + "-" + data);
+        // Reducers need RECORDS map outputs even when dirty rows drop out.
+        read(generate(scratch.resolve("data"), task.dataset, data),
+                task.inputMapper == null ? RECORDS : 2 * RECORDS);
+        if (task.inputMapper != null) {
+            Class<?> mapper = DefaultPackage.type(task.inputMapper);
+            harness.capture(true);
+            harness.map((Mapper<?, ?, ?, ?>) mapper.getConstructor().newInstance(), offsets, lines);
+            harness.capture(false);
+            Class<?> keyClass = task.dataset.equals("spotify") ? IntWritable.class
+                    : DefaultPackage.type("CategoryIdWritable");
+            Class<?> valueClass = task.dataset.equals("spotify") ? DefaultPackage.type("FeatureSumsWritable")
+                    : LongWritable.class;
+            sorted = harness.sorted(keyClass, valueClass, RECORDS);
+            if (sorted.size() < RECORDS) {
+                throw new IllegalStateException(task + ": only " + sorted.size() + " map outputs");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        scratch.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long run() throws Exception {
+        Object instance = taskClass.getConstructor().newInstance();
+        if (sorted == null) {
+            harness.map((Mapper<?, ?, ?, ?>) instance, offsets, lines);
+        } else {
+            harness.reduce((Reducer<?, ?, ?, ?>) instance, sorted);
+        }
+        return harness.outputBytes();
+    }
+
+    /** Writes the dataset's part file under dir and returns dir. */
+    private static Path generate(Path dir, String dataset, String data) throws Throwable {
+        List<String> args = new ArrayList<>(List.of(
+                "-D", "synth.seed=" + SEED, "-D", "synth.threads=1", "-D", "synth.files=1",
+                "-D", "synth.tweets.cleaned=true"));
+        if (data.equals("dirty")) {
+            for (String kind : new String[] {"missing", "outofrange", "unparsable", "quoted", "malformed"}) {
+                args.add("-D");
+                args.add("synth.dirty." + kind + "=0.01");
+            }
+        }
+        // The header line and a margin for malformed rows.
+        args.add(dataset);
+        args.add(Integer.toString(2 * RECORDS + 64));
+        args.add(dir.toString());
+        GENERATE.invokeExact(args.toArray(new String[0]));
+        return dir;
+    }
+
+    /** The first n lines of the generated file, keyed by byte offset as TextInputFormat does. */
+    private void read(Path dir, int n) throws IOException {
+        Path file;
+        try (Stream<Path> files = Files.list(dir)) {
+            file = files.filter(p -> p.getFileName().toString().startsWith("part-"))
+                    .min(Comparator.naturalOrder())
+                    .orElseThrow(() -> new IOException("No part file in " + dir));
+        }
+        offsets = new LongWritable[n];
+        lines = new Text[n];
+        long offset = 0;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < n; i++) {
+                String line = in.readLine();
+                if (line == null) {
+                    throw new IOException(file + " has fewer than " + n + " lines");
+                }
+                offsets[i] = new LongWritable(offset);
+                lines[i] = new Text(line);
+                offset += lines[i].getLength() + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A temporary directory for generated benchmark inputs, deleted with
+ * everything under it on close(). File.deleteOnExit() cannot do that: it
+ * skips directories that are not empty by then.
+ */
+public final class ScratchDir implements AutoCloseable {
+
+    private final Path path;
+
+    public ScratchDir(String prefix) throws IOException {
+        path = Files.createTempDirectory(prefix);
+    }
+
+    public Path resolve(String name) {
+        return path.resolve(name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (Stream<Path> tree = Files.walk(path)) {
+            // Children before their parents.
+            tree.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.util.Progress;
+
+/**
+ * Runs one Mapper or Reducer in memory, through Hadoop's own context
+ * classes but without an InputFormat, sort buffer, shuffle or OutputFormat.
+ *
+ * Map input comes from arrays; reduce input is serialized (key, value)
+ * records sorted with the key's registered raw comparator, so
+ * ReduceContextImpl groups and deserializes them as a real reduce task
+ * would. Every output record is serialized once into a scratch buffer,
+ * standing in for the collector, and counted; {@link #capture} keeps the
+ * serialized records so one task's output can feed the next. Counters land
+ * in an in-memory {@link Counters}.
+ */
+public final class TaskHarness {
+
+    private final Configuration conf;
+    private final Counters counters = new Counters();
+    private final Reporter reporter = new Reporter();
+    private final Sink sink = new Sink();
+
+    public TaskHarness(Configuration conf) {
+        this.conf = conf;
+    }
+
+    public Configuration conf() {
+        return conf;
+    }
+
+    public Counters counters() {
+        return counters;
+    }
+
+    /** Output records of the last run. */
+    public long outputRecords() {
+        return sink.records;
+    }
+
+    /** Serialized output bytes of the last run. */
+    public long outputBytes() {
+        return sink.bytes;
+    }
+
+    /**
+     * Keeps the serialized output of the following runs for {@link #sorted},
+     * dropping anything captured before.
+     */
+    public void capture(boolean capture) {
+        if (capture) {
+            sink.keys.clear();
+            sink.values.clear();
+        }
+        sink.capture = capture;
+    }
+
+    /**
+     * Runs the mapper over (keys[i], values[i]) with task id 0.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void map(Mapper mapper, Object[] keys, Object[] values) throws IOException, InterruptedException {
+        sink.reset();
+        TaskAttemptID id = new TaskAttemptID("bench", 0, TaskType.MAP, 0, 0);
+        MapContextImpl context = new MapContextImpl(conf, id, new ArrayReader(keys, values),
+                sink, null, reporter, null);
+        mapper.run(new WrappedMapper().getMapContext(context));
+    }
+
+    /**
+     * Runs the reducer (or combiner) over sorted serialized input.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void reduce(Reducer reducer, SortedInput input) throws IOException, InterruptedException {
+        sink.reset();
+        TaskAttemptID id = new TaskAttemptID("bench", 0, TaskType.REDUCE, 0, 0);
+        input.rewind();
+        ReduceContextImpl context = new ReduceContextImpl(conf, id, input,
+                counters.findCounter(TaskCounter.REDUCE_INPUT_GROUPS),
+                counters.findCounter(TaskCounter.REDUCE_INPUT_RECORDS),
+                sink, null, reporter, input.comparator, input.keyClass, input.valueClass);
+        reducer.run(new WrappedReducer().getReducerContext(context));
+    }
+
+    /**
+     * The captured records, at most limit of them in capture order, sorted
+     * by key as the shuffle would deliver them.
+     */
+    public SortedInput sorted(Class<?> keyClass, Class<?> valueClass, int limit) {
+        int n = Math.min(limit, sink.keys.size());
+        byte[][] keys = sink.keys.subList(0, n).toArray(new byte[0][]);
+        byte[][] values = sink.values.subList(0, n).toArray(new byte[0][]);
+        return new SortedInput(keys, values, keyClass, valueClass);
+    }
+
+    /**
+     * Serialized map output in shuffle order; replayable any number of times.
+     */
+    public static final class SortedInput implements RawKeyValueIterator {
+        private final byte[][] keys;
+        private final byte[][] values;
+        final Class<?> keyClass;
+        final Class<?> valueClass;
+        @SuppressWarnings("rawtypes")
+        final RawComparator comparator;
+        private final DataInputBuffer key = new DataInputBuffer();
+        private final DataInputBuffer value = new DataInputBuffer();
+        private int next;
+
+        @SuppressWarnings("unchecked")
+        SortedInput(byte[][] keys, byte[][] values, Class<?> keyClass, Class<?> valueClass) {
+            this.keyClass = keyClass;
+            this.valueClass = valueClass;
+            comparator = WritableComparator.get(keyClass.asSubclass(WritableComparable.class));
+            Integer[] order = new Integer[keys.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            // Stable, like the merge of sorted spills for equal keys.
+            Arrays.sort(order, (a, b) -> comparator.compare(
+                    keys[a], 0, keys[a].length, keys[b], 0, keys[b].length));
+            this.keys = new byte[keys.length][];
+            this.values = new byte[keys.length][];
+            for (int i = 0; i < order.length; i++) {
+                this.keys[i] = keys[order[i]];
+                this.values[i] = values[order[i]];
+            }
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        void rewind() {
+            next = 0;
+        }
+
+        @Override
+        public DataInputBuffer getKey() {
+            return key;
+        }
+
+        @Override
+        public DataInputBuffer getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean next() {
+            if (next == keys.length) {
+                return false;
+            }
+            key.reset(keys[next], keys[next].length);
+            value.reset(values[next], values[next].length);
+            next++;
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Progress getProgress() {
+            return null;
+        }
+    }
+
+    /** Record reader over two parallel arrays. */
+    private static final class ArrayReader extends RecordReader<Object, Object> {
+        private final Object[] keys;
+        private final Object[] values;
+        private int next = -1;
+
+        ArrayReader(Object[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) {
+        }
+
+        @Override
+        public boolean nextKeyValue() {
+            return ++next < values.length;
+        }
+
+        @Override
+        public Object getCurrentKey() {
+            return keys[next];
+        }
+
+        @Override
+        public Object getCurrentValue() {
+            return values[next];
+        }
+
+        @Override
+        public float getProgress() {
+            return values.length == 0 ? 1f : (float) next / values.length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Serializes, counts and optionally keeps every output record. */
+    private static final class Sink extends RecordWriter<Object, Object> {
+        private final DataOutputBuffer scratch = new DataOutputBuffer();
+        private final List<byte[]> keys = new ArrayList<>();
+        private final List<byte[]> values = new ArrayList<>();
+        private boolean capture;
+        private long records;
+        private long bytes;
+
+        void reset() {
+            records = 0;
+            bytes = 0;
+        }
+
+        @Override
+        public void write(Object key, Object value) throws IOException {
+            records++;
+            scratch.reset();
+            ((Writable) key).write(scratch);
+            int keyLength = scratch.getLength();
+            ((Writable) value).write(scratch);
+            bytes += scratch.getLength();
+            if (capture) {
+                keys.add(Arrays.copyOfRange(scratch.getData(), 0, keyLength));
+                values.add(Arrays.copyOfRange(scratch.getData(), keyLength, scratch.getLength()));
+            }
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) {
+        }
+    }
+
+    private final class Reporter extends StatusReporter {
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+    }
+}
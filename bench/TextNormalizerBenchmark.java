@@ -0,0 +1,113 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-value cost of normalizing join keys: the regex port of normalize_text
+ * the MMTD join started with, against TextNormalizer without and with its
+ * cache.
+ *
+ * Values are artist and track names drawn with a Zipf-like skew from a pool
+ * of 20000, decorated with case, punctuation, padding and accents. All of
+ * them fit in the cache, so singlePassCached is the hit path; a miss costs
+ * about one singlePass plus copying the key and result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextNormalizerBenchmark {
+
+    private static final int VALUES = 4096;
+    private static final int DISTINCT = 20000;
+
+    private static final MethodHandle NORMALIZE =
+            DefaultPackage.virtual("TextNormalizer", "normalize", int.class, byte[].class, int.class, int.class);
+
+    private static final Pattern EDGE_SPACES = Pattern.compile("^\\s+|\\s+$", Pattern.UNICODE_CHARACTER_CLASS);
+    private static final Pattern NON_ALNUM = Pattern.compile("[^a-z0-9\\s]", Pattern.UNICODE_CHARACTER_CLASS);
+    private static final Pattern SPACES = Pattern.compile("\\s+", Pattern.UNICODE_CHARACTER_CLASS);
+    private static final Set<String> NA_VALUES = new HashSet<>(Arrays.asList(
+            "", "#N/A", "#N/A N/A", "#NA", "-1.#IND", "-1.#QNAN", "-NaN", "-nan", "1.#IND",
+            "1.#QNAN", "<NA>", "N/A", "NA", "NULL", "NaN", "None", "n/a", "nan", "null"));
+
+    private byte[][] values;
+    private Object uncached;
+    private Object cached;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        String[] pool = new String[DISTINCT];
+        String[] decorations = {"", "!", " (Remastered)", ", Pt. 2", "  ", " feat. B\u00e9yonc\u00e9"};
+        for (int i = 0; i < DISTINCT; i++) {
+            String base = (i % 2 == 0 ? "The Artist " : "Track Title ") + Integer.toString(i, 36).toUpperCase(Locale.ROOT);
+            pool[i] = (i % 5 == 0 ? "  " : "") + base + decorations[i % decorations.length];
+        }
+        values = new byte[VALUES][];
+        for (int i = 0; i < VALUES; i++) {
+            // Inverse-power draw: a few names dominate, as in tweet streams.
+            int pick = (int) Math.min(DISTINCT - 1, Math.floor(Math.pow(DISTINCT, rnd.nextDouble())) - 1);
+            values[i] = pool[Math.max(0, pick)].getBytes(StandardCharsets.UTF_8);
+        }
+        uncached = DefaultPackage.create("TextNormalizer", new Class<?>[] {int.class}, 0);
+        cached = DefaultPackage.create("TextNormalizer", new Class<?>[] {int.class}, 1 << 16);
+    }
+
+    /** The regex port of normalize_text, kept as the baseline. */
+    static String regexNormalize(String s) {
+        if (s == null || NA_VALUES.contains(s)) {
+            return "";
+        }
+        s = EDGE_SPACES.matcher(s.toLowerCase(Locale.ROOT)).replaceAll("");
+        s = NON_ALNUM.matcher(s).replaceAll("");
+        return SPACES.matcher(s).replaceAll(" ");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void regex(Blackhole bh) {
+        for (byte[] v : values) {
+            bh.consume(regexNormalize(new String(v, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void singlePass(Blackhole bh) throws Throwable {
+        for (byte[] v : values) {
+            bh.consume((int) NORMALIZE.invokeExact(uncached, v, 0, v.length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void singlePassCached(Blackhole bh) throws Throwable {
+        for (byte[] v : values) {
+            bh.consume((int) NORMALIZE.invokeExact(cached, v, 0, v.length));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package bench;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query latency and recall of the IVF track index against brute force.
+ *
+ * The catalog is SyntheticDataGenerator's Spotify dataset with a fixed
+ * seed; queries are the vectors of random tracks, top {@link #K}. nprobe=0
+ * is the exact scan over every vector. SampleTime reports the latency
+ * percentiles (p99 among them); setup prints recall@K against the exact
+ * scan for the nprobe being measured.
+ *
+ * For the whole recall/latency curve in one run, without JMH:
+ * <pre>
+ *   java -cp bench/target/benchmarks.jar bench.TrackIndexBenchmark [tracks]
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrackIndexBenchmark {
+
+    static final int K = 10;
+    private static final int QUERIES = 1024;
+    private static final long SEED = 42L;
+
+    /** Results the sweep found, so the JIT cannot drop the queries. */
+    static long found;
+
+    private static final MethodHandle GENERATE =
+            DefaultPackage.statik("SyntheticDataGenerator", "main", void.class, String[].class);
+    private static final MethodHandle BUILD = DefaultPackage.virtual("TrackIndexBuilder", "build",
+            void.class, org.apache.hadoop.fs.Path.class, Path.class);
+    private static final MethodHandle OPEN = widen(
+            DefaultPackage.statik("TrackIndex", "open", DefaultPackage.type("TrackIndex"), Path.class));
+    private static final MethodHandle SEARCHER = widen(DefaultPackage.virtual("TrackIndex", "searcher",
+            DefaultPackage.type("TrackIndex$Searcher")));
+    private static final MethodHandle NUM_LISTS =
+            DefaultPackage.virtual("TrackIndex", "numLists", int.class);
+    private static final MethodHandle SIZE =
+            DefaultPackage.virtual("TrackIndex", "size", int.class);
+    private static final MethodHandle VECTOR =
+            DefaultPackage.virtual("TrackIndex", "vector", void.class, int.class, float[].class);
+    private static final MethodHandle SEARCH = DefaultPackage.virtual("TrackIndex$Searcher", "search",
+            int.class, float[].class, int.class, int.class, int[].class, float[].class);
+    private static final MethodHandle SEARCH_EXACT = DefaultPackage.virtual("TrackIndex$Searcher",
+            "searchExact", int.class, float[].class, int.class, int[].class, float[].class);
+
+    @Param({"100000"})
+    public int tracks;
+
+    @Param({"0", "1", "4", "8", "16", "64"})
+    public int nprobe;
+
+    private ScratchDir scratch;
+    private Object searcher;
+    private float[][] queries;
+    private int next;
+    private final int[] positions = new int[K];
+    private final float[] distances = new float[K];
+
+    private static MethodHandle widen(MethodHandle mh) {
+        return mh.asType(mh.type().changeReturnType(Object.class));
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        scratch = new ScratchDir("bench-trackindex");
+        Object index = index(scratch, tracks);
+        searcher = (Object) SEARCHER.invokeExact(index);
+        queries = queries(index);
+        System.out.printf("%nnprobe=%d of %d lists: recall@%d=%.4f%n",
+                nprobe, (int) NUM_LISTS.invokeExact(index), K, recall(searcher, queries, nprobe));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        scratch.close();
+    }
+
+    @Benchmark
+    public int query() throws Throwable {
+        float[] q = queries[next++ & (QUERIES - 1)];
+        return nprobe == 0
+                ? (int) SEARCH_EXACT.invokeExact(searcher, q, K, positions, distances)
+                : (int) SEARCH.invokeExact(searcher, q, K, nprobe, positions, distances);
+    }
+
+    /** Generates the catalog and builds its index under dir. */
+    static Object index(ScratchDir dir, int tracks) throws Throwable {
+        GENERATE.invokeExact(new String[] {
+            "-D", "synth.seed=" + SEED, "-D", "synth.threads=1", "-D", "synth.files=1",
+            "-D", "synth.tracks=" + tracks, "spotify", Integer.toString(tracks), dir.resolve("data").toString()});
+        Path file = dir.resolve("tracks.tidx");
+        Object builder = DefaultPackage.create("TrackIndexBuilder",
+                new Class<?>[] {Configuration.class}, new Configuration());
+        BUILD.invokeExact(builder, new org.apache.hadoop.fs.Path(dir.resolve("data").toString()), file);
+        return (Object) OPEN.invokeExact(file);
+    }
+
+    static float[][] queries(Object index) throws Throwable {
+        Random rnd = new Random(SEED);
+        int size = (int) SIZE.invokeExact(index);
+        float[][] queries = new float[QUERIES][9];
+        for (float[] q : queries) {
+            VECTOR.invokeExact(index, rnd.nextInt(size), q);
+        }
+        return queries;
+    }
+
+    /** Mean fraction of the exact top K that the index returns. */
+    static double recall(Object searcher, float[][] queries, int nprobe) throws Throwable {
+        if (nprobe == 0) {
+            return 1.0;
+        }
+        int[] exact = new int[K];
+        int[] found = new int[K];
+        float[] distances = new float[K];
+        long hits = 0;
+        for (float[] q : queries) {
+            int n = (int) SEARCH_EXACT.invokeExact(searcher, q, K, exact, distances);
+            int m = (int) SEARCH.invokeExact(searcher, q, K, nprobe, found, distances);
+            Arrays.sort(exact, 0, n);
+            for (int i = 0; i < m; i++) {
+                if (Arrays.binarySearch(exact, 0, n, found[i]) >= 0) {
+                    hits++;
+                }
+            }
+        }
+        return (double) hits / ((long) K * queries.length);
+    }
+
+    /**
+     * Prints recall@K and p50/p99 latency for nprobe from 1 to every list,
+     * against the exact scan.
+     */
+    public static void main(String[] args) throws Throwable {
+        int tracks = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        try (ScratchDir dir = new ScratchDir("bench-trackindex")) {
+            sweep(index(dir, tracks), tracks);
+        }
+    }
+
+    private static void sweep(Object index, int tracks) throws Throwable {
+        Object searcher = (Object) SEARCHER.invokeExact(index);
+        float[][] queries = queries(index);
+        int lists = (int) NUM_LISTS.invokeExact(index);
+
+        System.out.printf("%d tracks, %d lists, top %d%n", tracks, lists, K);
+        System.out.println("nprobe,recall,p50_us,p99_us");
+        double[] exact = latency(searcher, queries, 0);
+        System.out.printf("exact,1.0000,%.1f,%.1f%n", exact[0], exact[1]);
+        for (int nprobe = 1; nprobe < lists; nprobe *= 2) {
+            double[] micros = latency(searcher, queries, nprobe);
+            System.out.printf("%d,%.4f,%.1f,%.1f%n", nprobe, recall(searcher, queries, nprobe), micros[0], micros[1]);
+        }
+    }
+
+    /** p50 and p99 query time in microseconds of the last of three passes. */
+    private static double[] latency(Object searcher, float[][] queries, int nprobe) throws Throwable {
+        int[] positions = new int[K];
+        float[] distances = new float[K];
+        long[] nanos = new long[queries.length];
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 0; i < queries.length; i++) {
+                long t0 = System.nanoTime();
+                found += nprobe == 0
+                        ? (int) SEARCH_EXACT.invokeExact(searcher, queries[i], K, positions, distances)
+                        : (int) SEARCH.invokeExact(searcher, queries[i], K, nprobe, positions, distances);
+                nanos[i] = System.nanoTime() - t0;
+            }
+        }
+        Arrays.sort(nanos);
+        return new double[] {nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3};
+    }
+}
@@ -0,0 +1,54 @@
+#!/usr/bin/env python3
+"""Compares two JMH JSON result files written by bench/run.sh.
+
+    bench/compare.py bench/results/<before>.json bench/results/<after>.json
+
+Prints, per benchmark and parameter set present in both, the score and the
+bytes allocated per operation (-prof gc) with the change in percent.
+"""
+import json
+import sys
+
+
+def load(path):
+    with open(path) as f:
+        runs = json.load(f)
+    results = {}
+    for run in runs:
+        params = ",".join("%s=%s" % kv for kv in sorted(run.get("params", {}).items()))
+        name = run["benchmark"].rsplit(".", 2)
+        name = ".".join(name[-2:]) + ("(" + params + ")" if params else "")
+        primary = run["primaryMetric"]
+        alloc = run.get("secondaryMetrics", {}).get("gc.alloc.rate.norm", {}).get("score")
+        results[name] = (primary["score"], primary["scoreUnit"], alloc)
+    return results
+
+
+def change(before, after):
+    if before is None or after is None or before == 0:
+        return ""
+    return "%+.1f%%" % (100.0 * (after - before) / before)
+
+
+def main():
+    if len(sys.argv) != 3:
+        sys.exit(__doc__)
+    before, after = load(sys.argv[1]), load(sys.argv[2])
+    names = [n for n in after if n in before]
+    if not names:
+        sys.exit("No benchmarks in common")
+    width = max(len(n) for n in names)
+    print("%-*s %12s %12s %8s %10s %10s %8s" % (
+        width, "benchmark", "score", "was", "", "B/op", "was", ""))
+    for name in sorted(names):
+        score, unit, alloc = after[name]
+        old_score, _, old_alloc = before[name]
+        print("%-*s %12.3f %12.3f %8s %10s %10s %8s  %s" % (
+            width, name, score, old_score, change(old_score, score),
+            "-" if alloc is None else "%.1f" % alloc,
+            "-" if old_alloc is None else "%.1f" % old_alloc,
+            change(old_alloc, alloc), unit))
+
+
+if __name__ == "__main__":
+    main()
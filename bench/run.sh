@@ -0,0 +1,18 @@
+#!/bin/sh
+# Builds the benchmarks and runs them with the GC profiler, keeping the JSON
+# results as bench/results/<commit>.json (<commit>-dirty.json for a tree
+# with local changes) so runs can be compared with bench/compare.py.
+#
+#   bench/run.sh                          every benchmark
+#   bench/run.sh MapReduceBenchmark -p data=clean
+set -e
+cd "$(dirname "$0")/.."
+
+mvn -B -q -DskipTests package
+
+commit=$(git rev-parse --short HEAD)
+if ! git diff --quiet HEAD -- . ':!bench/results'; then
+    commit="$commit-dirty"
+fi
+mkdir -p bench/results
+java -jar bench/target/benchmarks.jar -prof gc -rf json -rff "bench/results/$commit.json" "$@"
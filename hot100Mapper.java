@@ -1,130 +1,352 @@
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
 public class hot100Mapper
     extends Mapper<LongWritable, Text, NullWritable, Text> {
 
   private static final int EXPECTED_FIELDS = 8;
-  
+  // The trailing column is never read, so rows missing it are still usable.
+  private static final int REQUIRED_FIELDS = EXPECTED_FIELDS - 1;
+
+  /** MultipleOutputs name for sampled rejected lines: "REASON\traw line". */
+  public static final String REJECTS_OUTPUT = "rejects";
+  public static final String REJECTS_ENABLED = "hot100.rejects.enabled";
+  /** Keep one of every N rejected lines in the side output. */
+  public static final String REJECTS_SAMPLE_EVERY = "hot100.rejects.sample.every";
+  /** Upper bound on rejected lines written per map task. */
+  public static final String REJECTS_MAX_PER_TASK = "hot100.rejects.max.per.task";
+  /** Whether map task 0 writes the output CSV header (default true). */
+  public static final String OUTPUT_HEADER = "hot100.output.header";
+
+  private static final String COUNTER_GROUP = "HOT100_CLEANING";
+
+  private static final byte[] OUTPUT_HEADER_LINE =
+      "Date,Song,Artist,Rank,Last Week,Peak Position,Weeks in Charts".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] NULL_LAST_WEEK = "NULL".getBytes(StandardCharsets.UTF_8);
+
+  /** Results of {@link #clean}; every one has a counter of the same name. */
+  public static final int CLEANED = 0;
+  public static final int HEADER = 1;
+  public static final int MALFORMED_RECORD = 2;
+  public static final int INVALID_DATE = 3;
+  public static final int MISSING_REQUIRED_FIELD = 4;
+  public static final int INVALID_NUMBER = 5;
+  public static final int INVALID_LAST_WEEK = 6;
+
+  private static final String[] RESULT_COUNTERS = {
+    "RECORDS_CLEANED",
+    "HEADER_SKIPPED",
+    "MALFORMED_RECORD",
+    "INVALID_DATE",
+    "MISSING_REQUIRED_FIELD",
+    "INVALID_NUMBER",
+    "INVALID_LAST_WEEK"
+  };
+
+  private final CsvFieldScanner scanner = new CsvFieldScanner();
+  private final CsvRowWriter row = new CsvRowWriter();
+  private final Text outValue = new Text();
+  private final CounterRegistry counters = new CounterRegistry();
+
+  private final int[] resultSlots = new int[RESULT_COUNTERS.length];
+  private int rejectsSampled;
+
+  private MultipleOutputs<NullWritable, Text> rejects;
+  private final Text rejectReason = new Text();
+  private int sampleEvery;
+  private long maxRejects;
+  private long rejectsSeen;
+  private long rejectsWritten;
+
+  /**
+   * Registers the rejects side output on a job that runs this mapper.
+   */
+  public static void configureRejects(Job job) {
+    MultipleOutputs.addNamedOutput(job, REJECTS_OUTPUT,
+        TextOutputFormat.class, Text.class, Text.class);
+    job.getConfiguration().setBoolean(REJECTS_ENABLED, true);
+  }
+
   @Override
-  public void map(LongWritable key, Text value, Context context)
-      throws IOException, InterruptedException {
-    
-    String line = value.toString();
-    
-    if (key.get() == 0) {
-      context.write(NullWritable.get(), 
-          new Text("Date,Song,Artist,Rank,Last Week,Peak Position,Weeks in Charts"));
-      return;
+  protected void setup(Context context) throws IOException, InterruptedException {
+    Configuration conf = context.getConfiguration();
+
+    for (int r = 0; r < RESULT_COUNTERS.length; r++) {
+      resultSlots[r] = counters.register(COUNTER_GROUP, RESULT_COUNTERS[r]);
     }
-    
-    String[] fields = parseCSVLine(line);
-    
-    if (fields.length != EXPECTED_FIELDS) {
-      System.err.println("MALFORMED_RECORD: Expected " + EXPECTED_FIELDS + 
-                         " fields, got " + fields.length + " at line " + key.get());
-      return;
+    rejectsSampled = counters.register(COUNTER_GROUP, "REJECTS_SAMPLED");
+    counters.bind(context);
+
+    if (conf.getBoolean(REJECTS_ENABLED, false)) {
+      rejects = new MultipleOutputs<>(context);
+      sampleEvery = Math.max(1, conf.getInt(REJECTS_SAMPLE_EVERY, 100));
+      maxRejects = conf.getLong(REJECTS_MAX_PER_TASK, 1000L);
     }
-    
-    String date = fields[0].trim();
-    String song = fields[1].trim();
-    String artist = fields[2].trim();
-    String rank = fields[3].trim();
-    String lastWeek = fields[4].trim();
-    String peakPosition = fields[5].trim();
-    String weeksInCharts = fields[6].trim();
-    
-    if (!isValidDate(date)) {
-      System.err.println("INVALID_DATE: " + date + " at line " + key.get());
-      return;
+
+    // Input headers are recognised by content and dropped wherever they
+    // appear; exactly one header goes out, at the top of part-m-00000.
+    if (conf.getBoolean(OUTPUT_HEADER, true)
+        && context.getTaskAttemptID().getTaskID().getId() == 0) {
+      outValue.set(OUTPUT_HEADER_LINE);
+      context.write(NullWritable.get(), outValue);
     }
-    
-    if (song.isEmpty() || artist.isEmpty()) {
-      System.err.println("MISSING_REQUIRED_FIELD: Song or Artist empty at line " + key.get());
-      return;
+  }
+
+  @Override
+  protected void cleanup(Context context) throws IOException, InterruptedException {
+    counters.flush();
+    if (rejects != null) {
+      rejects.close();
     }
-    
-    if (!isValidNumber(rank) || !isValidNumber(peakPosition) || !isValidNumber(weeksInCharts)) {
-      System.err.println("INVALID_NUMBER: at line " + key.get());
+  }
+
+  /**
+   * Counts a rejected line under its reason and, if sampled and still under
+   * the per-task cap, copies it to the rejects output.
+   */
+  private void reject(int result, Text line) throws IOException, InterruptedException {
+    counters.increment(resultSlots[result]);
+    if (rejects == null || rejectsWritten >= maxRejects) {
       return;
     }
-    
-    if (lastWeek.equals("#") || lastWeek.isEmpty()) {
-      lastWeek = "NULL";
-    } else if (!isValidNumber(lastWeek)) {
-      System.err.println("INVALID_LAST_WEEK: " + lastWeek + " at line " + key.get());
+    if (rejectsSeen++ % sampleEvery != 0) {
       return;
     }
-    
-    song = cleanQuotes(song);
-    artist = cleanQuotes(artist);
-    
-    StringBuilder cleanedRecord = new StringBuilder();
-    cleanedRecord.append(date).append(",")
-                 .append(escapeCSV(song)).append(",")
-                 .append(escapeCSV(artist)).append(",")
-                 .append(rank).append(",")
-                 .append(lastWeek).append(",")
-                 .append(peakPosition).append(",")
-                 .append(weeksInCharts);
-    
-    context.write(NullWritable.get(), new Text(cleanedRecord.toString()));
-  }
-  
-  private String[] parseCSVLine(String line) {
-    String[] result = new String[8];
-    int fieldIndex = 0;
-    StringBuilder currentField = new StringBuilder();
-    boolean inQuotes = false;
-    
-    for (int i = 0; i < line.length() && fieldIndex < 8; i++) {
-      char c = line.charAt(i);
-      
-      if (c == '"') {
-        inQuotes = !inQuotes;
-      } else if (c == ',' && !inQuotes) {
-        result[fieldIndex++] = currentField.toString();
-        currentField = new StringBuilder();
-      } else {
-        currentField.append(c);
-      }
+    rejectReason.set(RESULT_COUNTERS[result]);
+    rejects.write(REJECTS_OUTPUT, rejectReason, line);
+    rejectsWritten++;
+    counters.increment(rejectsSampled);
+  }
+
+  @Override
+  public void map(LongWritable key, Text value, Context context)
+      throws IOException, InterruptedException {
+
+    counters.tick();
+    int result = clean(value, outValue);
+
+    if (result == CLEANED) {
+      counters.increment(resultSlots[CLEANED]);
+      context.write(NullWritable.get(), outValue);
+    } else if (result == HEADER) {
+      counters.increment(resultSlots[HEADER]);
+    } else {
+      reject(result, value);
+    }
+  }
+
+  /**
+   * Cleans one chart line into {@code out} and returns CLEANED, or HEADER /
+   * a rejection reason, in which case {@code out} is left untouched.
+   */
+  public int clean(Text value, Text out) {
+    int numFields = scanner.scan(value);
+
+    if (isHeader()) {
+      return HEADER;
+    }
+
+    if (numFields < REQUIRED_FIELDS) {
+      return MALFORMED_RECORD;
+    }
+
+    byte[] b = scanner.bytes();
+    boolean validDate = scanner.isQuoted(0)
+        ? isValidDate(scanner.getString(0).trim())
+        : isValidDate(b, scanner.trimmedStart(0), scanner.trimmedEnd(0));
+    if (!validDate) {
+      return INVALID_DATE;
+    }
+
+    if (isBlank(1) || isBlank(2)) {
+      return MISSING_REQUIRED_FIELD;
+    }
+
+    if (!isNumber(3) || !isNumber(5) || !isNumber(6)) {
+      return INVALID_NUMBER;
+    }
+
+    boolean nullLastWeek = isBlank(4) || isHash(4);
+    if (!nullLastWeek && !isNumber(4)) {
+      return INVALID_LAST_WEEK;
     }
-    
-    if (fieldIndex < 8) {
-      result[fieldIndex] = currentField.toString();
+
+    row.reset();
+    appendPlain(0);
+    appendText(1);
+    appendText(2);
+    appendPlain(3);
+    if (nullLastWeek) {
+      row.appendRaw(NULL_LAST_WEEK);
+    } else {
+      appendPlain(4);
     }
-    
-    for (int i = fieldIndex + 1; i < 8; i++) {
-      result[i] = "";
+    appendPlain(5);
+    appendPlain(6);
+    row.writeTo(out);
+    return CLEANED;
+  }
+
+  /**
+   * A header line is one whose first column is "Date", in any file and at
+   * any offset, so multi-file inputs neither lose data rows nor keep headers.
+   */
+  private boolean isHeader() {
+    if (scanner.isQuoted(0)) {
+      return scanner.getString(0).trim().equalsIgnoreCase("date");
     }
-    
-    return result;
+    byte[] b = scanner.bytes();
+    int s = scanner.trimmedStart(0);
+    int e = scanner.trimmedEnd(0);
+    return e - s == 4
+        && (b[s] | 0x20) == 'd' && (b[s + 1] | 0x20) == 'a'
+        && (b[s + 2] | 0x20) == 't' && (b[s + 3] | 0x20) == 'e';
   }
-  
-  private boolean isValidDate(String date) {
-    return date.matches("\\d{4}-\\d{2}-\\d{2}");
+
+  private boolean isBlank(int i) {
+    if (scanner.isQuoted(i)) {
+      return scanner.getString(i).trim().isEmpty();
+    }
+    return scanner.isBlank(i);
+  }
+
+  private boolean isHash(int i) {
+    if (scanner.isQuoted(i)) {
+      return scanner.getString(i).trim().equals("#");
+    }
+    int s = scanner.trimmedStart(i);
+    return scanner.trimmedEnd(i) - s == 1 && scanner.bytes()[s] == '#';
   }
-  
-  private boolean isValidNumber(String str) {
-    if (str == null || str.isEmpty()) return false;
+
+  private boolean isNumber(int i) {
+    if (!scanner.isQuoted(i)) {
+      return scanner.isInt(i);
+    }
     try {
-      Integer.parseInt(str);
+      Integer.parseInt(scanner.getString(i).trim());
       return true;
     } catch (NumberFormatException e) {
       return false;
     }
   }
-  
+
+  /**
+   * Appends the trimmed field as is (dates and numbers need no escaping).
+   */
+  private void appendPlain(int i) {
+    if (scanner.isQuoted(i)) {
+      byte[] v = scanner.getString(i).trim().getBytes(StandardCharsets.UTF_8);
+      row.appendRaw(v, 0, v.length);
+    } else {
+      row.appendRaw(scanner.bytes(), scanner.trimmedStart(i), scanner.trimmedEnd(i));
+    }
+  }
+
+  /**
+   * Appends a song or artist: unquoted and CSV-escaped again if needed.
+   */
+  private void appendText(int i) {
+    byte[] b = scanner.bytes();
+    int s = scanner.trimmedStart(i);
+    int e = scanner.trimmedEnd(i);
+    boolean plain = true;
+    for (int k = s; k < e; k++) {
+      if (b[k] == '"' || b[k] == '\r') {
+        plain = false;
+        break;
+      }
+    }
+    if (plain) {
+      row.appendField(b, s, e);
+      return;
+    }
+    byte[] v = escapeCSV(cleanQuotes(scanner.getString(i).trim())).getBytes(StandardCharsets.UTF_8);
+    row.appendRaw(v, 0, v.length);
+  }
+
+  /**
+   * In a cleaned row (date,song,artist,rank,last week,peak,weeks) the
+   * offset of the comma after the artist: the last four columns are plain
+   * numbers, so it is the fourth comma from the end. -1 if there is none.
+   */
+  static int artistEnd(byte[] row, int length) {
+    int i = length;
+    for (int commas = 0; commas < 4 && i >= 0; commas++) {
+      i--;
+      while (i >= 0 && row[i] != ',') {
+        i--;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * Parses a cleaned integer column, row[s, e).
+   */
+  static int parseInt(byte[] row, int s, int e) {
+    boolean negative = row[s] == '-';
+    if (negative || row[s] == '+') {
+      s++;
+    }
+    int v = 0;
+    for (int i = s; i < e; i++) {
+      v = v * 10 + (row[i] - '0');
+    }
+    return negative ? -v : v;
+  }
+
+  /**
+   * yyyy-MM-dd shape check, same as matching \d{4}-\d{2}-\d{2}.
+   */
+  static boolean isValidDate(byte[] b, int s, int e) {
+    if (e - s != 10) {
+      return false;
+    }
+    for (int k = 0; k < 10; k++) {
+      int c = b[s + k];
+      if (k == 4 || k == 7) {
+        if (c != '-') {
+          return false;
+        }
+      } else if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isValidDate(String date) {
+    if (date.length() != 10) {
+      return false;
+    }
+    for (int k = 0; k < 10; k++) {
+      char c = date.charAt(k);
+      if (k == 4 || k == 7) {
+        if (c != '-') {
+          return false;
+        }
+      } else if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private String cleanQuotes(String str) {
     if (str.startsWith("\"") && str.endsWith("\"")) {
       str = str.substring(1, str.length() - 1);
     }
     return str.replace("\"\"", "\"");
   }
-  
+
   private String escapeCSV(String str) {
     if (str.contains(",") || str.contains("\"") || str.contains("\n")) {
       return "\"" + str.replace("\"", "\"\"") + "\"";
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CleaningDriverTest {
+
+    private static final String RAW_HEADER = "valence,year,acousticness,artists,danceability,duration_ms,"
+            + "energy,explicit,id,instrumentalness,key,liveness,loudness,mode,name,popularity,"
+            + "release_date,speechiness,tempo";
+
+    @TempDir
+    Path dir;
+
+    private static String track(String id) {
+        return "0.5,2000,0.1,\"['Artist, A']\",0.5,200000,0.5,0," + id
+                + ",0.0,5,0.1,-5.0,1,Song,50,2000-01-01,0.05,120.0";
+    }
+
+    private static Configuration localConf() {
+        Configuration conf = new Configuration();
+        conf.set("mapreduce.framework.name", "local");
+        conf.set("fs.defaultFS", "file:///");
+        return conf;
+    }
+
+    @Test
+    void combinedSplitKeepsOneHeader() throws Exception {
+        Path in = Files.createDirectories(dir.resolve("in"));
+        Files.write(in.resolve("a.csv"), List.of(RAW_HEADER, track("a1"), track("a2")), StandardCharsets.UTF_8);
+        Files.write(in.resolve("b.csv"), List.of(RAW_HEADER, track("b1"), track("b2")), StandardCharsets.UTF_8);
+        Path out = dir.resolve("out");
+
+        Configuration conf = localConf();
+        conf.setBoolean(CleaningDriver.COMBINE_INPUT, true);
+        Job job = CleaningDriver.createJob(conf, "spotify");
+        FileInputFormat.addInputPath(job, new org.apache.hadoop.fs.Path(in.toUri()));
+        FileOutputFormat.setOutputPath(job, new org.apache.hadoop.fs.Path(out.toUri()));
+        assertTrue(job.waitForCompletion(false));
+
+        assertEquals(2, job.getCounters().findCounter("CLEANING", "HEADER_SKIPPED").getValue());
+
+        List<Path> parts = parts(out);
+        // Map-only: one part file per map task.
+        assertEquals(1, parts.size(), "both files in one split");
+        List<String> lines = Files.readAllLines(parts.get(0), StandardCharsets.UTF_8);
+        assertEquals(5, lines.size(), String.join("\n", lines));
+        assertEquals(RAW_HEADER, lines.get(0));
+        for (String line : lines.subList(1, lines.size())) {
+            assertFalse(line.startsWith("valence"), line);
+            assertFalse(line.contains(",id,"), line);
+        }
+    }
+
+    private static List<Path> parts(Path out) throws IOException {
+        try (Stream<Path> files = Files.list(out)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("part-"))
+                    .collect(Collectors.toList());
+        }
+    }
+}